@@ -0,0 +1,660 @@
+package com.github.littletzaar;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import android.graphics.Point;
+import android.util.Log;
+
+/**
+ * This class implements an iterative-deepening alpha-beta search for the
+ * Tzaar AI.
+ * 
+ * The search is a negamax principal variation search. Depth is counted in
+ * single moves, not turns, so the score is only negated when the player to
+ * move changes (i.e. after the first turn and after each MOVE_SECOND).
+ * 
+ * Moves are ordered captures first, then by killer moves and the history
+ * heuristic. At the horizon a quiescence search resolves pending captures of
+ * stacks and of nearly extinct piece types.
+ * 
+ * Positions are cached in a transposition table, which may be shared with
+ * searches on other threads (see LazySmpSearch).
+ * 
+ * The search is deterministic: given the same position and enough time to
+ * reach the same depth, it always returns the same move.
+ */
+public class AlphaBetaSearch {
+	// Score of a won position (reduced by the ply so faster wins are preferred)
+	public static final int SCORE_WIN = 100000;
+
+	// Larger than any reachable score
+	private static final int SCORE_INFINITE = SCORE_WIN + 1;
+
+	// Maximum search depth (moves)
+	public static final int MAX_DEPTH = 64;
+
+	// Maximum quiescence search depth (moves)
+	public static final int MAX_QUIESCENCE_DEPTH = 6;
+
+	// Maximum number of valid moves in any position (30 pieces * 6 directions)
+	private static final int MAX_MOVES = 180;
+
+	// Number of board spaces, for indexing the history table
+	private static final int SPACES = GameBoard.COLS * GameBoard.ROWS;
+
+	// Move ordering bonuses
+	private static final int ORDER_HASH    = 1 << 30;
+	private static final int ORDER_CAPTURE = 1 << 24;
+	private static final int ORDER_KILLER  = 1 << 16;
+
+	// History scores are halved once any of them reaches this value
+	private static final int HISTORY_MAX = 1 << 14;
+
+	// Range of the random history scores of a seeded search
+	private static final int HISTORY_NOISE = 1 << 6;
+
+	// Number of nodes searched between checks of the clock
+	private static final int CHECK_INTERVAL = 1024;
+
+	// Game being searched (a private copy that is modified during the search)
+	private TzaarGame mGame;
+	
+	// Transposition table (possibly shared with other searches)
+	private TranspositionTable mTable;
+
+	// Valid moves and ordering scores at each ply
+	private ArrayList<ArrayList<Move>> mMoves = new ArrayList<ArrayList<Move>>();
+	private int[][] mScores = new int[MAX_DEPTH + MAX_QUIESCENCE_DEPTH + 1][MAX_MOVES];
+
+	// Two killer moves per ply, packed as (from << 8) | to space indexes
+	private int[][] mKillers = new int[MAX_DEPTH + MAX_QUIESCENCE_DEPTH + 1][2];
+
+	// History heuristic scores, indexed by [from space][to space]
+	private int[][] mHistory = new int[SPACES][SPACES];
+
+	// Best root move found by the current iteration
+	private Move mRootBestMove = null;
+
+	// Best root move of the previous iteration (searched first)
+	private Move mPrincipalMove = null;
+
+	// Search limits and state
+	private long mDeadline = 0;
+	private boolean mAborted = false;
+	private volatile boolean mStopped = false;
+	private long mNodes = 0;
+	private long mMaxNodes = Long.MAX_VALUE;
+	
+	// Limit that stopped the last search (SearchLimit.*)
+	private int mStopReason = SearchLimit.NONE;
+	
+	// Number of depths skipped by the first iteration (for helper threads)
+	private int mDepthOffset = 0;
+
+	// Depth and score of the last completed iteration
+	private int mCompletedDepth = 0;
+	private int mScore = 0;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param game position to search (copied, the original is never modified)
+	 */
+	public AlphaBetaSearch(TzaarGame game) {
+		this(game, new TranspositionTable(TranspositionTable.DEFAULT_ENTRIES));
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param game position to search (copied, the original is never modified)
+	 * @param table transposition table
+	 */
+	public AlphaBetaSearch(TzaarGame game, TranspositionTable table) {
+		mGame = new TzaarGame(game);
+		mTable = table;
+
+		for (int i = 0; i < mScores.length; ++i) {
+			mMoves.add(new ArrayList<Move>(MAX_MOVES));
+		}
+	}
+
+	/**
+	 * Searches for the best move by iterative deepening until the time or
+	 * node limit runs out, the maximum depth is reached or a forced result
+	 * is found (see getStopReason()).
+	 * 
+	 * @param maxMillis time limit (ms)
+	 * @param maxDepth depth limit (moves)
+	 * @return best move, or null if there are no valid moves
+	 */
+	public Move findMove(long maxMillis, int maxDepth) {
+		long startTime = System.currentTimeMillis();
+		mDeadline = startTime + maxMillis;
+		mAborted = mStopped;
+		mNodes = 0;
+		mCompletedDepth = 0;
+		mStopReason = mStopped ? SearchLimit.INTERRUPTED : SearchLimit.NONE;
+		clearKillers();
+
+		int playerColor = mGame.whoseTurn();
+		ArrayList<Move> rootMoves = new ArrayList<Move>();
+		mGame.getValidMoves(playerColor, mGame.getMoveNumber(), rootMoves);
+		if (rootMoves.isEmpty()) {
+			return null;
+		}
+
+		// Take a game-ending capture without searching
+		Move bestMove = mGame.findDecisiveMove(rootMoves);
+		if (bestMove != null) {
+			return bestMove;
+		}
+
+		bestMove = rootMoves.get(0);
+		mPrincipalMove = null;
+		if (!mAborted) {
+			mStopReason = SearchLimit.DEPTH;
+		}
+		for (int depth = 1 + mDepthOffset; depth <= Math.min(maxDepth, MAX_DEPTH); ++depth) {
+			mRootBestMove = null;
+			int score = search(depth, -SCORE_INFINITE, SCORE_INFINITE, 0);
+
+			// Keep the best move of the deepest completed iteration only
+			// (checkLimits() has set the stop reason)
+			if (mAborted) {
+				break;
+			}
+
+			bestMove = mRootBestMove;
+			mPrincipalMove = bestMove;
+			mCompletedDepth = depth;
+			mScore = score;
+
+			Log.v("Instrumentation", String.format("Alpha-beta depth %d: best %s score %d nodes %d (%d ms)",
+					depth, bestMove, score, mNodes, System.currentTimeMillis() - startTime));
+
+			// Stop once a forced win or loss has been found
+			if (Math.abs(score) > SCORE_WIN - MAX_DEPTH) {
+				mStopReason = SearchLimit.SOLVED;
+				break;
+			}
+		}
+
+		return bestMove;
+	}
+
+	/**
+	 * Principal variation search.
+	 * 
+	 * @param depth remaining depth (moves)
+	 * @param alpha
+	 * @param beta
+	 * @param ply distance from the root (moves)
+	 * @return score from the point of view of the player to move
+	 */
+	private int search(int depth, int alpha, int beta, int ply) {
+		checkLimits();
+		if (mAborted) {
+			return 0;
+		}
+
+		int playerColor = mGame.whoseTurn();
+		int winner = mGame.getWinner();
+		if (winner != GameBoard.COLOR_UNSET) {
+			return (winner == playerColor) ? (SCORE_WIN - ply) : -(SCORE_WIN - ply);
+		}
+
+		if (depth <= 0 || ply >= MAX_DEPTH) {
+			return quiesce(alpha, beta, ply, 0);
+		}
+
+		// Use the stored result if it was searched deep enough, otherwise 
+		// just search its best move first
+		long hash = mGame.getHash();
+		long entry = mTable.probe(hash);
+		int hashMove = -1;
+		if (entry != TranspositionTable.MISS) {
+			hashMove = TranspositionTable.getMove(entry);
+			
+			if (ply > 0 && TranspositionTable.getDepth(entry) >= depth) {
+				int score = scoreFromTable(TranspositionTable.getScore(entry), ply);
+				int bound = TranspositionTable.getBound(entry);
+				
+				if (bound == TranspositionTable.BOUND_EXACT
+						|| (bound == TranspositionTable.BOUND_LOWER && score >= beta)
+						|| (bound == TranspositionTable.BOUND_UPPER && score <= alpha)) {
+					return score;
+				}
+			}
+		}
+
+		ArrayList<Move> moves = mMoves.get(ply);
+		mGame.getValidMoves(playerColor, mGame.getMoveNumber(), moves);
+		if (moves.isEmpty()) {
+			return noMovesScore(depth, alpha, beta, ply);
+		}
+		scoreMoves(moves, ply, false, hashMove);
+
+		int originalAlpha = alpha;
+		int bestScore = -SCORE_INFINITE;
+		Move bestMove = null;
+		for (int i = 0; i < moves.size(); ++i) {
+			Move move = nextMove(moves, ply, i);
+			byte fromPiece = mGame.board.getPiece(move.from.x, move.from.y);
+			byte toPiece = mGame.board.getPiece(move.to.x, move.to.y);
+
+			mGame.move(move);
+			boolean samePlayer = mGame.whoseTurn() == playerColor;
+
+			// Search the first move with a full window, and the rest with a
+			// null window unless they turn out to be better
+			int score;
+			if (i == 0) {
+				score = searchChild(depth - 1, alpha, beta, ply + 1, samePlayer);
+			}
+			else {
+				score = searchChild(depth - 1, alpha, alpha + 1, ply + 1, samePlayer);
+				if (score > alpha && score < beta) {
+					score = searchChild(depth - 1, alpha, beta, ply + 1, samePlayer);
+				}
+			}
+
+			mGame.undo(move, fromPiece, toPiece);
+			if (mAborted) {
+				return 0;
+			}
+
+			if (score > bestScore) {
+				bestScore = score;
+				bestMove = move;
+				if (ply == 0 && (score > alpha || mRootBestMove == null)) {
+					mRootBestMove = move;
+				}
+				if (score > alpha) {
+					alpha = score;
+					if (alpha >= beta) {
+						recordCutoff(move, depth, ply);
+						break;
+					}
+				}
+			}
+		}
+
+		int bound;
+		if (bestScore <= originalAlpha) {
+			bound = TranspositionTable.BOUND_UPPER;
+		}
+		else if (bestScore >= beta) {
+			bound = TranspositionTable.BOUND_LOWER;
+		}
+		else {
+			bound = TranspositionTable.BOUND_EXACT;
+		}
+		mTable.store(hash, packMove(bestMove), depth, bound, scoreToTable(bestScore, ply));
+
+		return bestScore;
+	}
+	
+	/**
+	 * Converts a win score relative to the root into one relative to the 
+	 * current node, so it stays correct when found through another path.
+	 */
+	private static int scoreToTable(int score, int ply) {
+		if (score > SCORE_WIN - MAX_DEPTH * 2) {
+			return score + ply;
+		}
+		else if (score < -(SCORE_WIN - MAX_DEPTH * 2)) {
+			return score - ply;
+		}
+		
+		return score;
+	}
+	
+	/**
+	 * Converts a win score stored in the table back to one relative to the
+	 * root.
+	 */
+	private static int scoreFromTable(int score, int ply) {
+		if (score > SCORE_WIN - MAX_DEPTH * 2) {
+			return score - ply;
+		}
+		else if (score < -(SCORE_WIN - MAX_DEPTH * 2)) {
+			return score + ply;
+		}
+		
+		return score;
+	}
+
+	/**
+	 * Searches a child position, negating the window and the result only if
+	 * the player to move has changed.
+	 */
+	private int searchChild(int depth, int alpha, int beta, int ply, boolean samePlayer) {
+		if (samePlayer) {
+			return search(depth, alpha, beta, ply);
+		}
+		else {
+			return -search(depth, -beta, -alpha, ply);
+		}
+	}
+
+	/**
+	 * Quiescence search over tactical captures, so the static evaluation is
+	 * never applied in the middle of a capture sequence.
+	 * 
+	 * @param alpha
+	 * @param beta
+	 * @param ply distance from the root (moves)
+	 * @param qdepth distance from the horizon (moves)
+	 * @return score from the point of view of the player to move
+	 */
+	private int quiesce(int alpha, int beta, int ply, int qdepth) {
+		checkLimits();
+		if (mAborted) {
+			return 0;
+		}
+
+		int playerColor = mGame.whoseTurn();
+		int winner = mGame.getWinner();
+		if (winner != GameBoard.COLOR_UNSET) {
+			return (winner == playerColor) ? (SCORE_WIN - ply) : -(SCORE_WIN - ply);
+		}
+
+		// Assume the player can do at least as well as the current position
+		int bestScore = mGame.evaluate(playerColor);
+		if (bestScore >= beta || qdepth >= MAX_QUIESCENCE_DEPTH || ply >= mMoves.size() - 1) {
+			return bestScore;
+		}
+		if (bestScore > alpha) {
+			alpha = bestScore;
+		}
+
+		ArrayList<Move> moves = mMoves.get(ply);
+		mGame.getValidMoves(playerColor, mGame.getMoveNumber(), moves);
+		scoreMoves(moves, ply, true, -1);
+
+		for (int i = 0; i < moves.size(); ++i) {
+			Move move = nextMove(moves, ply, i);
+
+			// Only tactical captures are scored above zero
+			if (mScores[ply][i] <= 0) {
+				break;
+			}
+
+			byte fromPiece = mGame.board.getPiece(move.from.x, move.from.y);
+			byte toPiece = mGame.board.getPiece(move.to.x, move.to.y);
+
+			mGame.move(move);
+			int score;
+			if (mGame.whoseTurn() == playerColor) {
+				score = quiesce(alpha, beta, ply + 1, qdepth + 1);
+			}
+			else {
+				score = -quiesce(-beta, -alpha, ply + 1, qdepth + 1);
+			}
+			mGame.undo(move, fromPiece, toPiece);
+
+			if (mAborted) {
+				return 0;
+			}
+
+			if (score > bestScore) {
+				bestScore = score;
+				if (score > alpha) {
+					alpha = score;
+					if (alpha >= beta) {
+						break;
+					}
+				}
+			}
+		}
+
+		return bestScore;
+	}
+
+	/**
+	 * Scores a position where the player to move has no valid moves (see
+	 * TzaarGame.getNoMovesWinner()): either a loss, or a pass that is
+	 * searched like a move.
+	 */
+	private int noMovesScore(int depth, int alpha, int beta, int ply) {
+		if (mGame.getNoMovesWinner() != GameBoard.COLOR_UNSET) {
+			return -(SCORE_WIN - ply);
+		}
+
+		mGame.pass();
+		int score = -search(depth - 1, -beta, -alpha, ply + 1);
+		mGame.undoPass();
+		return score;
+	}
+
+	/**
+	 * Assigns move ordering scores to the moves at the given ply.
+	 * 
+	 * At the root the best move of the previous iteration comes first, and 
+	 * elsewhere the best move from the transposition table. Then captures,
+	 * ordered by the value of the captured piece. Within each class, killer
+	 * moves and then history scores break ties. In a quiescence search only
+	 * tactical captures (of stacks or of a type with at most two pieces left)
+	 * get a positive score.
+	 * 
+	 * @param moves
+	 * @param ply
+	 * @param tacticalOnly
+	 * @param hashMove packed best move from the transposition table, or -1
+	 */
+	private void scoreMoves(ArrayList<Move> moves, int ply, boolean tacticalOnly, int hashMove) {
+		int[] scores = mScores[ply];
+
+		for (int i = 0; i < moves.size(); ++i) {
+			Move move = moves.get(i);
+
+			if (tacticalOnly) {
+				byte target = mGame.board.getPiece(move.to.x, move.to.y);
+				int count = mGame.board.getPieceCount((byte) (target & 7));
+				boolean tactical = move.type == TzaarGame.MOVE_CAPTURE && (count <= 2 || (target >> 3) > 1);
+				scores[i] = tactical ? captureValue(move) : 0;
+				continue;
+			}
+
+			int from = spaceIndex(move.from);
+			int to = spaceIndex(move.to);
+			int packed = move.pack();
+			int score = mHistory[from][to];
+
+			if (move.type == TzaarGame.MOVE_CAPTURE) {
+				score += ORDER_CAPTURE + (captureValue(move) << 8);
+			}
+			if (packed == mKillers[ply][0] || packed == mKillers[ply][1]) {
+				score += ORDER_KILLER;
+			}
+			if (packed == hashMove) {
+				score += ORDER_HASH;
+			}
+			if (ply == 0 && move.equals(mPrincipalMove)) {
+				score = Integer.MAX_VALUE;
+			}
+
+			scores[i] = score;
+		}
+	}
+
+	/**
+	 * Calculates the value of capturing the piece at the move's destination.
+	 * Pieces of scarce types and tall stacks are worth the most.
+	 * 
+	 * @param move
+	 * @return capture value (1 to 64)
+	 */
+	private int captureValue(Move move) {
+		byte target = mGame.board.getPiece(move.to.x, move.to.y);
+		int count = mGame.board.getPieceCount((byte) (target & 7));
+		int height = target >> 3;
+
+		return Math.max(1, Math.min(63, 48 / Math.max(count, 1) + height));
+	}
+
+	/**
+	 * Selects the highest scored move from the unsearched moves at the given
+	 * ply and swaps it (and its score) into position i.
+	 * 
+	 * @param moves
+	 * @param ply
+	 * @param i
+	 * @return the selected move
+	 */
+	private Move nextMove(ArrayList<Move> moves, int ply, int i) {
+		int[] scores = mScores[ply];
+
+		int best = i;
+		for (int j = i + 1; j < moves.size(); ++j) {
+			if (scores[j] > scores[best]) {
+				best = j;
+			}
+		}
+
+		if (best != i) {
+			Move move = moves.get(best);
+			moves.set(best, moves.get(i));
+			moves.set(i, move);
+
+			int score = scores[best];
+			scores[best] = scores[i];
+			scores[i] = score;
+		}
+
+		return moves.get(i);
+	}
+
+	/**
+	 * Updates the killer moves and history table after a beta cutoff.
+	 * 
+	 * @param move
+	 * @param depth
+	 * @param ply
+	 */
+	private void recordCutoff(Move move, int depth, int ply) {
+		int from = spaceIndex(move.from);
+		int to = spaceIndex(move.to);
+		int packed = move.pack();
+
+		if (mKillers[ply][0] != packed) {
+			mKillers[ply][1] = mKillers[ply][0];
+			mKillers[ply][0] = packed;
+		}
+
+		mHistory[from][to] += depth * depth;
+		if (mHistory[from][to] >= HISTORY_MAX) {
+			for (int i = 0; i < SPACES; ++i) {
+				for (int j = 0; j < SPACES; ++j) {
+					mHistory[i][j] >>= 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts a node and aborts the search if the time or the node limit is
+	 * up, the search was stopped from another thread or its thread was
+	 * interrupted.
+	 */
+	private void checkLimits() {
+		if ((++mNodes % CHECK_INTERVAL) != 0) {
+			return;
+		}
+		
+		if (mStopped || Thread.currentThread().isInterrupted()) {
+			mStopReason = SearchLimit.INTERRUPTED;
+		}
+		else if (System.currentTimeMillis() > mDeadline) {
+			mStopReason = SearchLimit.TIME;
+		}
+		else if (mNodes >= mMaxNodes) {
+			mStopReason = SearchLimit.NODES;
+		}
+		else {
+			return;
+		}
+		mAborted = true;
+	}
+	
+	/**
+	 * Stops the search as soon as possible. Can be called from any thread.
+	 */
+	public void stop() {
+		mStopped = true;
+	}
+	
+	/**
+	 * Sets the number of depths the first iteration skips, so that helper 
+	 * threads of a parallel search work at staggered depths.
+	 * 
+	 * @param depthOffset
+	 */
+	public void setDepthOffset(int depthOffset) {
+		mDepthOffset = depthOffset;
+	}
+	
+	/**
+	 * Fills the history table with small random scores, so that a helper
+	 * thread of a parallel search breaks ties in the move order differently
+	 * from the other threads.
+	 * 
+	 * @param seed
+	 */
+	public void setOrderingSeed(long seed) {
+		Random rand = new Random(seed);
+		for (int i = 0; i < SPACES; ++i) {
+			for (int j = 0; j < SPACES; ++j) {
+				mHistory[i][j] = rand.nextInt(HISTORY_NOISE);
+			}
+		}
+	}
+	
+	/**
+	 * Sets the node limit of the following searches, which is checked every
+	 * CHECK_INTERVAL nodes.
+	 * 
+	 * @param maxNodes maximum number of nodes, or Long.MAX_VALUE for no limit
+	 */
+	public void setMaxNodes(long maxNodes) {
+		mMaxNodes = maxNodes;
+	}
+	
+	private static int packMove(Move move) {
+		return (move == null) ? 0 : move.pack();
+	}
+
+	private void clearKillers() {
+		for (int i = 0; i < mKillers.length; ++i) {
+			mKillers[i][0] = -1;
+			mKillers[i][1] = -1;
+		}
+	}
+
+	private static int spaceIndex(Point point) {
+		return point.x * GameBoard.ROWS + point.y;
+	}
+
+	public long getNodes() {
+		return mNodes;
+	}
+
+	public int getCompletedDepth() {
+		return mCompletedDepth;
+	}
+
+	public int getScore() {
+		return mScore;
+	}
+
+	/**
+	 * Gets the limit that stopped the last search.
+	 * 
+	 * @return SearchLimit.*, NONE if the move was found without searching
+	 */
+	public int getStopReason() {
+		return mStopReason;
+	}
+}
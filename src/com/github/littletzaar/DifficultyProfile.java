@@ -0,0 +1,122 @@
+package com.github.littletzaar;
+
+/**
+ * The compute budget of the AI at a difficulty level: playouts (for the
+ * Monte Carlo search) or nodes (for the alpha-beta search), threads, memory
+ * and time. A search stops at whichever of the playout, node and time limits
+ * it reaches first and reports which one it was (see SearchLimit). The
+ * memory limit caps the size of the search structures instead.
+ * 
+ * The time limit is for a whole turn, which is two moves except for the
+ * first turn of the game, so each move gets its share (see
+ * getMoveMillis()). The other limits apply to each move.
+ * 
+ * Budgets in playouts and nodes give the same strength on any device, while
+ * the time limit bounds the latency on slow ones. The defaults below suit a
+ * mid-range phone; TzaarGame.setProfile() replaces them for other devices.
+ */
+public class DifficultyProfile {
+	// No limit on playouts, nodes or time
+	public static final long UNLIMITED = Long.MAX_VALUE;
+
+	// Thread count meaning one thread per core
+	public static final int ALL_CORES = 0;
+
+	// Default profiles: weak levels play a turn within 200 ms on a single
+	// thread (180 ms of search, leaving room for the work around it), and
+	// HARD searches on every core for up to 15 s a move
+	public static final DifficultyProfile EASY = new DifficultyProfile(200, UNLIMITED, 1, 4L << 20, 180);
+	public static final DifficultyProfile MEDIUM = new DifficultyProfile(1500, UNLIMITED, 1, 8L << 20, 180);
+	public static final DifficultyProfile HARD = new DifficultyProfile(UNLIMITED, UNLIMITED, ALL_CORES, 32L << 20, 30000);
+
+	private final long mMaxPlayouts;
+	private final long mMaxNodes;
+	private final int mThreads;
+	private final long mMaxMemory;
+	private final long mMaxMillis;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxPlayouts playout limit of the Monte Carlo search
+	 * @param maxNodes node limit of the alpha-beta search, over all threads
+	 * @param threads number of threads of the alpha-beta search (the Monte
+	 *        Carlo search runs on one), or ALL_CORES
+	 * @param maxMemory limit of the search structures, within the app's
+	 *        MemoryBudget (bytes)
+	 * @param maxMillis time limit of a turn, including the endgame solver (ms)
+	 */
+	public DifficultyProfile(long maxPlayouts, long maxNodes, int threads, long maxMemory, long maxMillis) {
+		if (maxPlayouts < 1 || maxNodes < 1 || threads < 0 || maxMemory < 1 || maxMillis < 1) {
+			throw new IllegalArgumentException("Invalid difficulty profile");
+		}
+
+		mMaxPlayouts = maxPlayouts;
+		mMaxNodes = maxNodes;
+		mThreads = threads;
+		mMaxMemory = maxMemory;
+		mMaxMillis = maxMillis;
+	}
+
+	/**
+	 * Gets the default profile of a difficulty level.
+	 * 
+	 * @param difficulty TzaarGame.DIFFICULTY_*
+	 * @return profile, or null for DIFFICULTY_NONE
+	 */
+	public static DifficultyProfile forDifficulty(int difficulty) {
+		switch (difficulty) {
+			case TzaarGame.DIFFICULTY_EASY:
+				return EASY;
+			case TzaarGame.DIFFICULTY_MEDIUM:
+				return MEDIUM;
+			case TzaarGame.DIFFICULTY_HARD:
+				return HARD;
+			default:
+				return null;
+		}
+	}
+
+	public long getMaxPlayouts() {
+		return mMaxPlayouts;
+	}
+
+	public long getMaxNodes() {
+		return mMaxNodes;
+	}
+
+	/**
+	 * Gets the number of threads of the alpha-beta search.
+	 * 
+	 * @return number of threads (at least one)
+	 */
+	public int getThreads() {
+		return (mThreads == ALL_CORES) ? Runtime.getRuntime().availableProcessors() : mThreads;
+	}
+
+	public long getMaxMemory() {
+		return mMaxMemory;
+	}
+
+	public long getMaxMillis() {
+		return mMaxMillis;
+	}
+
+	/**
+	 * Gets the time limit of a move: the whole turn's for the single move of
+	 * the first turn, and half of it otherwise.
+	 * 
+	 * @param turnCount TzaarGame.getTurnCount() of the position
+	 * @return time limit (ms)
+	 */
+	public long getMoveMillis(int turnCount) {
+		return (turnCount == 0) ? mMaxMillis : Math.max(mMaxMillis / 2, 1);
+	}
+
+	public String toString() {
+		return String.format("playouts %s, nodes %s, threads %d, memory %.1f MB, time %d ms a turn",
+				mMaxPlayouts == UNLIMITED ? "unlimited" : String.valueOf(mMaxPlayouts),
+				mMaxNodes == UNLIMITED ? "unlimited" : String.valueOf(mMaxNodes),
+				getThreads(), mMaxMemory / 1048576.0, mMaxMillis);
+	}
+}
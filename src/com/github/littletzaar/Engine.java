@@ -0,0 +1,22 @@
+package com.github.littletzaar;
+
+/**
+ * A move-choosing player for headless games (see Tournament). Engines must be
+ * safe to call from several threads at once, each with its own game.
+ */
+public interface Engine {
+	/**
+	 * Chooses a move for the player to move.
+	 * 
+	 * @param game position (must not be modified)
+	 * @return move, or null if there are no valid moves
+	 */
+	Move findMove(TzaarGame game);
+	
+	/**
+	 * Gets the name of the engine with its settings, for reports.
+	 * 
+	 * @return name
+	 */
+	String getName();
+}
@@ -0,0 +1,198 @@
+package com.github.littletzaar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Creates engines from short text specifications, for command line tools:
+ * 
+ *   random                      uniformly random valid moves
+ *   mcts:<playouts>[:<ms>]      Monte Carlo tree search
+ *   mctsp:<file>:<playouts>[:<ms>]
+ *                               Monte Carlo tree search with the playout
+ *                               policy in the file (see PlayoutPolicy)
+ *   ab:<ms>[:<depth>]           single-threaded alpha-beta search
+ *   easy, medium, hard[:<ms>]   TzaarGame.findMove() at that difficulty,
+ *                               optionally with another time limit a turn
+ * 
+ * The difficulty engines use the playout policy and the tablebase of the
+ * assets folder in the working directory, when there is one, as the app does
+ * on a device.
+ */
+public final class Engines {
+	// Time limit of searches limited by playouts or depth instead (ms)
+	private static final long NO_TIME_LIMIT = Long.MAX_VALUE / 2;
+	
+	// Folder of the app's assets, relative to the working directory
+	private static final String ASSETS_DIR = "assets";
+	
+	private Engines() {
+	}
+	
+	/**
+	 * Creates an engine.
+	 * 
+	 * @param spec specification, e.g. "mcts:2000"
+	 * @return engine
+	 * @throws IllegalArgumentException if the specification is not valid
+	 */
+	public static Engine create(String spec) {
+		String[] parts = spec.split(":");
+		try {
+			if (parts[0].equals("random") && parts.length == 1) {
+				return new RandomEngine();
+			}
+			else if (parts[0].equals("mcts") && (parts.length == 2 || parts.length == 3)) {
+				return new MctsEngine(Integer.parseInt(parts[1]), 
+						parts.length == 3 ? Long.parseLong(parts[2]) : NO_TIME_LIMIT, null, null);
+			}
+			else if (parts[0].equals("mctsp") && (parts.length == 3 || parts.length == 4)) {
+				return new MctsEngine(Integer.parseInt(parts[2]), 
+						parts.length == 4 ? Long.parseLong(parts[3]) : NO_TIME_LIMIT, 
+						PlayoutPolicy.open(new File(parts[1])), parts[1]);
+			}
+			else if (parts[0].equals("ab") && (parts.length == 2 || parts.length == 3)) {
+				return new AlphaBetaEngine(Long.parseLong(parts[1]), 
+						parts.length == 3 ? Integer.parseInt(parts[2]) : AlphaBetaSearch.MAX_DEPTH);
+			}
+			else if (parts[0].equals("easy") && parts.length <= 2) {
+				return new DifficultyEngine(spec, TzaarGame.DIFFICULTY_EASY, parts.length == 2 ? Long.parseLong(parts[1]) : 0);
+			}
+			else if (parts[0].equals("medium") && parts.length <= 2) {
+				return new DifficultyEngine(spec, TzaarGame.DIFFICULTY_MEDIUM, parts.length == 2 ? Long.parseLong(parts[1]) : 0);
+			}
+			else if (parts[0].equals("hard") && parts.length <= 2) {
+				return new DifficultyEngine(spec, TzaarGame.DIFFICULTY_HARD, parts.length == 2 ? Long.parseLong(parts[1]) : 0);
+			}
+		}
+		catch (NumberFormatException nfe) {
+			// Reported below
+		}
+		catch (IOException ioe) {
+			throw new IllegalArgumentException("Invalid engine " + spec + ": " + ioe.getMessage());
+		}
+		
+		throw new IllegalArgumentException("Invalid engine " + spec);
+	}
+	
+	/**
+	 * Plays uniformly random valid moves.
+	 */
+	private static class RandomEngine implements Engine {
+		@Override
+		public Move findMove(TzaarGame game) {
+			ArrayList<Move> moves = new ArrayList<Move>();
+			game.getValidMoves(game.whoseTurn(), game.getMoveNumber(), moves);
+			return moves.isEmpty() ? null : moves.get(new Random().nextInt(moves.size()));
+		}
+		
+		@Override
+		public String getName() {
+			return "random";
+		}
+	}
+	
+	/**
+	 * Searches with MonteCarloTreeSearch (without the position cache), with
+	 * uniformly random playouts or a playout policy.
+	 */
+	private static class MctsEngine implements Engine {
+		private final int mPlayouts;
+		private final long mMaxMillis;
+		private final PlayoutPolicy mPolicy;
+		private final String mPolicyName;
+		
+		MctsEngine(int playouts, long maxMillis, PlayoutPolicy policy, String policyName) {
+			mPlayouts = playouts;
+			mMaxMillis = maxMillis;
+			mPolicy = policy;
+			mPolicyName = policyName;
+		}
+		
+		@Override
+		public Move findMove(TzaarGame game) {
+			TzaarGame copy = new TzaarGame(game);
+			copy.setPlayoutPolicy(mPolicy);
+			return new MonteCarloTreeSearch(copy).findMove(mPlayouts, mMaxMillis);
+		}
+		
+		@Override
+		public String getName() {
+			return (mPolicy != null ? "mctsp:" + mPolicyName + ":" : "mcts:") + mPlayouts 
+					+ (mMaxMillis != NO_TIME_LIMIT ? ":" + mMaxMillis : "");
+		}
+	}
+	
+	/**
+	 * Searches with AlphaBetaSearch on the calling thread.
+	 */
+	private static class AlphaBetaEngine implements Engine {
+		private final long mMaxMillis;
+		private final int mMaxDepth;
+		
+		AlphaBetaEngine(long maxMillis, int maxDepth) {
+			mMaxMillis = maxMillis;
+			mMaxDepth = maxDepth;
+		}
+		
+		@Override
+		public Move findMove(TzaarGame game) {
+			return new AlphaBetaSearch(game).findMove(mMaxMillis, mMaxDepth);
+		}
+		
+		@Override
+		public String getName() {
+			return "ab:" + mMaxMillis + (mMaxDepth != AlphaBetaSearch.MAX_DEPTH ? ":" + mMaxDepth : "");
+		}
+	}
+	
+	/**
+	 * Plays like the app at one of its difficulties.
+	 */
+	private static class DifficultyEngine implements Engine {
+		private final String mName;
+		private final int mDifficulty;
+		private final DifficultyProfile mProfile;
+		private final PlayoutPolicy mPolicy;
+		private final Tablebase mTablebase;
+		
+		/**
+		 * Constructor.
+		 * 
+		 * @param name
+		 * @param difficulty TzaarGame.DIFFICULTY_*
+		 * @param maxMillis time limit of a turn (ms), or 0 for the profile's
+		 * @throws IOException if an asset is not valid
+		 */
+		DifficultyEngine(String name, int difficulty, long maxMillis) throws IOException {
+			mName = name;
+			mDifficulty = difficulty;
+			
+			DifficultyProfile profile = DifficultyProfile.forDifficulty(difficulty);
+			mProfile = (maxMillis > 0) ? new DifficultyProfile(profile.getMaxPlayouts(), profile.getMaxNodes(), 
+					profile.getThreads(), profile.getMaxMemory(), maxMillis) : profile;
+			
+			File policy = new File(ASSETS_DIR, PlayoutPolicy.ASSET_NAME);
+			File tablebase = new File(ASSETS_DIR, Tablebase.ASSET_NAME);
+			mPolicy = policy.exists() ? PlayoutPolicy.open(policy) : null;
+			mTablebase = tablebase.exists() ? Tablebase.open(tablebase) : null;
+		}
+		
+		@Override
+		public Move findMove(TzaarGame game) {
+			TzaarGame copy = new TzaarGame(game);
+			copy.setDifficulty(mDifficulty);
+			copy.setProfile(mProfile);
+			copy.setPlayoutPolicy(mPolicy);
+			copy.setTablebase(mTablebase);
+			return copy.findMove(copy.whoseTurn(), copy.getMoveNumber());
+		}
+		
+		@Override
+		public String getName() {
+			return mName;
+		}
+	}
+}
@@ -1,42 +1,88 @@
 package com.github.littletzaar;
 
+import java.io.IOException;
+
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ComponentCallbacks2;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
 import android.util.Log;
 
-// TODO: Check savedInstanceState and recreate saved activity if possible
-//       (including in-progress game state)
 public class GameActivity extends Activity {
+	// Intent extra requesting to resume the saved game
+	public static final String EXTRA_RESUME = "resume";
+	
+	// Instance state key of the game in progress
+	private static final String STATE_SAVED_GAME = "saved_game";
+	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		Log.v("GameActivity.onCreate", "Enter");
 		super.onCreate(savedInstanceState);
 		
-		// Extract the new game options
-		Bundle extras = getIntent().getExtras();
-		String color = extras.getString("player_color");
-		String difficulty = extras.getString("difficulty");
-		String positions = extras.getString("start_positions");
-		
 		// Set up the board view
 		setContentView(R.layout.activity_game);
 		GameViewGroup view = (GameViewGroup) findViewById(R.id.game_view);
-		view.setColor(color);
-		view.setDifficulty(difficulty);
-		view.setPositions(positions);
+		
+		// Recreate the game in progress if the activity is being recreated
+		SavedGame saved = null;
+		if (savedInstanceState != null && savedInstanceState.containsKey(STATE_SAVED_GAME)) {
+			try {
+				saved = SavedGame.fromBytes(savedInstanceState.getByteArray(STATE_SAVED_GAME));
+			}
+			catch (IOException ioe) {
+				Log.w("GameActivity.onCreate", "Failed to restore game: " + ioe.getMessage());
+			}
+		}
+		
+		if (saved != null) {
+			view.restoreGame(saved);
+		}
+		else if (getIntent().getBooleanExtra(EXTRA_RESUME, false)) {
+			view.restoreGame(SavedGame.getFile(this));
+		}
+		else {
+			// Extract the new game options
+			Bundle extras = getIntent().getExtras();
+			view.setColor(extras.getString("player_color"));
+			view.setDifficulty(extras.getString("difficulty"));
+			view.setPositions(extras.getString("start_positions"));
+			view.setMemory(extras.getString("memory"));
+		}
 		
 		Log.v("GameActivity.onCreate", "Exit");
 	}
 	
+	@Override
+	protected void onSaveInstanceState(Bundle outState) {
+		super.onSaveInstanceState(outState);
+		GameViewGroup view = (GameViewGroup) findViewById(R.id.game_view);
+		SavedGame saved = view.saveGame();
+		if (saved != null)
+			outState.putByteArray(STATE_SAVED_GAME, saved.toBytes());
+	}
+	
+	@Override
+	protected void onResume() {
+		super.onResume();
+		GameViewGroup view = (GameViewGroup) findViewById(R.id.game_view);
+		view.resumeAi();
+	}
+	
 	@Override 
 	protected void onPause() {
 		super.onPause();
 		GameViewGroup view = (GameViewGroup) findViewById(R.id.game_view);
 		if (view.aiThread != null)
 			view.aiThread.cancel(true);
+		view.saveResults();
+		
+		// Keep the game in progress so it can be resumed from the main menu
+		SavedGame saved = view.saveGame();
+		if (saved != null)
+			saved.writeAsync(this);
 	}
 	
 	@Override
@@ -47,6 +93,22 @@ public class GameActivity extends Activity {
 			view.aiThread.cancel(true);		
 	}
 	
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		GameViewGroup view = (GameViewGroup) findViewById(R.id.game_view);
+		view.trimMemory(level);
+	}
+	
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		
+		// Treat as the most severe trim level
+		GameViewGroup view = (GameViewGroup) findViewById(R.id.game_view);
+		view.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+	}
+	
 	@Override
 	public void onBackPressed() {
 		// Prompt the user to exit the game
@@ -1,5 +1,6 @@
 package com.github.littletzaar;
 
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 /**
@@ -21,6 +22,9 @@ public class GameBoard {
 	public final static int COLS = 9;
 	public final static int ROWS = 9;
 	
+	// Number of legal spaces on the board
+	public final static int LEGAL_SPACES = 60;
+	
 	// Illegal space
 	public final static byte NULL = -1;
 	
@@ -96,6 +100,21 @@ public class GameBoard {
 	private int mWtaCount = 0;
 	private int mWtzCount = 0;
 	
+	// Zobrist hash of the pieces on the board
+	private long mHash = 0;
+	
+	// Legal spaces, from the fixed board layout
+	private static final boolean[][] sLegalSpaces = new boolean[COLS][ROWS];
+	
+	static {
+		GameBoard board = new GameBoard();
+		for (int col = 0; col < COLS; ++col) {
+			for (int row = 0; row < ROWS; ++row) {
+				sLegalSpaces[col][row] = board.mFixedBoard[col][row] != NULL;
+			}
+		}
+	}
+	
 	/**
 	 * 
 	 * @param piece
@@ -155,6 +174,7 @@ public class GameBoard {
 		this.mWtoCount = that.mWtoCount;
 		this.mWtaCount = that.mWtaCount;
 		this.mWtzCount = that.mWtzCount;
+		this.mHash = that.mHash;
 	}
 
 	/**
@@ -178,13 +198,24 @@ public class GameBoard {
 				}
 			}
 		}
+		
+		mHash = computeHash();
 	}
 	
 	/**
 	 * Randomize the pieces on the board.
 	 */
 	public void randomize() {
-		Random rand = new Random();
+		randomize(new Random().nextLong());
+	}
+	
+	/**
+	 * Randomize the pieces on the board reproducibly.
+	 * 
+	 * @param seed the same seed always gives the same layout
+	 */
+	public void randomize(long seed) {
+		Random rand = new Random(seed);
 		
 		for (int col = 0; col < GameBoard.COLS; ++col) {
 			for (int row = 0; row < GameBoard.ROWS; ++row) {
@@ -205,6 +236,59 @@ public class GameBoard {
 				mBoard[col][row] = temp;
 			}
 		}
+		
+		mHash = computeHash();
+	}
+	
+	/**
+	 * Replaces the contents of the board spaces (skipping illegal spaces)
+	 * with raw piece bytes, one per space in column-major order (NONE for an
+	 * empty space). See PositionCodec.
+	 * 
+	 * @param in buffer with at least LEGAL_SPACES bytes remaining
+	 * @throws IllegalArgumentException if a space holds an invalid piece
+	 */
+	public void decode(ByteBuffer in) {
+		mBtoCount = mBtaCount = mBtzCount = 0;
+		mWtoCount = mWtaCount = mWtzCount = 0;
+		
+		for (int col = 0; col < COLS; ++col) {
+			for (int row = 0; row < ROWS; ++row) {
+				if (mBoard[col][row] == NULL) {
+					continue;
+				}
+				
+				byte piece = in.get();
+				if (piece != NONE) {
+					if (extractPieceType(piece) == 6 || extractPieceHeight(piece) < 1) {
+						throw new IllegalArgumentException(String.format("Invalid piece %d at (%d,%d)", piece, col, row));
+					}
+					incrementPieceCount(extractPieceColorAndType(piece));
+				}
+				mBoard[col][row] = piece;
+			}
+		}
+		
+		mHash = computeHash();
+	}
+	
+	/**
+	 * Calculates the Zobrist hash of the board from scratch.
+	 * 
+	 * @return hash of all pieces on the board
+	 */
+	private long computeHash() {
+		long hash = 0;
+		
+		for (int col = 0; col < COLS; ++col) {
+			for (int row = 0; row < ROWS; ++row) {
+				if (mBoard[col][row] != NULL && mBoard[col][row] != NONE) {
+					hash ^= Zobrist.key(col * ROWS + row, mBoard[col][row]);
+				}
+			}
+		}
+		
+		return hash;
 	}
 	
 	/**
@@ -403,6 +487,18 @@ public class GameBoard {
 		return y;
 	}
 
+	/**
+	 * Determines if a space is part of the board. The 9x9 array has 21 
+	 * illegal spaces: its corners and the center.
+	 * 
+	 * @param col
+	 * @param row
+	 * @return true for one of the LEGAL_SPACES spaces
+	 */
+	public static boolean isLegalSpace(int col, int row) {
+		return col >= 0 && col < COLS && row >= 0 && row < ROWS && sLegalSpaces[col][row];
+	}
+	
 	/**
 	 * Gets the value of the board space at the specified row and column.
 	 * 
@@ -505,6 +601,10 @@ public class GameBoard {
 		// Decrement the counter for the target piece type
 		decrementPieceCount(extractPieceColorAndType(mBoard[toCol][toRow]));
 		
+		// Remove both pieces from the hash
+		mHash ^= Zobrist.key(fromCol * ROWS + fromRow, mBoard[fromCol][fromRow]);
+		mHash ^= Zobrist.key(toCol * ROWS + toRow, mBoard[toCol][toRow]);
+		
 		// If move is stacking, update stack height of "from" piece
 		if (extractPieceColor(mBoard[fromCol][fromRow]) == extractPieceColor(mBoard[toCol][toRow])) {
 			int fromHeight = extractPieceHeight(mBoard[fromCol][fromRow]);
@@ -521,6 +621,42 @@ public class GameBoard {
 		// Move the piece on the board
 		mBoard[toCol][toRow] = mBoard[fromCol][fromRow];
 		mBoard[fromCol][fromRow] = NONE;		
+		
+		// Add the moved piece back to the hash at its new space
+		mHash ^= Zobrist.key(toCol * ROWS + toRow, mBoard[toCol][toRow]);
+	}
+
+	/**
+	 * Takes back a move made with move() by restoring the source and 
+	 * destination spaces to their previous values.
+	 * 
+	 * @param fromCol
+	 * @param fromRow
+	 * @param fromPiece piece at the source space before the move
+	 * @param toCol
+	 * @param toRow
+	 * @param toPiece piece at the destination space before the move
+	 */
+	public void undo(int fromCol, int fromRow, byte fromPiece, int toCol, int toRow, byte toPiece) {
+		mHash ^= Zobrist.key(toCol * ROWS + toRow, mBoard[toCol][toRow]);
+		mHash ^= Zobrist.key(fromCol * ROWS + fromRow, fromPiece);
+		mHash ^= Zobrist.key(toCol * ROWS + toRow, toPiece);
+		
+		mBoard[fromCol][fromRow] = fromPiece;
+		mBoard[toCol][toRow] = toPiece;
+		
+		// The captured or stacked-on piece counts again
+		incrementPieceCount(extractPieceColorAndType(toPiece));
+	}
+
+	/**
+	 * Gets the Zobrist hash of the pieces on the board. The hash is updated
+	 * incrementally by move() and undo().
+	 * 
+	 * @return board hash
+	 */
+	public long getHash() {
+		return mHash;
 	}
 
 	public float getOuterHexRadius() {
@@ -648,6 +784,15 @@ public class GameBoard {
 		return count;
 	}
 	
+	/**
+	 * Gets the number of pieces (stacks) of both colors on the board.
+	 * 
+	 * @return total piece count
+	 */
+	public int getTotalPieceCount() {
+		return mWtoCount + mWtaCount + mWtzCount + mBtoCount + mBtaCount + mBtzCount;
+	}
+	
 	private void decrementPieceCount(byte colorAndType) {
 		switch (colorAndType) {
 			case WTO:
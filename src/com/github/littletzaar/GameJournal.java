@@ -0,0 +1,265 @@
+package com.github.littletzaar;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The move history of a game, kept as an append-only journal of packed
+ * moves with a snapshot of the position every SNAPSHOT_INTERVAL moves.
+ *
+ * A move takes two bytes: the packed source and destination spaces (see
+ * Move.pack()), with the top bit set for a stacking move. Snapshots are
+ * PositionCodec encodings, so the history costs about 4 bytes per move in
+ * total. The position after any move can be rebuilt from the nearest earlier
+ * snapshot by replaying fewer than SNAPSHOT_INTERVAL moves (see
+ * TzaarGame.seek()).
+ *
+ * Snapshots are taken lazily, by the replay in TzaarGame.seek(), so that
+ * making a move only appends it. The searches and playouts make and copy
+ * games all the time and never pay for a snapshot. A journal must have all
+ * its snapshots before it is written (see TzaarGame.getCompleteJournal()).
+ *
+ * Snapshot 0 is the position the journal was started from, which is not
+ * necessarily the start of the game (see PositionCodec.decode()).
+ */
+public class GameJournal {
+	// Number of moves between snapshots
+	public static final int SNAPSHOT_INTERVAL = 16;
+
+	// Flag marking a stacking move in a journal entry
+	private static final int STACK_FLAG = 0x8000;
+
+	// Moves, packed
+	private short[] mPlies;
+	private int mSize = 0;
+
+	// Snapshots, PositionCodec.SIZE bytes each, the i-th taken after
+	// i * SNAPSHOT_INTERVAL moves
+	private byte[] mSnapshots;
+	private int mSnapshotCount = 0;
+
+	/**
+	 * Constructor.
+	 */
+	public GameJournal() {
+		mPlies = new short[64];
+		mSnapshots = new byte[PositionCodec.SIZE * 4];
+	}
+
+	/**
+	 * Copy constructor.
+	 *
+	 * @param that
+	 */
+	public GameJournal(GameJournal that) {
+		mPlies = new short[that.mSize + SNAPSHOT_INTERVAL * 4];
+		System.arraycopy(that.mPlies, 0, mPlies, 0, that.mSize);
+		mSize = that.mSize;
+
+		mSnapshots = new byte[(that.mSnapshotCount + 4) * PositionCodec.SIZE];
+		System.arraycopy(that.mSnapshots, 0, mSnapshots, 0, that.mSnapshotCount * PositionCodec.SIZE);
+		mSnapshotCount = that.mSnapshotCount;
+	}
+
+	/**
+	 * Clears the journal and starts it from the current position.
+	 *
+	 * @param game
+	 */
+	public void reset(TzaarGame game) {
+		mSize = 0;
+		mSnapshotCount = 0;
+		snapshot(game);
+	}
+
+	/**
+	 * Records a move.
+	 *
+	 * @param move
+	 */
+	public void append(Move move) {
+		if (mSize == mPlies.length) {
+			short[] plies = new short[mPlies.length * 2];
+			System.arraycopy(mPlies, 0, plies, 0, mSize);
+			mPlies = plies;
+		}
+
+		mPlies[mSize++] = (short) (move.pack() | (move.type == TzaarGame.MOVE_STACK ? STACK_FLAG : 0));
+	}
+
+	/**
+	 * Removes the last move.
+	 */
+	public void removeLast() {
+		truncate(mSize - 1);
+	}
+
+	/**
+	 * Removes all moves after the given number of moves.
+	 *
+	 * @param size number of moves to keep
+	 */
+	public void truncate(int size) {
+		if (size < 0 || size > mSize) {
+			throw new IndexOutOfBoundsException("Ply " + size + " of " + mSize);
+		}
+		mSize = size;
+		mSnapshotCount = Math.min(mSnapshotCount, size / SNAPSHOT_INTERVAL + 1);
+	}
+
+	/**
+	 * Restores the latest snapshot taken at or before a move into a game.
+	 *
+	 * @param ply number of moves
+	 * @param game receives the snapshot position
+	 * @return number of moves at the snapshot
+	 */
+	public int restoreSnapshot(int ply, TzaarGame game) {
+		int index = Math.min(ply / SNAPSHOT_INTERVAL, mSnapshotCount - 1);
+		PositionCodec.decodePosition(ByteBuffer.wrap(mSnapshots, index * PositionCodec.SIZE, PositionCodec.SIZE), game);
+		return index * SNAPSHOT_INTERVAL;
+	}
+
+	/**
+	 * Takes the snapshot after a move, if one is due there and not taken yet.
+	 *
+	 * @param ply number of moves
+	 * @param game position after the move
+	 */
+	public void snapshot(int ply, TzaarGame game) {
+		if (ply % SNAPSHOT_INTERVAL == 0 && ply / SNAPSHOT_INTERVAL == mSnapshotCount) {
+			snapshot(game);
+		}
+	}
+
+	/**
+	 * Determines if the snapshot after a move, if one has been taken, holds
+	 * the given position.
+	 *
+	 * @param ply number of moves
+	 * @param game position after the move
+	 * @return false if the snapshot differs from the position
+	 */
+	public boolean matchesSnapshot(int ply, TzaarGame game) {
+		int index = ply / SNAPSHOT_INTERVAL;
+		if (ply % SNAPSHOT_INTERVAL != 0 || index >= mSnapshotCount) {
+			return true;
+		}
+
+		byte[] position = PositionCodec.encode(game);
+		for (int i = 0; i < PositionCodec.SIZE; ++i) {
+			if (position[i] != mSnapshots[index * PositionCodec.SIZE + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Determines if every snapshot has been taken (see write()).
+	 *
+	 * @return true if there is a snapshot for every SNAPSHOT_INTERVAL moves
+	 */
+	public boolean isComplete() {
+		return mSnapshotCount == mSize / SNAPSHOT_INTERVAL + 1;
+	}
+
+	private void snapshot(TzaarGame game) {
+		int offset = mSnapshotCount * PositionCodec.SIZE;
+		if (offset + PositionCodec.SIZE > mSnapshots.length) {
+			byte[] snapshots = new byte[mSnapshots.length * 2];
+			System.arraycopy(mSnapshots, 0, snapshots, 0, offset);
+			mSnapshots = snapshots;
+		}
+
+		PositionCodec.encode(game, ByteBuffer.wrap(mSnapshots, offset, PositionCodec.SIZE));
+		++mSnapshotCount;
+	}
+
+	/**
+	 * Gets a recorded move.
+	 *
+	 * @param ply index of the move
+	 * @return new move object
+	 */
+	public Move getMove(int ply) {
+		int entry = mPlies[ply] & 0xFFFF;
+		int from = (entry >> 8) & 0x7F;
+		int to = entry & 0xFF;
+
+		return new Move((entry & STACK_FLAG) != 0 ? TzaarGame.MOVE_STACK : TzaarGame.MOVE_CAPTURE,
+				from / GameBoard.ROWS, from % GameBoard.ROWS, to / GameBoard.ROWS, to % GameBoard.ROWS);
+	}
+
+	/**
+	 * Gets a recorded move, packed by Move.pack().
+	 *
+	 * @param ply index of the move
+	 * @return packed move
+	 */
+	public int getPacked(int ply) {
+		return mPlies[ply] & ~STACK_FLAG & 0xFFFF;
+	}
+
+	/**
+	 * Gets the type of a recorded move.
+	 * 
+	 * @param ply index of the move
+	 * @return TzaarGame.MOVE_CAPTURE or MOVE_STACK
+	 */
+	public int getType(int ply) {
+		return (mPlies[ply] & STACK_FLAG) != 0 ? TzaarGame.MOVE_STACK : TzaarGame.MOVE_CAPTURE;
+	}
+
+	/**
+	 * Writes the journal: the number of moves, the moves and the snapshots.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 * @throws IllegalStateException if snapshots are missing (see isComplete())
+	 */
+	public void write(DataOutput out) throws IOException {
+		if (!isComplete()) {
+			throw new IllegalStateException("Journal snapshots are missing");
+		}
+
+		out.writeInt(mSize);
+		for (int i = 0; i < mSize; ++i) {
+			out.writeShort(mPlies[i]);
+		}
+		out.write(mSnapshots, 0, mSnapshotCount * PositionCodec.SIZE);
+	}
+
+	/**
+	 * Reads a journal written by write().
+	 * 
+	 * @param in
+	 * @return journal
+	 * @throws IOException if the data is truncated or corrupt
+	 */
+	public static GameJournal read(DataInput in) throws IOException {
+		int size = in.readInt();
+		if (size < 0 || size > 0xFFFF) {
+			throw new IOException("Invalid journal size " + size);
+		}
+
+		GameJournal journal = new GameJournal();
+		journal.mPlies = new short[size + SNAPSHOT_INTERVAL * 4];
+		for (int i = 0; i < size; ++i) {
+			journal.mPlies[i] = in.readShort();
+		}
+		journal.mSize = size;
+
+		journal.mSnapshotCount = size / SNAPSHOT_INTERVAL + 1;
+		journal.mSnapshots = new byte[(journal.mSnapshotCount + 4) * PositionCodec.SIZE];
+		in.readFully(journal.mSnapshots, 0, journal.mSnapshotCount * PositionCodec.SIZE);
+
+		return journal;
+	}
+
+	public int size() {
+		return mSize;
+	}
+}
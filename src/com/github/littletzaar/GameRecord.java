@@ -0,0 +1,261 @@
+package com.github.littletzaar;
+
+import java.util.ArrayList;
+
+/**
+ * A compact record of a game: the start position and the moves played.
+ * 
+ * Random start positions are recorded by the seed they were shuffled with
+ * (see TzaarGame.randomizeStartPositions()). Each move (ply) is two bytes,
+ * the source and destination space indexes (col * ROWS + row). Turns are
+ * not stored, since the first turn has one move and every other turn two.
+ * 
+ * The text form is one line of space-separated tokens: the start position
+ * ("fixed" or "random:<seed>"), the moves in board label notation (e.g.
+ * "E3-E4", with the labels drawn around the board by GameViewGroup) and the
+ * result ("white", "black" or "*" for an unfinished game).
+ * 
+ * Records are reused by GameRecordReader, so the move array grows as needed
+ * and is never shrunk.
+ */
+public class GameRecord {
+	// Column letters of the board labels
+	private static final String COLUMNS = "ABCDEFGHI";
+
+	// Board label of each space index, null for illegal spaces
+	private static final String[] sLabels = new String[GameBoard.COLS * GameBoard.ROWS];
+
+	static {
+		// Spaces are numbered from the bottom of each column, skipping the center
+		for (int col = 0; col < GameBoard.COLS; ++col) {
+			int number = 0;
+			for (int row = GameBoard.ROWS - 1; row >= 0; --row) {
+				if (GameBoard.isLegalSpace(col, row)) {
+					sLabels[col * GameBoard.ROWS + row] = COLUMNS.charAt(col) + Integer.toString(++number);
+				}
+			}
+		}
+	}
+
+	// Start positions (GameBoard.POSITIONS_*) and seed of random positions
+	private int mStartPositions = GameBoard.POSITIONS_FIXED;
+	private long mSeed = 0;
+
+	// Moves as (from << 8) | to space indexes
+	private short[] mPlies = new short[128];
+	private int mPlyCount = 0;
+
+	// Winner color, or COLOR_UNSET if the game did not finish
+	private int mWinner = GameBoard.COLOR_UNSET;
+
+	/**
+	 * Creates a record of a game so far.
+	 * 
+	 * @param game
+	 * @return record
+	 */
+	public static GameRecord fromGame(TzaarGame game) {
+		GameRecord record = new GameRecord();
+		record.reset(game.getStartPositions(), game.getStartSeed());
+
+		GameJournal journal = game.getJournal();
+		for (int i = 0; i < journal.size(); ++i) {
+			record.addPly(journal.getPacked(i));
+		}
+		record.setWinner(game.getWinner());
+
+		return record;
+	}
+
+	/**
+	 * Clears the record for a new game.
+	 * 
+	 * @param startPositions
+	 * @param seed seed of random start positions (ignored for fixed ones)
+	 */
+	public void reset(int startPositions, long seed) {
+		mStartPositions = startPositions;
+		mSeed = (startPositions == GameBoard.POSITIONS_RANDOM) ? seed : 0;
+		mPlyCount = 0;
+		mWinner = GameBoard.COLOR_UNSET;
+	}
+
+	/**
+	 * Appends a move.
+	 * 
+	 * @param packedMove move packed by Move.pack()
+	 */
+	public void addPly(int packedMove) {
+		if (mPlyCount == mPlies.length) {
+			short[] plies = new short[mPlies.length * 2];
+			System.arraycopy(mPlies, 0, plies, 0, mPlyCount);
+			mPlies = plies;
+		}
+		mPlies[mPlyCount++] = (short) packedMove;
+	}
+
+	/**
+	 * Recreates the game by playing the recorded moves from the start
+	 * position.
+	 * 
+	 * @param plies number of moves to play
+	 * @return game (with no difficulty)
+	 * @throws IllegalArgumentException if a recorded move is not valid
+	 */
+	public TzaarGame replay(int plies) {
+		TzaarGame game = new TzaarGame(null, GameBoard.COLOR_WHITE, TzaarGame.DIFFICULTY_NONE, mStartPositions);
+		if (mStartPositions == GameBoard.POSITIONS_RANDOM) {
+			game.randomizeStartPositions(mSeed);
+		}
+
+		ArrayList<Move> moves = new ArrayList<Move>();
+		for (int i = 0; i < plies; ++i) {
+			game.getValidMoves(game.whoseTurn(), game.getMoveNumber(), moves);
+			Move move = Move.find(moves, getPly(i));
+			if (move == null) {
+				throw new IllegalArgumentException("Invalid move " + plyToText(getPly(i)) + " at ply " + i);
+			}
+			game.move(move);
+		}
+
+		return game;
+	}
+
+	/**
+	 * Recreates the final position of the game.
+	 * 
+	 * @return game
+	 */
+	public TzaarGame replay() {
+		return replay(mPlyCount);
+	}
+
+	/**
+	 * Gets the board label of a space.
+	 * 
+	 * @param space space index (col * ROWS + row)
+	 * @return label, e.g. "E4"
+	 */
+	public static String label(int space) {
+		String label = (space >= 0 && space < sLabels.length) ? sLabels[space] : null;
+		if (label == null) {
+			throw new IllegalArgumentException("Illegal space " + space);
+		}
+		return label;
+	}
+
+	/**
+	 * Gets the space of a board label.
+	 * 
+	 * @param label e.g. "E4"
+	 * @return space index (col * ROWS + row)
+	 */
+	public static int parseLabel(String label) {
+		for (int space = 0; space < sLabels.length; ++space) {
+			if (label.equalsIgnoreCase(sLabels[space])) {
+				return space;
+			}
+		}
+		throw new IllegalArgumentException("Illegal label " + label);
+	}
+
+	private static String plyToText(int packedMove) {
+		return label(packedMove >> 8) + "-" + label(packedMove & 0xFF);
+	}
+
+	/**
+	 * Formats the record as one line of text.
+	 * 
+	 * @return text form
+	 */
+	public String toText() {
+		StringBuilder text = new StringBuilder();
+		text.append(mStartPositions == GameBoard.POSITIONS_RANDOM ? "random:" + mSeed : "fixed");
+
+		for (int i = 0; i < mPlyCount; ++i) {
+			text.append(' ').append(plyToText(getPly(i)));
+		}
+
+		if (mWinner == GameBoard.COLOR_WHITE) {
+			text.append(" white");
+		}
+		else if (mWinner == GameBoard.COLOR_BLACK) {
+			text.append(" black");
+		}
+		else {
+			text.append(" *");
+		}
+
+		return text.toString();
+	}
+
+	/**
+	 * Parses the text form of a record.
+	 * 
+	 * @param text
+	 * @return record
+	 * @throws IllegalArgumentException if the text is malformed
+	 */
+	public static GameRecord parse(String text) {
+		String[] tokens = text.trim().split("\\s+");
+		if (tokens.length < 2) {
+			throw new IllegalArgumentException("Incomplete game record");
+		}
+
+		GameRecord record = new GameRecord();
+		if (tokens[0].equals("fixed")) {
+			record.reset(GameBoard.POSITIONS_FIXED, 0);
+		}
+		else if (tokens[0].startsWith("random:")) {
+			record.reset(GameBoard.POSITIONS_RANDOM, Long.parseLong(tokens[0].substring(7)));
+		}
+		else {
+			throw new IllegalArgumentException("Unknown start position " + tokens[0]);
+		}
+
+		for (int i = 1; i < tokens.length - 1; ++i) {
+			int dash = tokens[i].indexOf('-');
+			if (dash < 0) {
+				throw new IllegalArgumentException("Malformed move " + tokens[i]);
+			}
+			record.addPly((parseLabel(tokens[i].substring(0, dash)) << 8) | parseLabel(tokens[i].substring(dash + 1)));
+		}
+
+		String result = tokens[tokens.length - 1];
+		if (result.equals("white")) {
+			record.setWinner(GameBoard.COLOR_WHITE);
+		}
+		else if (result.equals("black")) {
+			record.setWinner(GameBoard.COLOR_BLACK);
+		}
+		else if (!result.equals("*")) {
+			throw new IllegalArgumentException("Unknown result " + result);
+		}
+
+		return record;
+	}
+
+	public int getStartPositions() {
+		return mStartPositions;
+	}
+
+	public long getSeed() {
+		return mSeed;
+	}
+
+	public int getPlyCount() {
+		return mPlyCount;
+	}
+
+	public int getPly(int index) {
+		return mPlies[index] & 0xFFFF;
+	}
+
+	public int getWinner() {
+		return mWinner;
+	}
+
+	public void setWinner(int winner) {
+		mWinner = winner;
+	}
+}
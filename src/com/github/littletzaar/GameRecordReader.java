@@ -0,0 +1,76 @@
+package com.github.littletzaar;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads game records written by GameRecordWriter one at a time, reusing a
+ * single record object, so streams of any number of games can be processed
+ * in constant memory.
+ */
+public class GameRecordReader {
+	private DataInputStream mIn;
+
+	// Number of records read
+	private long mCount = 0;
+
+	/**
+	 * Constructor. Reads and checks the stream header.
+	 * 
+	 * @param in
+	 * @throws IOException if the stream is not a game record stream
+	 */
+	public GameRecordReader(InputStream in) throws IOException {
+		mIn = new DataInputStream(new BufferedInputStream(in));
+
+		if (mIn.readInt() != GameRecordWriter.MAGIC || mIn.readInt() != GameRecordWriter.VERSION) {
+			throw new IOException("Invalid game record stream header");
+		}
+	}
+
+	/**
+	 * Reads the next record.
+	 * 
+	 * @param record receives the record
+	 * @return false at the end of the stream
+	 * @throws IOException if the stream is truncated or corrupt
+	 */
+	public boolean read(GameRecord record) throws IOException {
+		int startPositions = mIn.read();
+		if (startPositions < 0) {
+			return false;
+		}
+		if (startPositions != GameBoard.POSITIONS_FIXED && startPositions != GameBoard.POSITIONS_RANDOM) {
+			throw new IOException("Corrupt game record " + mCount);
+		}
+
+		try {
+			int winner = mIn.readByte();
+			long seed = (startPositions == GameBoard.POSITIONS_RANDOM) ? mIn.readLong() : 0;
+			record.reset(startPositions, seed);
+			record.setWinner(winner);
+
+			int plies = mIn.readUnsignedShort();
+			for (int i = 0; i < plies; ++i) {
+				record.addPly(mIn.readUnsignedShort());
+			}
+		}
+		catch (EOFException eofe) {
+			throw new IOException("Truncated game record " + mCount);
+		}
+
+		++mCount;
+		return true;
+	}
+
+	public void close() throws IOException {
+		mIn.close();
+	}
+
+	public long getCount() {
+		return mCount;
+	}
+}
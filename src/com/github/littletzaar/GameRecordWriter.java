@@ -0,0 +1,80 @@
+package com.github.littletzaar;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes game records to a stream one at a time, so any number of games can
+ * be written without keeping them in memory.
+ * 
+ * Stream layout (big-endian):
+ *   int  magic ("TZGR")
+ *   int  version
+ *   records:
+ *     byte   start positions (GameBoard.POSITIONS_*)
+ *     byte   winner color (COLOR_UNSET if unfinished)
+ *     long   seed (random start positions only)
+ *     short  number of moves
+ *     moves, each a byte for the source and a byte for the destination space
+ */
+public class GameRecordWriter {
+	// Stream header constants
+	public static final int MAGIC = 0x545A4752;
+	public static final int VERSION = 1;
+
+	private DataOutputStream mOut;
+
+	// Number of records written
+	private long mCount = 0;
+
+	/**
+	 * Constructor. Writes the stream header.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public GameRecordWriter(OutputStream out) throws IOException {
+		mOut = new DataOutputStream(new BufferedOutputStream(out));
+		mOut.writeInt(MAGIC);
+		mOut.writeInt(VERSION);
+	}
+
+	/**
+	 * Writes a record.
+	 * 
+	 * @param record
+	 * @throws IOException
+	 */
+	public void write(GameRecord record) throws IOException {
+		if (record.getPlyCount() > 0xFFFF) {
+			throw new IOException("Game too long to record");
+		}
+
+		mOut.writeByte(record.getStartPositions());
+		mOut.writeByte(record.getWinner());
+		if (record.getStartPositions() == GameBoard.POSITIONS_RANDOM) {
+			mOut.writeLong(record.getSeed());
+		}
+
+		mOut.writeShort(record.getPlyCount());
+		for (int i = 0; i < record.getPlyCount(); ++i) {
+			mOut.writeShort(record.getPly(i));
+		}
+
+		++mCount;
+	}
+
+	public void flush() throws IOException {
+		mOut.flush();
+	}
+
+	public void close() throws IOException {
+		mOut.close();
+	}
+
+	public long getCount() {
+		return mCount;
+	}
+}
@@ -1,7 +1,9 @@
 package com.github.littletzaar;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.EmptyStackException;
+import java.util.Random;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -43,9 +45,14 @@ import com.github.littletzaar.util.PieceId;
  */
 public class GameViewGroup extends ViewGroup {
 	/**
-	 * This task allows the AI to search for a move in a separate thread.
+	 * This task allows the AI to search for a move in a separate thread. It
+	 * searches on a copy of the game, which the UI thread never touches, and
+	 * hands what the search kept back to the game when it is done.
 	 */
 	public class MoveSearchTask extends AsyncTask<TzaarGame, Void, Move> {
+		// Copy of the game being searched
+		private TzaarGame mSearched = null;
+		
 		@Override
 		protected Move doInBackground(TzaarGame... tzaar) {
 			if (mAiRunning == false) { 
@@ -54,17 +61,27 @@ public class GameViewGroup extends ViewGroup {
 			
 			Move move = null;
 			if (tzaar != null && tzaar.length > 0) {
-				move = tzaar[0].findMove(mTzaar.whoseTurn(), mTzaar.getMoveNumber());
+				mSearched = tzaar[0];
+				move = mSearched.findMove(mSearched.whoseTurn(), mSearched.getMoveNumber());
 			}
 			
 			return move;
 		}
 		
+		@Override
+		protected void onCancelled(Move nextMove) {
+			// Keep the checkpoint of the interrupted search (see resumeAi())
+			if (mSearched != null) {
+				mTzaar.keepSearchState(mSearched);
+			}
+		}
+		
 		@Override
 		protected void onPostExecute(Move nextMove) {
 			if (nextMove == null) {
 				throw new RuntimeException("AI failed to find next move!");
 			}
+			mTzaar.keepSearchState(mSearched);
 			
 			Log.i("MoveSearchTask.onPostExecute", String.format("AI moving from (%d,%d) to (%d,%d)",
 					nextMove.from.x, nextMove.from.y, nextMove.to.x, nextMove.to.y));
@@ -83,6 +100,38 @@ public class GameViewGroup extends ViewGroup {
 	// Background thread object for the AI 
 	AsyncTask<TzaarGame, Void, Move> aiThread = null;
 	
+	/**
+	 * This task reads a saved game in a separate thread.
+	 */
+	private class RestoreTask extends AsyncTask<File, Void, SavedGame> {
+		@Override
+		protected SavedGame doInBackground(File... file) {
+			try {
+				return SavedGame.read(file[0]);
+			}
+			catch (IOException ioe) {
+				Log.w("RestoreTask.doInBackground", "Failed to read saved game: " + ioe.getMessage());
+				return null;
+			}
+		}
+		
+		@Override
+		protected void onPostExecute(SavedGame saved) {
+			mRestoring = false;
+			
+			if (saved == null) {
+				// Nothing to resume, so set up a new game instead of leaving
+				// an empty board behind it
+				Activity activity = (Activity) getContext();
+				Intent intent = new Intent(activity, NewGameSetupActivity.class);
+				activity.startActivity(intent);
+				activity.finish();
+				return;
+			}
+			restoreGame(saved);
+		}
+	}
+	
 	// Translucent colors 
 	public static final int COLOR_PATH_RED = Color.argb(50, 255, 0, 0);
 	public static final int COLOR_PATH_BLUE = Color.argb(50, 0, 0, 255);
@@ -132,6 +181,16 @@ public class GameViewGroup extends ViewGroup {
 	// True if the AI is currently searching for a move
 	private boolean mAiRunning = false;
 	
+	// True while a saved game is being read
+	private boolean mRestoring = false;
+	
+	// True if the game and piece images were restored from a saved game
+	private boolean mRestored = false;
+	
+	// True once the end of the game has been handled (results saved and
+	// dialog shown)
+	private boolean mGameOverHandled = false;
+	
 	/**
 	 * Constructor initializes Tzaar AI and game board with default values.
 	 * 
@@ -171,6 +230,127 @@ public class GameViewGroup extends ViewGroup {
 		Log.v("GameViewGroup(context, attrs, defStyle)", "");
 	}
 	
+	/**
+	 * Writes the AI's search results to the position cache in the background.
+	 */
+	public void saveResults() {
+		mTzaar.saveResults();
+	}
+	
+	/**
+	 * Releases the AI's search structures under memory pressure.
+	 * 
+	 * @param level ComponentCallbacks2.TRIM_MEMORY_* level
+	 */
+	public void trimMemory(int level) {
+		mTzaar.trimMemory(level);
+	}
+	
+	/**
+	 * Restarts the AI if its search was cancelled when the game was left. The
+	 * search continues from its checkpoint (see TzaarGame.findMove()).
+	 */
+	public void resumeAi() {
+		if (aiThread != null && aiThread.isCancelled()) {
+			aiThread = null;
+			mAiRunning = false;
+			invalidate();
+		}
+	}
+	
+	/**
+	 * Takes a snapshot of the game in progress.
+	 * 
+	 * @return snapshot, or null if there is no game in progress
+	 */
+	public SavedGame saveGame() {
+		if (mRestoring || (!mInitialized && !mRestored) || mTzaar.getWinner() != GameBoard.COLOR_UNSET) {
+			return null;
+		}
+		
+		byte[][] pieceIndex = new byte[GameBoard.COLS][GameBoard.ROWS];
+		for (int col = 0; col < GameBoard.COLS; ++col) {
+			for (int row = 0; row < GameBoard.ROWS; ++row) {
+				pieceIndex[col][row] = -1;
+				
+				int[] ids = getPieceIds(mTzaar.board.getPieceColorAndType(col, row));
+				for (int i = 0; ids != null && i < ids.length; ++i) {
+					if (ids[i] == mPieceId[col][row]) {
+						pieceIndex[col][row] = (byte) i;
+					}
+				}
+			}
+		}
+		
+		return new SavedGame(mTzaar, pieceIndex);
+	}
+	
+	/**
+	 * Resumes a saved game.
+	 * 
+	 * @param saved
+	 */
+	public void restoreGame(SavedGame saved) {
+		try {
+			saved.apply(mTzaar);
+		}
+		catch (IOException ioe) {
+			// Already checked when the snapshot was read
+			throw new IllegalStateException(ioe);
+		}
+		
+		for (int col = 0; col < GameBoard.COLS; ++col) {
+			for (int row = 0; row < GameBoard.ROWS; ++row) {
+				int[] ids = getPieceIds(mTzaar.board.getPieceColorAndType(col, row));
+				int index = saved.getPieceIndex(col, row);
+				mPieceId[col][row] = (ids != null && index < ids.length) ? ids[index] : 0;
+			}
+		}
+		
+		mRestored = true;
+		mGameOverHandled = false;
+		mValidMoves = new ArrayList<Move>();
+		mCurMove = null;
+		requestLayout();
+		invalidate();
+	}
+	
+	/**
+	 * Resumes a saved game from a file, which is read in the background. The
+	 * game is not played until it has been read.
+	 * 
+	 * @param file
+	 */
+	public void restoreGame(File file) {
+		mRestoring = true;
+		new RestoreTask().execute(file);
+	}
+	
+	/**
+	 * Gets the image IDs of a piece type.
+	 * 
+	 * @param colorAndType
+	 * @return image IDs, or null if the space is empty
+	 */
+	private static int[] getPieceIds(int colorAndType) {
+		switch (colorAndType) {
+			case GameBoard.WTO:
+				return PieceId.WTO_ID;
+			case GameBoard.WTA:
+				return PieceId.WTA_ID;
+			case GameBoard.WTZ:
+				return PieceId.WTZ_ID;
+			case GameBoard.BTO:
+				return PieceId.BTO_ID;
+			case GameBoard.BTA:
+				return PieceId.BTA_ID;
+			case GameBoard.BTZ:
+				return PieceId.BTZ_ID;
+			default:
+				return null;
+		}
+	}
+	
 	/**
 	 * Performs one-time initialization of game board. Must be called after
 	 * onSizeChanged().
@@ -291,9 +471,16 @@ public class GameViewGroup extends ViewGroup {
         mCachedCanvas.drawBitmap(bmpBta, bmpLeft2, getHeight() - dipsToPixels(60), null);
         mCachedCanvas.drawBitmap(bmpBtz, bmpLeft2, getHeight() - dipsToPixels(35), null);
 		
+		// A restored game already has its pieces and images
+		if (mRestored || mRestoring) {
+			mInitialized = true;
+			Log.v("GameViewGroup.initBoard", "Exit");
+			return;
+		}
+		
 		// Randomize the game board pieces if necessary 
 		if (mTzaar.getStartPositions() == GameBoard.POSITIONS_RANDOM) {
-			mTzaar.board.randomize();
+			mTzaar.randomizeStartPositions(new Random().nextLong());
 		}
 		
 		// Finally, populate the piece images array
@@ -364,6 +551,12 @@ public class GameViewGroup extends ViewGroup {
 			initBoard();
 		}
 
+		// Pieces are not known until a saved game has been read
+		if (mRestoring) {
+			Log.v("GameViewGroup.onLayout", "Exit");
+			return;
+		}
+		
 		// Set layout for each piece
 		for (int col = 0; col < GameBoard.COLS; ++col) {
 			for (int row = 0; row < GameBoard.ROWS; ++row) {
@@ -410,15 +603,15 @@ public class GameViewGroup extends ViewGroup {
 				
 		// Draw the game board from cache
 		canvas.drawBitmap(mCachedBitmap, 0, 0, null);
+		
+		// Wait for a saved game to be read
+		if (mRestoring) {
+			Log.v("GameViewGroup.dispatchDraw", "Exit");
+			return;
+		}
 
 		// Get the most recent turn
-		Turn turn = null;
-		try {
-			turn = mTzaar.turns.peek();
-		}
-		catch (EmptyStackException ese) {
-			// ignore
-		}
+		Turn turn = mTzaar.getLastTurn();
 
 		// Draw paths highlighting the previous move(s)
 		if (turn != null) {
@@ -441,7 +634,16 @@ public class GameViewGroup extends ViewGroup {
 		// Check for an endgame state
 		boolean playerWin = mTzaar.isWinningState(mTzaar.getPlayerColor());
 		boolean aiWin = mTzaar.isWinningState(mTzaar.oppositeColor(mTzaar.getPlayerColor()));
-		if (playerWin || aiWin ) {
+		if ((playerWin || aiWin) && !mGameOverHandled) {
+			// Handle the end of the game once, not on every redraw
+			mGameOverHandled = true;
+			
+			// Keep what the AI learned for the next games
+			mTzaar.saveResults();
+			
+			// A finished game can not be resumed
+			SavedGame.deleteAsync(getContext());
+			
 			// Display a dialog with the game result
 			AlertDialog.Builder builder = new AlertDialog.Builder(getContext());
 			if (playerWin) {
@@ -477,10 +679,10 @@ public class GameViewGroup extends ViewGroup {
 			AlertDialog dialog = builder.create();
 			dialog.show();
 		}
-		else if (mAiRunning == false && mTzaar.whoseTurn() != mTzaar.getPlayerColor()) {
-			// If it is the AI's turn, start the AI thread
+		else if (!playerWin && !aiWin && mAiRunning == false && mTzaar.whoseTurn() != mTzaar.getPlayerColor()) {
+			// If it is the AI's turn, start the AI thread on a copy of the game
 			mAiRunning = true;
-			aiThread = new MoveSearchTask().execute(mTzaar);
+			aiThread = new MoveSearchTask().execute(new TzaarGame(mTzaar));
 		}
 		
 		Log.v("GameViewGroup.dispatchDraw", "Exit");
@@ -510,7 +712,7 @@ public class GameViewGroup extends ViewGroup {
 			final int row = mTzaar.board.getRow(y, col);
 			
 			// If the tap was on the game board and it is the AI's turn, discard the event
-			final boolean isTurn = mTzaar.whoseTurn() == mTzaar.getPlayerColor();
+			final boolean isTurn = !mRestoring && mTzaar.whoseTurn() == mTzaar.getPlayerColor();
 			
 			// Ignore out-of-range events
 			final boolean inRange = col >= 0 || col < GameBoard.COLS || row >= 0 || row < GameBoard.ROWS;
@@ -754,4 +956,20 @@ public class GameViewGroup extends ViewGroup {
 		else
 			throw new IllegalArgumentException("Illegal start positions value (" + positions + ")!");			
 	}
+	
+	/**
+	 * Mutator for the AI memory setting, which applies to all games.
+	 * 
+	 * @param memory
+	 */
+	public void setMemory(String memory) {
+		if (memory.equalsIgnoreCase("low"))
+			MemoryBudget.getInstance().setSetting(MemoryBudget.SETTING_LOW);
+		else if (memory.equalsIgnoreCase("normal"))
+			MemoryBudget.getInstance().setSetting(MemoryBudget.SETTING_NORMAL);
+		else if (memory.equalsIgnoreCase("high"))
+			MemoryBudget.getInstance().setSetting(MemoryBudget.SETTING_HIGH);
+		else
+			throw new IllegalArgumentException("Illegal memory value (" + memory + ")!");
+	}
 }
@@ -0,0 +1,145 @@
+package com.github.littletzaar;
+
+import android.util.Log;
+
+/**
+ * This class runs a Lazy SMP parallel alpha-beta search.
+ * 
+ * Every thread runs its own AlphaBetaSearch of the same root position, and
+ * all of them share one lock-free transposition table. Helper threads start
+ * their iterative deepening at staggered depths and each orders equal moves
+ * in its own random way, so they fill the table with results the main thread
+ * picks up instead of duplicating its work. The move
+ * of the main thread is returned once it finishes, and the helpers are then 
+ * stopped.
+ */
+public class LazySmpSearch {
+	// Searches, one per thread (index 0 runs on the calling thread)
+	private AlphaBetaSearch[] mSearches;
+	
+	// Shared transposition table
+	private TranspositionTable mTable;
+	
+	// Total nodes searched by all threads during the last search
+	private long mNodes = 0;
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param game position to search (copied, the original is never modified)
+	 * @param threads number of search threads (including the calling thread)
+	 * @param table transposition table shared by all threads
+	 */
+	public LazySmpSearch(TzaarGame game, int threads, TranspositionTable table) {
+		mTable = table;
+		mSearches = new AlphaBetaSearch[Math.max(threads, 1)];
+		
+		for (int i = 0; i < mSearches.length; ++i) {
+			mSearches[i] = new AlphaBetaSearch(game, mTable);
+			
+			// Every other helper starts one depth ahead of the main thread,
+			// and no helper searches in the same order as another
+			if (i > 0) {
+				mSearches[i].setDepthOffset(i % 2);
+				mSearches[i].setOrderingSeed(i);
+			}
+		}
+	}
+	
+	/**
+	 * Searches for the best move on all threads.
+	 * 
+	 * @param maxMillis time limit (ms)
+	 * @param maxDepth depth limit (moves)
+	 * @return best move found by the main thread
+	 */
+	public Move findMove(final long maxMillis, final int maxDepth) {
+		Thread[] helpers = new Thread[mSearches.length - 1];
+		for (int i = 0; i < helpers.length; ++i) {
+			final AlphaBetaSearch search = mSearches[i + 1];
+			helpers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					search.findMove(maxMillis, maxDepth);
+				}
+			}, "LazySmpSearch-" + (i + 1));
+			helpers[i].start();
+		}
+		
+		Move move = mSearches[0].findMove(maxMillis, maxDepth);
+		
+		// Stop the helpers and wait for them to finish
+		for (int i = 0; i < helpers.length; ++i) {
+			mSearches[i + 1].stop();
+		}
+		boolean interrupted = false;
+		for (int i = 0; i < helpers.length; ++i) {
+			while (true) {
+				try {
+					helpers[i].join();
+					break;
+				}
+				catch (InterruptedException ie) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		
+		mNodes = 0;
+		for (int i = 0; i < mSearches.length; ++i) {
+			mNodes += mSearches[i].getNodes();
+		}
+		
+		Log.v("Instrumentation", String.format("Lazy SMP: %d threads, depth %d, %d nodes, stopped by %s", 
+				mSearches.length, mSearches[0].getCompletedDepth(), mNodes, SearchLimit.getName(getStopReason())));
+		
+		return move;
+	}
+	
+	/**
+	 * Sets the node limit of the following searches, shared evenly between
+	 * the threads.
+	 * 
+	 * @param maxNodes maximum number of nodes over all threads, or
+	 *        Long.MAX_VALUE for no limit
+	 */
+	public void setMaxNodes(long maxNodes) {
+		long threadNodes = (maxNodes == Long.MAX_VALUE) ? maxNodes : Math.max(maxNodes / mSearches.length, 1);
+		for (int i = 0; i < mSearches.length; ++i) {
+			mSearches[i].setMaxNodes(threadNodes);
+		}
+	}
+	
+	/**
+	 * Stops the search on all threads. Can be called from any thread.
+	 */
+	public void stop() {
+		for (int i = 0; i < mSearches.length; ++i) {
+			mSearches[i].stop();
+		}
+	}
+	
+	public long getNodes() {
+		return mNodes;
+	}
+	
+	public int getCompletedDepth() {
+		return mSearches[0].getCompletedDepth();
+	}
+	
+	public int getThreads() {
+		return mSearches.length;
+	}
+	
+	/**
+	 * Gets the limit that stopped the main thread's last search.
+	 * 
+	 * @return SearchLimit.*
+	 */
+	public int getStopReason() {
+		return mSearches[0].getStopReason();
+	}
+}
@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
 import android.view.View;
+import android.widget.Button;
 
 public class MainActivity extends Activity {
 
@@ -12,6 +13,15 @@ public class MainActivity extends Activity {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.activity_main);		
 	}
+	
+	@Override
+	protected void onResume() {
+		super.onResume();
+		
+		// Only offer to load a game if one was saved
+		Button loadGame = (Button) findViewById(R.id.button2);
+		loadGame.setEnabled(SavedGame.exists(this));
+	}
 
 	/**
 	 * On-click event handler that launches the "New Game Setup" activity.
@@ -22,4 +32,15 @@ public class MainActivity extends Activity {
 		Intent intent = new Intent(this, NewGameSetupActivity.class);
 		startActivity(intent);
 	}
+	
+	/**
+	 * On-click event handler that resumes the saved game.
+	 * 
+	 * @param view
+	 */
+	public void loadGame(View view) {
+		Intent intent = new Intent(this, GameActivity.class);
+		intent.putExtra(GameActivity.EXTRA_RESUME, true);
+		startActivity(intent);
+	}
 }
@@ -0,0 +1,191 @@
+package com.github.littletzaar;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * Decides how much heap the AI's search structures may use, so the larger
+ * search modes stay safe on low-end devices.
+ * 
+ * The budget is a share of Runtime.maxMemory() chosen by the memory setting
+ * of the new game screen, and is split between the structures as:
+ *   - half for the Monte Carlo search tree (see NodeArena), which the game
+ *     keeps between moves
+ *   - a quarter for the transposition table of the alpha-beta search
+ *   - a quarter for the nodes of the endgame solver (see ProofNumberSearch)
+ * so all of them fit at the same time. The tablebase, opening book, playout
+ * policy and position cache are memory-mapped files outside the heap. The
+ * difficulty profile can lower the total further (see
+ * DifficultyProfile.getMaxMemory()).
+ * 
+ * The system's trim memory and low memory callbacks (see onTrimMemory())
+ * raise the memory pressure, which halves the budget at each level. The
+ * pressure falls back once the callbacks have stopped for RECOVERY_MILLIS.
+ */
+public class MemoryBudget {
+	// Memory setting constants
+	public static final int SETTING_LOW    = 0;
+	public static final int SETTING_NORMAL = 1;
+	public static final int SETTING_HIGH   = 2;
+
+	// Memory pressure constants
+	public static final int PRESSURE_NONE     = 0;
+	public static final int PRESSURE_MODERATE = 1;
+	public static final int PRESSURE_CRITICAL = 2;
+
+	// Share of the maximum heap size for each setting (percent)
+	private static final int[] SHARES = { 10, 20, 35 };
+
+	// Upper limits, which matter only for large desktop heaps
+	public static final long MAX_TREE_BYTES = 64L << 20;
+	public static final int MAX_TABLE_ENTRIES = 1 << 21;
+
+	// Size of a transposition table entry and (roughly) of a proof tree node,
+	// with its move (bytes)
+	public static final int TABLE_ENTRY_SIZE = 16;
+	public static final int PROOF_NODE_SIZE = 100;
+
+	// Time without trim callbacks after which the pressure is lifted (ms)
+	public static final long RECOVERY_MILLIS = 5 * 60 * 1000;
+
+	// Budget shared by all games
+	private static MemoryBudget sInstance = null;
+
+	// Maximum heap size (bytes)
+	private final long mMaxHeap;
+
+	// Current setting and pressure (guarded by this)
+	private int mSetting = SETTING_NORMAL;
+	private int mPressure = PRESSURE_NONE;
+	private long mPressureTime = 0;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxHeap maximum heap size (bytes)
+	 */
+	public MemoryBudget(long maxHeap) {
+		mMaxHeap = maxHeap;
+	}
+
+	/**
+	 * Gets the budget of the app, sized from the heap of this process.
+	 * 
+	 * @return budget
+	 */
+	public static synchronized MemoryBudget getInstance() {
+		if (sInstance == null) {
+			sInstance = new MemoryBudget(Runtime.getRuntime().maxMemory());
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Raises the memory pressure according to a trim level of
+	 * ComponentCallbacks2.onTrimMemory(). Levels below RUNNING_LOW, and the
+	 * app's UI being hidden, leave the budget alone.
+	 * 
+	 * @param level ComponentCallbacks2.TRIM_MEMORY_*
+	 */
+	public synchronized void onTrimMemory(int level) {
+		int pressure;
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+			pressure = PRESSURE_CRITICAL;
+		}
+		else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			pressure = PRESSURE_MODERATE;
+		}
+		else {
+			return;
+		}
+
+		mPressure = Math.max(getPressure(), pressure);
+		mPressureTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Gets the current memory pressure.
+	 * 
+	 * @return PRESSURE_*
+	 */
+	public synchronized int getPressure() {
+		if (mPressure != PRESSURE_NONE && System.currentTimeMillis() - mPressureTime > RECOVERY_MILLIS) {
+			mPressure = PRESSURE_NONE;
+		}
+		return mPressure;
+	}
+
+	/**
+	 * Gets the memory the search structures may use in total.
+	 * 
+	 * @return budget (bytes)
+	 */
+	public synchronized long getBytes() {
+		return (mMaxHeap * SHARES[mSetting] / 100) >> getPressure();
+	}
+
+	/**
+	 * Gets the memory the search structures may use in total, within a limit
+	 * of the difficulty profile.
+	 * 
+	 * @param maxBytes limit of the profile (bytes)
+	 * @return budget (bytes)
+	 */
+	public long getBytes(long maxBytes) {
+		return Math.min(getBytes(), maxBytes);
+	}
+
+	/**
+	 * Gets the memory budget of the Monte Carlo search tree.
+	 * 
+	 * @param maxBytes limit of the difficulty profile (bytes)
+	 * @return budget (bytes)
+	 */
+	public long getTreeBytes(long maxBytes) {
+		return Math.min(getBytes(maxBytes) / 2, MAX_TREE_BYTES);
+	}
+
+	/**
+	 * Gets the size of the transposition table.
+	 * 
+	 * @param maxBytes limit of the difficulty profile (bytes)
+	 * @return number of entries (a power of two)
+	 */
+	public int getTableEntries(long maxBytes) {
+		long entries = Math.min(getBytes(maxBytes) / 4 / TABLE_ENTRY_SIZE, MAX_TABLE_ENTRIES);
+		return Integer.highestOneBit((int) Math.max(entries, 1));
+	}
+
+	/**
+	 * Gets the node limit of the endgame solver.
+	 * 
+	 * @param maxBytes limit of the difficulty profile (bytes)
+	 * @return maximum number of nodes
+	 */
+	public int getProofNodes(long maxBytes) {
+		return (int) Math.min(getBytes(maxBytes) / 4 / PROOF_NODE_SIZE, ProofNumberSearch.DEFAULT_MAX_NODES);
+	}
+
+	/**
+	 * Describes the budget and the memory in use.
+	 * 
+	 * @param searchBytes memory held by the search structures of the game
+	 * @return one line
+	 */
+	public String report(long searchBytes) {
+		Runtime runtime = Runtime.getRuntime();
+		return String.format("search %.1f MB of %.1f MB budget (setting %d, pressure %d), heap %.1f MB of %.1f MB",
+				searchBytes / 1048576.0, getBytes() / 1048576.0, getSetting(), getPressure(),
+				(runtime.totalMemory() - runtime.freeMemory()) / 1048576.0, mMaxHeap / 1048576.0);
+	}
+
+	public synchronized int getSetting() {
+		return mSetting;
+	}
+
+	public synchronized void setSetting(int setting) {
+		if (setting < SETTING_LOW || setting > SETTING_HIGH) {
+			throw new IllegalArgumentException("Illegal memory setting (" + setting + ")!");
+		}
+		mSetting = setting;
+	}
+}
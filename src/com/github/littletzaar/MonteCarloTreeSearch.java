@@ -0,0 +1,941 @@
+package com.github.littletzaar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import android.util.Log;
+
+/**
+ * This class implements a Monte Carlo tree search (UCT) with a solver for
+ * the Tzaar AI.
+ * 
+ * Each iteration walks down the tree by UCT, expands a node, plays a random
+ * game from there with TzaarGame.playout(), and backs the result up to the
+ * root. The playouts favor moves that did well in the earlier simulations
+ * of this game's searches (see MoveStatistics). Every simulation also
+ * updates the all-moves-as-first (RAVE) results of the children along its
+ * path, which selection relies on while a child has few visits of its own.
+ * With a playout policy, nodes offer their children to selection a few at a
+ * time, best prior first, so the visits are not spread over every move.
+ * 
+ * The tree lives in a NodeArena, bounded by its memory budget. A game keeps
+ * its arena between searches, so a search continues from the subtree of
+ * its position that the earlier searches built. Once the arena is full,
+ * leaves are no longer expanded and the search goes on with playouts from
+ * the existing tree until its playout or time budget runs out, so a large
+ * tree kept from the last search does not cut the next one short.
+ * 
+ * Nodes whose outcome is known are marked as proven. Terminal positions are
+ * proven when they are first reached (by isWinningState() rules). A node is
+ * proven a win for the player to move as soon as one child is, and a loss
+ * once every child is proven a loss. Proven children are never sampled
+ * again, and a proven winning root move is returned immediately.
+ */
+public class MonteCarloTreeSearch {
+	// Proven state constants, from the point of view of the player who made
+	// the move leading to the node
+	public static final int PROVEN_NONE = 0;
+	public static final int PROVEN_WIN  = 1;
+	public static final int PROVEN_LOSS = 2;
+
+	// UCT exploration constant
+	public static final double EXPLORATION = 0.7;
+
+	// Number of visits at which a node's own results and its all-moves-as-
+	// first results weigh the same in the RAVE schedule
+	public static final double RAVE_EQUIVALENCE = 500;
+
+	// Progressive widening: a node with n visits offers its first
+	// WIDENING_BASE + WIDENING_FACTOR * n^WIDENING_EXPONENT children by prior
+	public static final int WIDENING_BASE = 4;
+	public static final double WIDENING_FACTOR = 2;
+	public static final double WIDENING_EXPONENT = 0.5;
+
+	// Maximum number of visits a root move starts with from the position cache
+	public static final int MAX_PRIOR_VISITS = 50;
+	
+	// Size of a node in a checkpoint (bytes)
+	private static final int CHECKPOINT_NODE_SIZE = 13;
+
+	// Root position (never modified)
+	private TzaarGame mGame;
+	
+	// Tree of the last search (the root is node 0), and whether its root
+	// was kept from an earlier search
+	private NodeArena mTree = null;
+	private boolean mReused = false;
+	
+	// Cache of results from earlier searches, or null if there is none
+	private PositionCache mCache = null;
+	
+	// Visits and wins the root moves started with (from the cache)
+	private int[] mPriorVisits = null;
+	private double[] mPriorWins = null;
+	
+	// Tree to continue from in the next search (see resume())
+	private SearchCheckpoint mCheckpoint = null;
+
+	private Random mRand = new Random();
+
+	// Valid moves buffer for expansions and playouts
+	private ArrayList<Move> mMoves = new ArrayList<Move>();
+	
+	// Move buffer for stepping through the tree
+	private Move mMove = new Move(TzaarGame.MOVE_CAPTURE, 0, 0, 0, 0);
+
+	// Distribution of playout lengths of the last search
+	private PlayoutStats mPlayoutStats = new PlayoutStats();
+	
+	// Move statistics of the running search and how its playouts sample them
+	private MoveStatistics.Local mMoveStats = null;
+	private int mMoveSampling = MoveStatistics.SAMPLING_EPSILON_GREEDY;
+	private boolean mUseMoveStats = true;
+	
+	// Whether selection blends in the all-moves-as-first results
+	private boolean mRave = true;
+	
+	// Nodes of the current iteration's path by depth, and the simulation
+	// in which each move (by MoveStatistics.index()) was last marked seen
+	private int[] mPath = new int[64];
+	private int mPathSize = 0;
+	private int[] mSeen = null;
+	private int mSimulation = 0;
+	
+	// Players of the moves of the current simulation
+	private int[] mPlayers = new int[128];
+	
+	// Whether nodes offer their children gradually, by prior (only with a
+	// playout policy, see isWidening())
+	private boolean mWidening = true;
+	
+	// Buffers for the playout policy factors of the children and the order
+	// of the children
+	private float[] mPriors = null;
+	private int[] mOrder = new int[64];
+	
+	// Depth below which nodes are not expanded (0 for no limit)
+	private int mMaxDepth = 0;
+	
+	// Temperature of the final move choice (0 to play the most visited move)
+	private double mTemperature = 0;
+
+	// Number of iterations run by the last search, the limit that stopped
+	// it (SearchLimit.*), and whether it filled the tree's memory budget (in
+	// which case it went on without expanding)
+	private int mIterations = 0;
+	private int mStopReason = SearchLimit.NONE;
+	private boolean mTreeFull = false;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param game position to search (copied, the original is never modified)
+	 */
+	public MonteCarloTreeSearch(TzaarGame game) {
+		mGame = new TzaarGame(game);
+	}
+
+	/**
+	 * Searches for the best move until the playout or time budget runs out,
+	 * the root is solved, or the thread is interrupted (see
+	 * getStopReason()). A full tree does not stop the search, which goes on
+	 * with playouts from the existing leaves.
+	 * 
+	 * @param maxPlayouts maximum number of playouts
+	 * @param maxMillis time limit (ms)
+	 * @return best move, or null if there are no valid moves
+	 */
+	public Move findMove(int maxPlayouts, long maxMillis) {
+		long startTime = System.currentTimeMillis();
+		long deadline = startTime + maxMillis;
+		mPlayoutStats.reset();
+		mIterations = 0;
+		mStopReason = SearchLimit.NONE;
+		mTreeFull = false;
+
+		// Continue the game's tree, unless a checkpoint replaces it
+		mTree = mGame.getSearchTree();
+		if (mTree == null) {
+			mTree = new NodeArena(NodeArena.DEFAULT_BUDGET_MB * (1L << 20));
+		}
+		mReused = mTree.reset(mGame, mCheckpoint == null);
+		if (mTree.firstChild[0] == NodeArena.NONE) {
+			expand(0, mGame);
+		}
+		if (mTree.childCount[0] == 0) {
+			return null;
+		}
+
+		// Take a game-ending capture without searching
+		mGame.getValidMoves(mGame.whoseTurn(), mGame.getMoveNumber(), mMoves);
+		Move decisiveMove = mGame.findDecisiveMove(mMoves);
+		if (decisiveMove != null) {
+			return decisiveMove;
+		}
+
+		if (mCheckpoint != null) {
+			try {
+				DataInput in = mCheckpoint.getData();
+				in.readShort();
+				restore(0, mGame, in);
+			}
+			catch (IOException ioe) {
+				Log.w("MonteCarloTreeSearch.findMove", "Ignoring checkpoint: " + ioe.getMessage());
+				mTree.reset(mGame, false);
+				expand(0, mGame);
+			}
+			mCheckpoint = null;
+		}
+		warmStart();
+
+		// Continue the move statistics of the game's earlier searches
+		if (mUseMoveStats) {
+			MoveStatistics shared = mGame.getMoveStatistics();
+			if (shared == null) {
+				shared = new MoveStatistics();
+			}
+			shared.decay();
+			mMoveStats = shared.newLocal();
+			mMoveStats.setSampling(mMoveSampling);
+		}
+
+		mStopReason = SearchLimit.PLAYOUTS;
+		for (mIterations = 0; mIterations < maxPlayouts && mTree.proven[0] == PROVEN_NONE; ++mIterations) {
+			if (Thread.currentThread().isInterrupted()) {
+				mStopReason = SearchLimit.INTERRUPTED;
+				break;
+			}
+			if (System.currentTimeMillis() > deadline) {
+				mStopReason = SearchLimit.TIME;
+				break;
+			}
+
+			iterate();
+		}
+		if (mTree.proven[0] != PROVEN_NONE) {
+			mStopReason = SearchLimit.SOLVED;
+		}
+
+		if (mMoveStats != null) {
+			mMoveStats.merge();
+			mMoveStats = null;
+		}
+
+		Move move = selectMove();
+		Log.v("Instrumentation", String.format("MCTS: %d iterations, %d nodes (%s%s), stopped by %s, best %s (%d ms)",
+				mIterations, mTree.getSize(), mReused ? "reused" : "new", mTreeFull ? ", full" : "", SearchLimit.getName(mStopReason),
+				move, System.currentTimeMillis() - startTime));
+		Log.v("Instrumentation", "Playout lengths: " + mPlayoutStats);
+
+		saveResults();
+
+		return move;
+	}
+
+	/**
+	 * Starts the root moves with the visits and wins cached by earlier
+	 * searches of the position, scaled down to at most MAX_PRIOR_VISITS. A
+	 * root kept from an earlier search has results of its own instead, which
+	 * are recorded as its starting visits and wins without using the cache.
+	 */
+	private void warmStart() {
+		int first = mTree.firstChild[0];
+		int count = mTree.childCount[0];
+		mPriorVisits = new int[count];
+		mPriorWins = new double[count];
+		if (mReused) {
+			for (int i = 0; i < count; ++i) {
+				mPriorVisits[i] = mTree.visits[first + i];
+				mPriorWins[i] = mTree.wins[first + i];
+			}
+			return;
+		}
+		if (mCache == null) {
+			return;
+		}
+
+		int symmetry = Symmetry.canonical(mGame);
+		long hash = Symmetry.hash(mGame, symmetry);
+		synchronized (mCache) {
+			for (int i = 0; i < count; ++i) {
+				int child = first + i;
+				int index = mCache.find(PositionCache.key(hash, Symmetry.transformMove(mTree.getPacked(child), symmetry)));
+				if (index < 0) {
+					continue;
+				}
+
+				int visits = mCache.getVisits(index);
+				int prior = Math.min(visits, MAX_PRIOR_VISITS);
+				mPriorVisits[i] = prior;
+				mPriorWins[i] = mCache.getWins(index) * prior / visits;
+
+				mTree.visits[child] = prior;
+				mTree.wins[child] = (float) mPriorWins[i];
+				mTree.visits[0] += prior;
+			}
+		}
+	}
+
+	/**
+	 * Queues the results of this search of the root moves in the cache,
+	 * leaving out the visits they started with.
+	 */
+	private void saveResults() {
+		if (mCache == null) {
+			return;
+		}
+
+		int symmetry = Symmetry.canonical(mGame);
+		long hash = Symmetry.hash(mGame, symmetry);
+		for (int i = 0; i < mTree.childCount[0]; ++i) {
+			int child = mTree.firstChild[0] + i;
+			mCache.update(PositionCache.key(hash, Symmetry.transformMove(mTree.getPacked(child), symmetry)),
+					mTree.visits[child] - mPriorVisits[i], mTree.wins[child] - mPriorWins[i]);
+		}
+	}
+
+	/**
+	 * Continues the next search from the tree saved by checkpoint(), which
+	 * must be a checkpoint of the same position.
+	 * 
+	 * @param checkpoint
+	 */
+	public void resume(SearchCheckpoint checkpoint) {
+		mCheckpoint = checkpoint;
+	}
+	
+	/**
+	 * Serializes the most visited part of the tree of the last search, so it
+	 * can be continued by resume(). The root moves are saved without the
+	 * visits they started with from the position cache, which are added
+	 * again when the search resumes.
+	 * 
+	 * The nodes are chosen best-first by visits starting from the root, so
+	 * they always form a subtree, and written in preorder as:
+	 *   short  move (packed, 0 for the root)
+	 *   int    visits
+	 *   float  wins
+	 *   byte   proven state
+	 *   short  number of saved children
+	 * 
+	 * @param maxBytes size limit
+	 * @return tree data
+	 */
+	public byte[] checkpoint(int maxBytes) {
+		boolean[] saved = new boolean[mTree.getSize()];
+		PriorityQueue<Integer> queue = new PriorityQueue<Integer>(64, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int visitsA = mTree.visits[a];
+				int visitsB = mTree.visits[b];
+				return (visitsA > visitsB) ? -1 : ((visitsA < visitsB) ? 1 : 0);
+			}
+		});
+
+		int maxNodes = maxBytes / CHECKPOINT_NODE_SIZE;
+		int savedCount = 0;
+		queue.add(0);
+		while (!queue.isEmpty() && savedCount < maxNodes) {
+			int node = queue.poll();
+			saved[node] = true;
+			++savedCount;
+			for (int i = 0; mTree.firstChild[node] != NodeArena.NONE && i < mTree.childCount[node]; ++i) {
+				if (mTree.visits[mTree.firstChild[node] + i] > 0) {
+					queue.add(mTree.firstChild[node] + i);
+				}
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(savedCount * CHECKPOINT_NODE_SIZE);
+		try {
+			writeNode(0, 0, saved, new DataOutputStream(bytes));
+		}
+		catch (IOException ioe) {
+			// Not thrown by in-memory streams
+			throw new RuntimeException(ioe);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private void writeNode(int node, int depth, boolean[] saved, DataOutput out) throws IOException {
+		int visits = mTree.visits[node];
+		double wins = mTree.wins[node];
+
+		// Leave out the cache priors of the root moves
+		if (mPriorVisits == null || mReused) {
+			// The search returned before the priors were added, or kept its
+			// root moves from an earlier search instead
+		}
+		else if (depth == 0) {
+			for (int i = 0; i < mPriorVisits.length; ++i) {
+				visits -= mPriorVisits[i];
+			}
+		}
+		else if (depth == 1) {
+			int index = node - mTree.firstChild[0];
+			visits -= mPriorVisits[index];
+			wins -= mPriorWins[index];
+		}
+
+		out.writeShort((depth > 0) ? mTree.getPacked(node) : 0);
+		out.writeInt(visits);
+		out.writeFloat((float) wins);
+		out.writeByte(mTree.proven[node]);
+
+		int first = mTree.firstChild[node];
+		int savedChildren = 0;
+		for (int i = 0; first != NodeArena.NONE && i < mTree.childCount[node]; ++i) {
+			if (saved[first + i]) {
+				++savedChildren;
+			}
+		}
+		out.writeShort(savedChildren);
+
+		for (int i = 0; savedChildren > 0 && i < mTree.childCount[node]; ++i) {
+			if (saved[first + i]) {
+				writeNode(first + i, depth + 1, saved, out);
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the tree saved by checkpoint() under a node, expanding nodes
+	 * as needed. The move of the node has already been read.
+	 * 
+	 * @param node
+	 * @param game position of the node (restored on return)
+	 * @param in
+	 * @throws IOException if the data does not match the position
+	 */
+	private void restore(int node, TzaarGame game, DataInput in) throws IOException {
+		int visits = in.readInt();
+		float wins = in.readFloat();
+		int proven = in.readByte();
+		int savedChildren = in.readUnsignedShort();
+		if (visits < 0 || wins < 0 || wins > visits || proven < PROVEN_NONE || proven > PROVEN_LOSS) {
+			throw new IOException("Corrupt search tree node");
+		}
+
+		mTree.visits[node] = visits;
+		mTree.wins[node] = wins;
+		mTree.proven[node] = (byte) proven;
+		if (savedChildren == 0) {
+			return;
+		}
+
+		if (mTree.firstChild[node] == NodeArena.NONE && !expand(node, game)) {
+			throw new IOException("Search tree does not fit in memory");
+		}
+		if (savedChildren > mTree.childCount[node]) {
+			throw new IOException("Search tree does not match the position");
+		}
+
+		for (int i = 0; i < savedChildren; ++i) {
+			int packedMove = in.readUnsignedShort();
+			int child = NodeArena.NONE;
+			for (int j = 0; j < mTree.childCount[node] && child == NodeArena.NONE; ++j) {
+				if (mTree.getPacked(mTree.firstChild[node] + j) == packedMove) {
+					child = mTree.firstChild[node] + j;
+				}
+			}
+			if (child == NodeArena.NONE) {
+				throw new IOException("Search tree does not match the position");
+			}
+
+			Move move = mTree.getMove(child);
+			byte fromPiece = game.board.getPiece(move.from.x, move.from.y);
+			byte toPiece = game.board.getPiece(move.to.x, move.to.y);
+			game.move(move);
+			try {
+				restore(child, game, in);
+			}
+			finally {
+				game.undo(move, fromPiece, toPiece);
+			}
+		}
+	}
+
+	/**
+	 * Runs one selection, expansion, simulation and backup step.
+	 */
+	private void iterate() {
+		TzaarGame game = new TzaarGame(mGame);
+
+		// Select a path through the expanded part of the tree
+		int node = 0;
+		mPathSize = 0;
+		addToPath(node);
+		while (mTree.firstChild[node] != NodeArena.NONE && mTree.proven[node] == PROVEN_NONE) {
+			node = selectChild(node);
+			game.move(mTree.getMove(node, mMove));
+			addToPath(node);
+
+			// Terminal positions are proven the first time they are reached
+			// (root moves may already have visits from the cache)
+			if (mTree.firstChild[node] == NodeArena.NONE) {
+				int winner = game.getWinner();
+				if (winner != GameBoard.COLOR_UNSET) {
+					setProven(node, winner);
+				}
+			}
+		}
+
+		// Expand a leaf on its second visit, if the tree has room and the
+		// depth limit allows, and step into its first child
+		boolean expandable = mTree.proven[node] == PROVEN_NONE && mTree.visits[node] > 0
+				&& (mMaxDepth == 0 || mPathSize - 1 < mMaxDepth);
+		if (expandable && !expand(node, game)) {
+			mTreeFull = true;
+		}
+		else if (expandable) {
+			if (mTree.childCount[node] == 0) {
+				// The player to move has no valid moves, and either loses or
+				// passes, which the node leaves to the simulation
+				int noMovesWinner = game.getNoMovesWinner();
+				if (noMovesWinner != GameBoard.COLOR_UNSET) {
+					setProven(node, noMovesWinner);
+				}
+				else {
+					mTree.firstChild[node] = NodeArena.NONE;
+				}
+			}
+			else {
+				node = mTree.firstChild[node];
+				game.move(mTree.getMove(node, mMove));
+				addToPath(node);
+
+				int winner = game.getWinner();
+				if (winner != GameBoard.COLOR_UNSET) {
+					setProven(node, winner);
+				}
+			}
+		}
+
+		int winner;
+		if (mTree.proven[node] != PROVEN_NONE) {
+			winner = (mTree.proven[node] == PROVEN_WIN) ? mTree.player[node] : game.oppositeColor(mTree.player[node]);
+		}
+		else {
+			winner = game.playout(mRand, mPlayoutStats, mMoves, mMoveStats);
+		}
+
+		backup(winner);
+		if (mRave) {
+			updateAmaf(game.getJournal(), winner);
+		}
+		if (mMoveStats != null) {
+			mMoveStats.update(mGame, game.getJournal(), winner);
+		}
+	}
+
+	private void addToPath(int node) {
+		if (mPathSize == mPath.length) {
+			int[] path = new int[mPath.length * 2];
+			System.arraycopy(mPath, 0, path, 0, mPathSize);
+			mPath = path;
+		}
+		mPath[mPathSize++] = node;
+	}
+
+	/**
+	 * Adds the result of a simulation to the all-moves-as-first results of
+	 * the children of every node on its path. A child counts if its player
+	 * made its move anywhere from the child's depth to the end of the
+	 * simulation.
+	 * 
+	 * @param journal history of the simulated game
+	 * @param winner color of the winner, or COLOR_UNSET for no winner
+	 */
+	private void updateAmaf(GameJournal journal, int winner) {
+		if (mSeen == null) {
+			mSeen = new int[MoveStatistics.SIZE];
+		}
+		++mSimulation;
+
+		// Players of the simulated moves, following the turn order from the
+		// root (see TzaarGame.makeMove())
+		int start = mGame.getJournal().size();
+		int end = journal.size();
+		if (mPlayers.length < end - start) {
+			mPlayers = new int[(end - start) * 2];
+		}
+		int turnCount = mGame.getTurnCount();
+		int moveNumber = mGame.getMoveNumber();
+		for (int ply = start; ply < end; ++ply) {
+			mPlayers[ply - start] = (turnCount % 2 == 0) ? GameBoard.COLOR_WHITE : GameBoard.COLOR_BLACK;
+			if (turnCount == 0 || moveNumber == TzaarGame.MOVE_SECOND) {
+				moveNumber = TzaarGame.MOVE_FIRST;
+				++turnCount;
+			}
+			else {
+				moveNumber = TzaarGame.MOVE_SECOND;
+			}
+		}
+
+		// Mark the moves from the end back, updating the children of each
+		// path node once the moves from its depth on are marked
+		for (int ply = end - 1; ply >= start; --ply) {
+			mSeen[MoveStatistics.index(journal.getPacked(ply), journal.getType(ply), mPlayers[ply - start]) / 2] = mSimulation;
+
+			int depth = ply - start;
+			if (depth >= mPathSize || mTree.firstChild[mPath[depth]] == NodeArena.NONE) {
+				continue;
+			}
+
+			int first = mTree.firstChild[mPath[depth]];
+			int last = first + mTree.childCount[mPath[depth]];
+			for (int child = first; child < last; ++child) {
+				int player = mTree.player[child];
+				if (mSeen[MoveStatistics.index(mTree.getPacked(child), mTree.getType(child), player) / 2] == mSimulation) {
+					++mTree.amafVisits[child];
+					if (winner == GameBoard.COLOR_UNSET) {
+						mTree.amafWins[child] += 0.5f;
+					}
+					else if (winner == player) {
+						mTree.amafWins[child] += 1;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates the (unvisited) children of a node in random order, or with
+	 * progressive widening in order of their priors with ties in random
+	 * order. The prior of a move is its playout policy factor, which costs
+	 * far less than the playout that follows an expansion.
+	 * 
+	 * @param node
+	 * @param game position of the node
+	 * @return false if the children do not fit in the tree's memory budget
+	 */
+	private boolean expand(int node, TzaarGame game) {
+		int player = game.whoseTurn();
+		game.getValidMoves(player, game.getMoveNumber(), mMoves);
+
+		int count = mMoves.size();
+		int first = mTree.allocate(count);
+		if (first == NodeArena.NONE) {
+			return false;
+		}
+
+		if (mOrder.length < count) {
+			mOrder = new int[count * 2];
+		}
+		for (int i = 0; i < count; ++i) {
+			int j = mRand.nextInt(i + 1);
+			mOrder[i] = mOrder[j];
+			mOrder[j] = i;
+		}
+
+		if (isWidening()) {
+			if (mPriors == null || mPriors.length < PlayoutPolicy.COUNT_FACTORS + count) {
+				mPriors = new float[PlayoutPolicy.COUNT_FACTORS + count * 2];
+			}
+			mGame.getPlayoutPolicy().getFactors(game, mMoves, mPriors);
+
+			// Insertion sort by descending prior, which keeps the random order
+			// of ties
+			for (int i = 1; i < count; ++i) {
+				int index = mOrder[i];
+				float prior = mPriors[PlayoutPolicy.COUNT_FACTORS + index];
+				int j = i;
+				for (; j > 0 && mPriors[PlayoutPolicy.COUNT_FACTORS + mOrder[j - 1]] < prior; --j) {
+					mOrder[j] = mOrder[j - 1];
+				}
+				mOrder[j] = index;
+			}
+		}
+
+		for (int i = 0; i < count; ++i) {
+			mTree.initNode(first + i, NodeArena.encode(mMoves.get(mOrder[i])), player);
+		}
+		mTree.firstChild[node] = first;
+		mTree.childCount[node] = (short) count;
+		return true;
+	}
+
+	/**
+	 * Determines if the search uses progressive widening. Widening needs the
+	 * playout policy to order the moves: simple capture heuristics rank every
+	 * capture above every stacking move, and with them the search never gets
+	 * to consider stacking.
+	 * 
+	 * @return true if widening is enabled and there is a playout policy
+	 */
+	private boolean isWidening() {
+		return mWidening && mGame.getPlayoutPolicy() != null;
+	}
+
+	/**
+	 * Gets the number of children a node offers to selection.
+	 * 
+	 * @param node
+	 * @return number of children, not counting children proven lost
+	 */
+	private int getWidth(int node) {
+		if (!isWidening()) {
+			return mTree.childCount[node];
+		}
+		return WIDENING_BASE + (int) (WIDENING_FACTOR * Math.pow(mTree.visits[node], WIDENING_EXPONENT));
+	}
+
+	/**
+	 * Selects the child to descend into by UCT. Children proven lost for the
+	 * player to move are skipped.
+	 * 
+	 * With RAVE, a child's value blends its own average with its all-moves-
+	 * as-first average, by the weight beta = sqrt(k / (3n + k)) for n visits
+	 * and k = RAVE_EQUIVALENCE, so the all-moves-as-first results dominate
+	 * while a child has few visits. Unvisited children are rated by their
+	 * all-moves-as-first average alone, so moves that did badly elsewhere in
+	 * the simulations are not tried just to give them a first visit. Without
+	 * RAVE, or before a child has any all-moves-as-first results, every
+	 * child is visited once before any is revisited.
+	 * 
+	 * With progressive widening, only the first children by prior take part,
+	 * more of them as the node gets visits (see getWidth()).
+	 * 
+	 * @param node
+	 * @return child to search
+	 */
+	private int selectChild(int node) {
+		int best = NodeArena.NONE;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		double logVisits = Math.log(Math.max(mTree.visits[node], 1));
+		int width = getWidth(node);
+
+		int first = mTree.firstChild[node];
+		int last = first + mTree.childCount[node];
+		for (int child = first; child < last && width > 0; ++child) {
+			int proven = mTree.proven[child];
+			if (proven == PROVEN_LOSS) {
+				continue;
+			}
+			--width;
+
+			int visits = mTree.visits[child];
+			int amafVisits = mTree.amafVisits[child];
+			if (proven == PROVEN_WIN || (visits == 0 && (!mRave || amafVisits == 0))) {
+				return child;
+			}
+
+			double value;
+			if (!mRave) {
+				value = mTree.wins[child] / visits + EXPLORATION * Math.sqrt(logVisits / visits);
+			}
+			else if (visits == 0) {
+				value = mTree.amafWins[child] / amafVisits;
+			}
+			else {
+				double mean = mTree.wins[child] / visits;
+				double amafMean = (amafVisits > 0) ? mTree.amafWins[child] / amafVisits : mean;
+				double beta = Math.sqrt(RAVE_EQUIVALENCE / (3 * visits + RAVE_EQUIVALENCE));
+				value = (1 - beta) * mean + beta * amafMean + EXPLORATION * Math.sqrt(logVisits / visits);
+			}
+			if (value > bestValue) {
+				bestValue = value;
+				best = child;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Adds a simulation result to every node on the current path, and
+	 * propagates proven results upward.
+	 * 
+	 * @param winner color of the winner, or COLOR_UNSET for no winner
+	 */
+	private void backup(int winner) {
+		boolean proving = mTree.proven[mPath[mPathSize - 1]] != PROVEN_NONE;
+
+		for (int depth = mPathSize - 1; depth >= 0; --depth) {
+			int node = mPath[depth];
+			++mTree.visits[node];
+			if (winner == GameBoard.COLOR_UNSET) {
+				mTree.wins[node] += 0.5f;
+			}
+			else if (winner == mTree.player[node]) {
+				mTree.wins[node] += 1;
+			}
+
+			if (proving && depth > 0) {
+				proving = prove(mPath[depth - 1]);
+			}
+		}
+	}
+
+	/**
+	 * Tries to prove a node from the proven states of its children.
+	 * 
+	 * @param node
+	 * @return true if the node is now proven
+	 */
+	private boolean prove(int node) {
+		if (mTree.proven[node] != PROVEN_NONE) {
+			return true;
+		}
+
+		// The children were created by the player to move in this node
+		int first = mTree.firstChild[node];
+		int last = first + mTree.childCount[node];
+		boolean allLost = true;
+		for (int child = first; child < last; ++child) {
+			int proven = mTree.proven[child];
+
+			if (proven == PROVEN_WIN) {
+				setProven(node, mTree.player[child]);
+				return true;
+			}
+			else if (proven != PROVEN_LOSS) {
+				allLost = false;
+			}
+		}
+
+		if (allLost) {
+			setProven(node, mGame.oppositeColor(mTree.player[first]));
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Marks a node as proven won by the given player. The root of a new tree
+	 * has no player, so for that root this only marks the search as solved.
+	 */
+	private void setProven(int node, int winner) {
+		mTree.proven[node] = (byte) ((winner == mTree.player[node]) ? PROVEN_WIN : PROVEN_LOSS);
+	}
+
+	/**
+	 * Chooses the move to play: a proven win if there is one, otherwise the
+	 * most visited child that is not proven lost. With a temperature T, the
+	 * child is drawn at random in proportion to visits^(1/T) instead, which
+	 * plays weaker moves on purpose.
+	 * 
+	 * @return best move
+	 */
+	private Move selectMove() {
+		int first = mTree.firstChild[0];
+		int last = first + mTree.childCount[0];
+		int best = NodeArena.NONE;
+
+		for (int child = first; child < last; ++child) {
+			if (mTree.proven[child] == PROVEN_WIN) {
+				return mTree.getMove(child);
+			}
+			if (mTree.proven[child] != PROVEN_LOSS && (best == NodeArena.NONE || mTree.visits[child] > mTree.visits[best])) {
+				best = child;
+			}
+		}
+
+		if (best != NodeArena.NONE && mTemperature > 0) {
+			double total = 0;
+			for (int child = first; child < last; ++child) {
+				if (mTree.proven[child] != PROVEN_LOSS) {
+					total += Math.pow(mTree.visits[child], 1 / mTemperature);
+				}
+			}
+
+			double pick = mRand.nextDouble() * total;
+			for (int child = first; child < last && pick > 0; ++child) {
+				if (mTree.proven[child] != PROVEN_LOSS) {
+					best = child;
+					pick -= Math.pow(mTree.visits[child], 1 / mTemperature);
+				}
+			}
+		}
+
+		// Every move loses, so play the one that survived sampling longest
+		if (best == NodeArena.NONE) {
+			for (int child = first; child < last; ++child) {
+				if (best == NodeArena.NONE || mTree.visits[child] > mTree.visits[best]) {
+					best = child;
+				}
+			}
+		}
+
+		return mTree.getMove(best);
+	}
+
+	/**
+	 * Gets the number of root moves of the last search, for reading the root
+	 * move statistics.
+	 * 
+	 * @return number of root moves
+	 */
+	public int getRootMoveCount() {
+		return (mTree == null || mTree.firstChild[0] == NodeArena.NONE) ? 0 : mTree.childCount[0];
+	}
+	
+	public Move getRootMove(int index) {
+		return mTree.getMove(mTree.firstChild[0] + index);
+	}
+	
+	public int getRootVisits(int index) {
+		return mTree.visits[mTree.firstChild[0] + index];
+	}
+	
+	public double getRootWins(int index) {
+		return mTree.wins[mTree.firstChild[0] + index];
+	}
+	
+	public void setCache(PositionCache cache) {
+		mCache = cache;
+	}
+	
+	/**
+	 * Sets how the playouts use the move statistics.
+	 * 
+	 * @param useMoveStats false for playouts without move statistics
+	 * @param sampling MoveStatistics.SAMPLING_*
+	 */
+	public void setMoveSampling(boolean useMoveStats, int sampling) {
+		mUseMoveStats = useMoveStats;
+		mMoveSampling = sampling;
+	}
+	
+	public void setRave(boolean rave) {
+		mRave = rave;
+	}
+	
+	public void setWidening(boolean widening) {
+		mWidening = widening;
+	}
+	
+	public void setMaxDepth(int maxDepth) {
+		mMaxDepth = maxDepth;
+	}
+	
+	public void setTemperature(double temperature) {
+		mTemperature = temperature;
+	}
+	
+	public PlayoutStats getPlayoutStats() {
+		return mPlayoutStats;
+	}
+
+	public int getIterations() {
+		return mIterations;
+	}
+
+	/**
+	 * Gets the limit that stopped the last search.
+	 * 
+	 * @return SearchLimit.*, NONE if the move was found without searching
+	 */
+	public int getStopReason() {
+		return mStopReason;
+	}
+}
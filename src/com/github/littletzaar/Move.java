@@ -1,5 +1,7 @@
 package com.github.littletzaar;
 
+import java.util.ArrayList;
+
 import android.graphics.Point;
 
 /**
@@ -32,6 +34,33 @@ public class Move {
 		this.type = type;
 	}
 	
+	/**
+	 * Packs the source and destination spaces of the move into an int, as
+	 * (from << 8) | to, where a space is indexed as (col * ROWS + row).
+	 * 
+	 * @return packed move
+	 */
+	public int pack() {
+		return ((from.x * GameBoard.ROWS + from.y) << 8) | (to.x * GameBoard.ROWS + to.y);
+	}
+	
+	/**
+	 * Finds the move with the given packed value in a list of moves.
+	 * 
+	 * @param moves
+	 * @param packed value returned by pack()
+	 * @return matching move, or null if the list does not contain it
+	 */
+	public static Move find(ArrayList<Move> moves, int packed) {
+		for (int i = 0; i < moves.size(); ++i) {
+			if (moves.get(i).pack() == packed) {
+				return moves.get(i);
+			}
+		}
+		
+		return null;
+	}
+	
 	public String toString() {
 		String out = "";
 		
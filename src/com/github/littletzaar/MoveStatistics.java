@@ -0,0 +1,254 @@
+package com.github.littletzaar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Move-average sampling (MAST) statistics: the average result of every move
+ * over the simulations it took part in, in the tree or in the playout,
+ * regardless of the position it was played in. The playouts of the Monte
+ * Carlo search favor moves with good averages (see chooseMove()), so they
+ * adapt to the game while the search runs.
+ * 
+ * Moves are indexed by their packed source and destination spaces (see
+ * Move.pack()), their type and the player who made them, so the table has a
+ * fixed size of SIZE entries.
+ * 
+ * The shared table lives as long as the game (see
+ * TzaarGame.getMoveStatistics()) and is decayed at the start of every
+ * search, so the statistics of earlier moves carry over with less weight.
+ * Each search thread works on its own Local copy without locking and merges
+ * its new results into the shared table every MERGE_INTERVAL simulations,
+ * picking up the results of the other threads at the same time.
+ */
+public class MoveStatistics {
+	// Number of entries: source space, destination space, type and player
+	public static final int SIZE = GameBoard.COLS * GameBoard.ROWS * GameBoard.COLS * GameBoard.ROWS * 2 * 2;
+	
+	// Size of the shared table (bytes), and twice that for each Local
+	public static final int BYTES = SIZE * 2 * 4;
+
+	// Number of simulations between merges of a local table
+	public static final int MERGE_INTERVAL = 256;
+
+	// Factor applied to the shared statistics at the start of a search
+	public static final float DECAY = 0.5f;
+
+	// Sampling constants
+	public static final int SAMPLING_GIBBS = 0;
+	public static final int SAMPLING_EPSILON_GREEDY = 1;
+
+	// Gibbs temperature (for average results between 0 and 1)
+	public static final float TEMPERATURE = 0.15f;
+
+	// Probability of an epsilon-greedy playout move ignoring the averages
+	public static final float EPSILON = 0.4f;
+
+	// Resolution of the Gibbs factor table
+	private static final int FACTOR_STEPS = 256;
+
+	// Gibbs factors, exp(average / TEMPERATURE) for averages in FACTOR_STEPS steps
+	private static final float[] sFactors = new float[FACTOR_STEPS + 1];
+
+	static {
+		for (int i = 0; i <= FACTOR_STEPS; ++i) {
+			sFactors[i] = (float) Math.exp((double) i / FACTOR_STEPS / TEMPERATURE);
+		}
+	}
+
+	// Visits and wins of each entry, interleaved (guarded by this)
+	private final float[] mTable = new float[SIZE * 2];
+
+	/**
+	 * Gets the index of the visits of a move in a table. The wins follow.
+	 * 
+	 * @param packedMove move packed by Move.pack()
+	 * @param type TzaarGame.MOVE_CAPTURE or MOVE_STACK
+	 * @param player color of the player making the move
+	 * @return index
+	 */
+	public static int index(int packedMove, int type, int player) {
+		int from = packedMove >> 8;
+		int to = packedMove & 0xFF;
+		return (((from * GameBoard.COLS * GameBoard.ROWS + to) * 2 + type) * 2 + player) * 2;
+	}
+
+	/**
+	 * Scales down all statistics, so new results outweigh old ones.
+	 */
+	public synchronized void decay() {
+		for (int i = 0; i < mTable.length; ++i) {
+			mTable[i] *= DECAY;
+		}
+	}
+
+	/**
+	 * Creates a local copy of the statistics for a search thread.
+	 * 
+	 * @return local table
+	 */
+	public Local newLocal() {
+		Local local = new Local(this);
+		synchronized (this) {
+			System.arraycopy(mTable, 0, local.mTable, 0, mTable.length);
+		}
+		return local;
+	}
+
+	/**
+	 * Adds the new results of a local table to the shared statistics, and
+	 * refreshes the local table with the results of the other threads.
+	 */
+	private synchronized void merge(Local local) {
+		for (int i = 0; i < mTable.length; ++i) {
+			mTable[i] += local.mDelta[i];
+		}
+		System.arraycopy(mTable, 0, local.mTable, 0, mTable.length);
+		Arrays.fill(local.mDelta, 0);
+	}
+
+	/**
+	 * The statistics as seen by one search thread: the shared statistics as
+	 * of the last merge, plus the results of this thread since then.
+	 */
+	public static class Local {
+		private final MoveStatistics mShared;
+
+		// Visits and wins of each entry (as in the shared table)
+		private final float[] mTable = new float[SIZE * 2];
+
+		// Results added since the last merge
+		private final float[] mDelta = new float[SIZE * 2];
+		private int mUnmerged = 0;
+
+		// How playout moves are chosen (SAMPLING_*)
+		private int mSampling = SAMPLING_EPSILON_GREEDY;
+
+		private Local(MoveStatistics shared) {
+			mShared = shared;
+		}
+
+		/**
+		 * Adds the result of a simulation to every move made in it, and
+		 * merges with the shared table every MERGE_INTERVAL simulations.
+		 * 
+		 * @param root position the simulation started from
+		 * @param journal history of the simulated game, which starts with the
+		 *        history of the root
+		 * @param winner color of the winner, or COLOR_UNSET for no winner
+		 */
+		public void update(TzaarGame root, GameJournal journal, int winner) {
+			// Follow the turn order from the root (see TzaarGame.makeMove())
+			int turnCount = root.getTurnCount();
+			int moveNumber = root.getMoveNumber();
+
+			for (int ply = root.getJournal().size(); ply < journal.size(); ++ply) {
+				int player = (turnCount % 2 == 0) ? GameBoard.COLOR_WHITE : GameBoard.COLOR_BLACK;
+				int index = index(journal.getPacked(ply), journal.getType(ply), player);
+				float result = (winner == GameBoard.COLOR_UNSET) ? 0.5f : ((winner == player) ? 1 : 0);
+
+				mTable[index] += 1;
+				mTable[index + 1] += result;
+				mDelta[index] += 1;
+				mDelta[index + 1] += result;
+
+				if (turnCount == 0 || moveNumber == TzaarGame.MOVE_SECOND) {
+					moveNumber = TzaarGame.MOVE_FIRST;
+					++turnCount;
+				}
+				else {
+					moveNumber = TzaarGame.MOVE_SECOND;
+				}
+			}
+
+			if (++mUnmerged >= MERGE_INTERVAL) {
+				merge();
+			}
+		}
+
+		/**
+		 * Merges the results of this thread into the shared table.
+		 */
+		public void merge() {
+			mShared.merge(this);
+			mUnmerged = 0;
+		}
+
+		/**
+		 * Gets the average result of a move for the player making it. Moves
+		 * start with one virtual draw, so rare moves stay near 0.5.
+		 * 
+		 * @param move
+		 * @param player
+		 * @return average result (0 to 1)
+		 */
+		public float getAverage(Move move, int player) {
+			int index = index(move.pack(), move.type, player);
+			return (mTable[index + 1] + 0.5f) / (mTable[index] + 1);
+		}
+
+		/**
+		 * Chooses a playout move. Gibbs sampling picks a move in proportion to
+		 * exp(average / TEMPERATURE), times the playout policy's factor if
+		 * there is a policy. Epsilon-greedy sampling picks the move with the
+		 * best average, breaking ties at random, except with probability
+		 * EPSILON, when it picks a move from the playout policy or uniformly
+		 * at random.
+		 * 
+		 * @param game position of the moves
+		 * @param moves valid moves (at least one)
+		 * @param rand
+		 * @param policy playout policy, or null
+		 * @param buffer at least PlayoutPolicy.COUNT_FACTORS + moves.size() floats
+		 * @return move
+		 */
+		public Move chooseMove(TzaarGame game, ArrayList<Move> moves, Random rand, PlayoutPolicy policy, float[] buffer) {
+			int player = game.whoseTurn();
+
+			if (mSampling == SAMPLING_EPSILON_GREEDY) {
+				if (rand.nextFloat() < EPSILON) {
+					return (policy != null) ? policy.chooseMove(game, moves, rand, buffer) : moves.get(rand.nextInt(moves.size()));
+				}
+
+				// Ties are broken at random (reservoir sampling), since every
+				// unplayed move has the same prior average
+				Move best = null;
+				float bestAverage = -1;
+				int ties = 0;
+				for (int i = 0; i < moves.size(); ++i) {
+					float average = getAverage(moves.get(i), player);
+					if (average > bestAverage) {
+						bestAverage = average;
+						best = moves.get(i);
+						ties = 1;
+					}
+					else if (average == bestAverage && rand.nextInt(++ties) == 0) {
+						best = moves.get(i);
+					}
+				}
+				return best;
+			}
+
+			if (policy != null) {
+				policy.getFactors(game, moves, buffer);
+			}
+
+			float total = 0;
+			for (int i = 0; i < moves.size(); ++i) {
+				float factor = sFactors[(int) (getAverage(moves.get(i), player) * FACTOR_STEPS)];
+				total += (policy != null) ? factor * buffer[PlayoutPolicy.COUNT_FACTORS + i] : factor;
+				buffer[PlayoutPolicy.COUNT_FACTORS + i] = total;
+			}
+			return PlayoutPolicy.sample(moves, rand, buffer, total);
+		}
+
+		public int getSampling() {
+			return mSampling;
+		}
+
+		public void setSampling(int sampling) {
+			mSampling = sampling;
+		}
+	}
+}
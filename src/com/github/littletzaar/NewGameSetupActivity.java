@@ -24,6 +24,10 @@ public class NewGameSetupActivity extends Activity {
 		// Set the default selection for the start positions spinner
 		Spinner ss = (Spinner) findViewById(R.id.spinner_start_positions);
 		ss.setSelection(1); // 1 = fixed 
+		
+		// Set the default selection for the AI memory spinner
+		Spinner ms = (Spinner) findViewById(R.id.spinner_memory);
+		ms.setSelection(MemoryBudget.getInstance().getSetting());
 	}
 	
 	/**
@@ -38,10 +42,12 @@ public class NewGameSetupActivity extends Activity {
 		Spinner cs = (Spinner) findViewById(R.id.spinner_color);
 		Spinner ds = (Spinner) findViewById(R.id.spinner_difficulty);
 		Spinner ss = (Spinner) findViewById(R.id.spinner_start_positions);
+		Spinner ms = (Spinner) findViewById(R.id.spinner_memory);
 		
 		intent.putExtra("player_color", cs.getSelectedItem().toString());
 		intent.putExtra("difficulty", ds.getSelectedItem().toString());
 		intent.putExtra("start_positions", ss.getSelectedItem().toString());
+		intent.putExtra("memory", ms.getSelectedItem().toString());
 		
 		startActivity(intent);
 	}
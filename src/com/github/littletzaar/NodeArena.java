@@ -0,0 +1,344 @@
+package com.github.littletzaar;
+
+import java.util.Arrays;
+
+/**
+ * The nodes of a Monte Carlo search tree, kept in parallel primitive arrays
+ * indexed by node id instead of as one object per node, so a search creates
+ * no garbage per node and the size of the tree is known to the byte.
+ * 
+ * The children of a node are allocated together and take the contiguous ids
+ * firstChild to firstChild + childCount - 1. A child always has a higher id
+ * than its parent. The arrays grow by doubling up to a hard ceiling set by
+ * a memory budget, after which allocate() fails and the search stops growing
+ * the tree.
+ * 
+ * The arena remembers the position of its root (node 0). A game keeps its
+ * arena from one search to the next (see TzaarGame.getSearchTree()), and
+ * once the game has moved on from the root, reset() keeps the subtree of the
+ * new position, with its results, and frees the rest.
+ */
+public class NodeArena {
+	// Default memory budget (MB)
+	public static final int DEFAULT_BUDGET_MB = 16;
+
+	// Size of a node over all arrays (bytes)
+	public static final int NODE_SIZE = 2 + 1 + 1 + 4 + 2 + 4 + 4 + 4 + 4;
+
+	// Id of no node
+	public static final int NONE = -1;
+
+	// Flag marking a stacking move in a node's move (as in GameJournal)
+	public static final int STACK_FLAG = 0x8000;
+
+	// Number of nodes the arrays start with
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// Marks a node to keep in compact()
+	private static final int KEEP = -2;
+
+	// Node fields by id, read and written directly by MonteCarloTreeSearch:
+	// the move leading to the node, packed by Move.pack() with STACK_FLAG,
+	// the player who made it, the proven state (MonteCarloTreeSearch.PROVEN_*),
+	// the children (firstChild is NONE until the node is expanded), the
+	// results and the all-moves-as-first results
+	short[] move;
+	byte[] player;
+	byte[] proven;
+	int[] firstChild;
+	short[] childCount;
+	int[] visits;
+	float[] wins;
+	int[] amafVisits;
+	float[] amafWins;
+
+	// Maximum number of nodes and number of nodes in use
+	private final int mMaxNodes;
+	private int mSize = 0;
+
+	// Position of the root: length of the game's journal and hash
+	private int mRootPly = -1;
+	private long mRootHash = 0;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param budgetBytes maximum size of the node arrays
+	 */
+	public NodeArena(long budgetBytes) {
+		mMaxNodes = (int) Math.max(Math.min(budgetBytes / NODE_SIZE, Integer.MAX_VALUE), 1);
+		allocateArrays(Math.min(INITIAL_CAPACITY, mMaxNodes));
+	}
+
+	private void allocateArrays(int capacity) {
+		move = new short[capacity];
+		player = new byte[capacity];
+		proven = new byte[capacity];
+		firstChild = new int[capacity];
+		childCount = new short[capacity];
+		visits = new int[capacity];
+		wins = new float[capacity];
+		amafVisits = new int[capacity];
+		amafWins = new float[capacity];
+	}
+
+	/**
+	 * Prepares the arena for a search of the current position of a game. If
+	 * the position follows from the root through expanded nodes, that node's
+	 * subtree is kept and becomes the new root (see compact()). Otherwise the
+	 * arena starts over with an unexpanded root.
+	 * 
+	 * @param game
+	 * @param keep false to start over in any case
+	 * @return true if an earlier subtree was kept
+	 */
+	public boolean reset(TzaarGame game, boolean keep) {
+		GameJournal journal = game.getJournal();
+		int node = NONE;
+
+		if (keep && mSize > 0 && mRootPly <= journal.size() && game.getPosition(mRootPly).getHash() == mRootHash) {
+			node = 0;
+			for (int ply = mRootPly; ply < journal.size() && node != NONE; ++ply) {
+				int entry = journal.getPacked(ply) | (journal.getType(ply) == TzaarGame.MOVE_STACK ? STACK_FLAG : 0);
+				node = findChild(node, entry);
+			}
+		}
+
+		if (node == NONE) {
+			mSize = 0;
+			initNode(allocate(1), 0, GameBoard.COLOR_UNSET);
+		}
+		else if (node != 0) {
+			compact(node);
+		}
+
+		mRootPly = journal.size();
+		mRootHash = game.getHash();
+		return node != NONE;
+	}
+
+	/**
+	 * Finds the child of a node with the given move.
+	 * 
+	 * @param node
+	 * @param entry packed move with STACK_FLAG
+	 * @return child, or NONE if the node is not expanded or has no such child
+	 */
+	private int findChild(int node, int entry) {
+		if (firstChild[node] == NONE) {
+			return NONE;
+		}
+
+		int end = firstChild[node] + childCount[node];
+		for (int child = firstChild[node]; child < end; ++child) {
+			if ((move[child] & 0xFFFF) == entry) {
+				return child;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Moves the subtree of a node to the front of the arrays, making the node
+	 * the root and freeing every other node. Children come after their
+	 * parents, so one pass in id order finds the whole subtree, and moving
+	 * each node down to the next free id keeps child ranges contiguous.
+	 * 
+	 * @param root new root
+	 */
+	private void compact(int root) {
+		// Old ids map to new ids, or to KEEP for subtree nodes not reached yet
+		int[] newIds = new int[mSize];
+		Arrays.fill(newIds, NONE);
+		newIds[root] = KEEP;
+
+		int size = 0;
+		for (int id = root; id < mSize; ++id) {
+			if (newIds[id] != KEEP) {
+				continue;
+			}
+
+			int end = firstChild[id] + childCount[id];
+			for (int child = firstChild[id]; firstChild[id] != NONE && child < end; ++child) {
+				newIds[child] = KEEP;
+			}
+
+			newIds[id] = size;
+			copyNode(id, size++);
+		}
+
+		for (int id = 0; id < size; ++id) {
+			if (firstChild[id] != NONE) {
+				firstChild[id] = (childCount[id] > 0) ? newIds[firstChild[id]] : 0;
+			}
+		}
+		mSize = size;
+	}
+
+	private void copyNode(int from, int to) {
+		move[to] = move[from];
+		player[to] = player[from];
+		proven[to] = proven[from];
+		firstChild[to] = firstChild[from];
+		childCount[to] = childCount[from];
+		visits[to] = visits[from];
+		wins[to] = wins[from];
+		amafVisits[to] = amafVisits[from];
+		amafWins[to] = amafWins[from];
+	}
+
+	/**
+	 * Allocates a contiguous range of nodes, growing the arrays if needed.
+	 * The nodes must be set up with initNode().
+	 * 
+	 * @param count number of nodes
+	 * @return id of the first node, or NONE if the nodes would exceed the
+	 *         memory budget
+	 */
+	public int allocate(int count) {
+		if (count > mMaxNodes - mSize) {
+			return NONE;
+		}
+
+		if (mSize + count > move.length) {
+			int capacity = move.length;
+			while (capacity < mSize + count) {
+				capacity = (int) Math.min(capacity * 2L, mMaxNodes);
+			}
+			grow(capacity);
+		}
+
+		int first = mSize;
+		mSize += count;
+		return first;
+	}
+
+	private void grow(int capacity) {
+		short[] oldMove = move;
+		byte[] oldPlayer = player;
+		byte[] oldProven = proven;
+		int[] oldFirstChild = firstChild;
+		short[] oldChildCount = childCount;
+		int[] oldVisits = visits;
+		float[] oldWins = wins;
+		int[] oldAmafVisits = amafVisits;
+		float[] oldAmafWins = amafWins;
+
+		allocateArrays(capacity);
+		System.arraycopy(oldMove, 0, move, 0, mSize);
+		System.arraycopy(oldPlayer, 0, player, 0, mSize);
+		System.arraycopy(oldProven, 0, proven, 0, mSize);
+		System.arraycopy(oldFirstChild, 0, firstChild, 0, mSize);
+		System.arraycopy(oldChildCount, 0, childCount, 0, mSize);
+		System.arraycopy(oldVisits, 0, visits, 0, mSize);
+		System.arraycopy(oldWins, 0, wins, 0, mSize);
+		System.arraycopy(oldAmafVisits, 0, amafVisits, 0, mSize);
+		System.arraycopy(oldAmafWins, 0, amafWins, 0, mSize);
+	}
+
+	/**
+	 * Sets up an unvisited, unexpanded node.
+	 * 
+	 * @param node
+	 * @param entry move leading to the node, packed with STACK_FLAG
+	 * @param nodePlayer player who made the move
+	 */
+	public void initNode(int node, int entry, int nodePlayer) {
+		move[node] = (short) entry;
+		player[node] = (byte) nodePlayer;
+		proven[node] = MonteCarloTreeSearch.PROVEN_NONE;
+		firstChild[node] = NONE;
+		childCount[node] = 0;
+		visits[node] = 0;
+		wins[node] = 0;
+		amafVisits[node] = 0;
+		amafWins[node] = 0;
+	}
+
+	/**
+	 * Packs a move as stored in a node.
+	 * 
+	 * @param move
+	 * @return packed move with STACK_FLAG
+	 */
+	public static int encode(Move move) {
+		return move.pack() | (move.type == TzaarGame.MOVE_STACK ? STACK_FLAG : 0);
+	}
+
+	/**
+	 * Gets the move leading to a node.
+	 * 
+	 * @param node
+	 * @param outMove receives the move
+	 * @return outMove
+	 */
+	public Move getMove(int node, Move outMove) {
+		int entry = move[node] & 0xFFFF;
+		int from = (entry >> 8) & 0x7F;
+		int to = entry & 0xFF;
+
+		outMove.type = (entry & STACK_FLAG) != 0 ? TzaarGame.MOVE_STACK : TzaarGame.MOVE_CAPTURE;
+		outMove.from.x = from / GameBoard.ROWS;
+		outMove.from.y = from % GameBoard.ROWS;
+		outMove.to.x = to / GameBoard.ROWS;
+		outMove.to.y = to % GameBoard.ROWS;
+		return outMove;
+	}
+
+	/**
+	 * Gets the move leading to a node.
+	 * 
+	 * @param node
+	 * @return new move object
+	 */
+	public Move getMove(int node) {
+		return getMove(node, new Move(TzaarGame.MOVE_CAPTURE, 0, 0, 0, 0));
+	}
+
+	/**
+	 * Gets the move leading to a node, packed by Move.pack().
+	 * 
+	 * @param node
+	 * @return packed move
+	 */
+	public int getPacked(int node) {
+		return move[node] & ~STACK_FLAG & 0xFFFF;
+	}
+
+	/**
+	 * Gets the type of the move leading to a node.
+	 * 
+	 * @param node
+	 * @return TzaarGame.MOVE_CAPTURE or MOVE_STACK
+	 */
+	public int getType(int node) {
+		return (move[node] & STACK_FLAG) != 0 ? TzaarGame.MOVE_STACK : TzaarGame.MOVE_CAPTURE;
+	}
+
+	/**
+	 * Gets the number of nodes in use.
+	 * 
+	 * @return number of nodes
+	 */
+	public int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Gets the maximum number of nodes the memory budget allows.
+	 * 
+	 * @return number of nodes
+	 */
+	public int getMaxNodes() {
+		return mMaxNodes;
+	}
+
+	/**
+	 * Gets the memory taken by the node arrays.
+	 * 
+	 * @return size (bytes)
+	 */
+	public long getBytes() {
+		return (long) move.length * NODE_SIZE;
+	}
+}
@@ -0,0 +1,181 @@
+package com.github.littletzaar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.github.littletzaar.util.MappedAsset;
+
+/**
+ * A memory-mapped opening book.
+ * 
+ * The book is a binary file of move statistics sorted by position hash,
+ * built offline by OpeningBookBuilder. Positions are stored in their
+ * canonical form (see Symmetry), so one entry serves every rotation and
+ * mirror image of a position. It is mapped
+ * into memory as is and searched by binary search, so opening it costs no
+ * parsing and a lookup touches only a few pages.
+ * 
+ * File layout (big-endian):
+ *   int  magic ("TZOB")
+ *   int  version
+ *   int  entry count
+ *   entries, sorted by hash and then move:
+ *     long  position hash
+ *     short packed move (Move.pack(), in the canonical form)
+ *     int   visits
+ *     int   wins
+ */
+public class OpeningBook {
+	// Name of the book in the assets folder
+	public static final String ASSET_NAME = "opening_book.bin";
+
+	// File header constants
+	public static final int MAGIC = 0x545A4F42;
+	public static final int VERSION = 2;
+	public static final int HEADER_SIZE = 12;
+	public static final int ENTRY_SIZE = 18;
+
+	// Minimum number of visits for a book move to be played
+	public static final int MIN_VISITS = 100;
+
+	// Book shared by all games (loaded on first use)
+	private static OpeningBook sInstance = null;
+	private static boolean sLoaded = false;
+
+	// Mapped book file
+	private ByteBuffer mBuffer;
+
+	// Number of entries in the book
+	private int mCount;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param buffer book contents, including the header
+	 * @throws IOException if the header is invalid
+	 */
+	public OpeningBook(ByteBuffer buffer) throws IOException {
+		mBuffer = buffer;
+
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Invalid opening book header");
+		}
+
+		mCount = buffer.getInt(8);
+		if (buffer.capacity() < HEADER_SIZE + (long) mCount * ENTRY_SIZE) {
+			throw new IOException("Truncated opening book");
+		}
+	}
+
+	/**
+	 * Maps a book file into memory.
+	 * 
+	 * @param file
+	 * @return book
+	 * @throws IOException
+	 */
+	public static OpeningBook open(File file) throws IOException {
+		return new OpeningBook(MappedAsset.map(file));
+	}
+
+	/**
+	 * Gets the book shipped in the assets folder, loading it on first use.
+	 * 
+	 * @param context
+	 * @return book, or null if there is no valid book
+	 */
+	public static synchronized OpeningBook getInstance(Context context) {
+		if (sLoaded || context == null) {
+			return sInstance;
+		}
+		sLoaded = true;
+
+		try {
+			sInstance = new OpeningBook(MappedAsset.map(context, ASSET_NAME));
+		}
+		catch (IOException ioe) {
+			Log.w("OpeningBook", "No opening book available", ioe);
+			sInstance = null;
+		}
+
+		return sInstance;
+	}
+
+	/**
+	 * Finds the book move for the current position: the move with the most
+	 * visits, if it has at least MIN_VISITS and is valid in the position.
+	 * 
+	 * @param game
+	 * @return book move, or null if the position is not in the book
+	 */
+	public Move lookup(TzaarGame game) {
+		int symmetry = Symmetry.canonical(game);
+		long hash = Symmetry.hash(game, symmetry);
+		int index = findFirst(hash);
+
+		int bestPacked = -1;
+		int bestVisits = MIN_VISITS - 1;
+		for (int i = index; i < mCount && getHash(i) == hash; ++i) {
+			int visits = getVisits(i);
+			if (visits > bestVisits) {
+				bestVisits = visits;
+				bestPacked = getMove(i);
+			}
+		}
+
+		if (bestPacked < 0) {
+			return null;
+		}
+
+		// Guard against hash collisions by only returning a valid move
+		ArrayList<Move> moves = new ArrayList<Move>();
+		game.getValidMoves(game.whoseTurn(), game.getMoveNumber(), moves);
+		return Move.find(moves, Symmetry.transformMove(bestPacked, Symmetry.inverse(symmetry)));
+	}
+
+	/**
+	 * Finds the index of the first entry with a hash greater than or equal to
+	 * the given hash.
+	 */
+	private int findFirst(long hash) {
+		int low = 0;
+		int high = mCount;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getHash(mid) < hash) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	public int size() {
+		return mCount;
+	}
+
+	public long getHash(int index) {
+		return mBuffer.getLong(HEADER_SIZE + index * ENTRY_SIZE);
+	}
+
+	public int getMove(int index) {
+		return mBuffer.getShort(HEADER_SIZE + index * ENTRY_SIZE + 8) & 0xFFFF;
+	}
+
+	public int getVisits(int index) {
+		return mBuffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + 10);
+	}
+
+	public int getWins(int index) {
+		return mBuffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + 14);
+	}
+}
@@ -0,0 +1,158 @@
+package com.github.littletzaar;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+
+/**
+ * Builds the opening book read by OpeningBook.
+ * 
+ * Starting from the fixed layout, every position is searched with the Monte
+ * Carlo tree search and the root move statistics are recorded. The most
+ * visited moves are then followed to a fixed depth, so the book covers the
+ * main lines of the opening. Run it with:
+ * 
+ *   OpeningBookBuilder <output file> [depth] [width] [playouts]
+ * 
+ * and copy the output to assets/opening_book.bin.
+ */
+public class OpeningBookBuilder {
+	// Defaults for the command line arguments
+	public static final int DEFAULT_DEPTH = 4;
+	public static final int DEFAULT_WIDTH = 3;
+	public static final int DEFAULT_PLAYOUTS = 20000;
+
+	/**
+	 * A book entry.
+	 */
+	private static class Entry {
+		long hash;
+		int move;
+		int visits;
+		int wins;
+
+		Entry(long hash, int move, int visits, int wins) {
+			this.hash = hash;
+			this.move = move;
+			this.visits = visits;
+			this.wins = wins;
+		}
+	}
+
+	private int mWidth;
+	private int mPlayouts;
+
+	private ArrayList<Entry> mEntries = new ArrayList<Entry>();
+
+	// Hashes of positions already searched
+	private HashSet<Long> mVisited = new HashSet<Long>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param width number of moves followed from each position
+	 * @param playouts number of playouts per position
+	 */
+	public OpeningBookBuilder(int width, int playouts) {
+		mWidth = width;
+		mPlayouts = playouts;
+	}
+
+	/**
+	 * Searches a position and the positions after its best moves.
+	 * 
+	 * @param game
+	 * @param depth number of moves left to follow
+	 */
+	public void build(TzaarGame game, int depth) {
+		// Symmetric positions are searched once, in the canonical form
+		int symmetry = Symmetry.canonical(game);
+		long hash = Symmetry.hash(game, symmetry);
+		if (depth <= 0 || game.isWinningState(GameBoard.COLOR_UNSET) || !mVisited.add(hash)) {
+			return;
+		}
+
+		MonteCarloTreeSearch search = new MonteCarloTreeSearch(game);
+		search.findMove(mPlayouts, Long.MAX_VALUE / 2);
+
+		ArrayList<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < search.getRootMoveCount(); ++i) {
+			if (search.getRootVisits(i) > 0) {
+				mEntries.add(new Entry(hash, Symmetry.transformMove(search.getRootMove(i).pack(), symmetry),
+						search.getRootVisits(i), (int) search.getRootWins(i)));
+				order.add(i);
+			}
+		}
+
+		final MonteCarloTreeSearch stats = search;
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return stats.getRootVisits(b) - stats.getRootVisits(a);
+			}
+		});
+
+		System.out.println(String.format("%d positions, %d entries", mVisited.size(), mEntries.size()));
+
+		for (int i = 0; i < Math.min(mWidth, order.size()); ++i) {
+			TzaarGame next = new TzaarGame(game);
+			next.move(search.getRootMove(order.get(i)));
+			build(next, depth - 1);
+		}
+	}
+
+	/**
+	 * Writes the book, sorted by hash and move.
+	 * 
+	 * @param path output file
+	 * @throws IOException
+	 */
+	public void write(String path) throws IOException {
+		Collections.sort(mEntries, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				if (a.hash != b.hash) {
+					return a.hash < b.hash ? -1 : 1;
+				}
+				return a.move - b.move;
+			}
+		});
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+		try {
+			out.writeInt(OpeningBook.MAGIC);
+			out.writeInt(OpeningBook.VERSION);
+			out.writeInt(mEntries.size());
+
+			for (Entry entry : mEntries) {
+				out.writeLong(entry.hash);
+				out.writeShort(entry.move);
+				out.writeInt(entry.visits);
+				out.writeInt(entry.wins);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: OpeningBookBuilder <output file> [depth] [width] [playouts]");
+			return;
+		}
+
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_DEPTH;
+		int width = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_WIDTH;
+		int playouts = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_PLAYOUTS;
+
+		OpeningBookBuilder builder = new OpeningBookBuilder(width, playouts);
+		builder.build(new TzaarGame(null, GameBoard.COLOR_WHITE, TzaarGame.DIFFICULTY_NONE, GameBoard.POSITIONS_FIXED), depth);
+		builder.write(args[0]);
+	}
+}
@@ -0,0 +1,306 @@
+package com.github.littletzaar;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.github.littletzaar.util.MappedAsset;
+
+/**
+ * A learned move distribution for the playouts of the Monte Carlo search
+ * (see TzaarGame.playout()), trained on self-play data by
+ * PlayoutPolicyTrainer.
+ * 
+ * Each move is described by four cheap local features, all read from the
+ * source and target spaces and the piece counts:
+ *   - move kind (capture or stack), source type and target type
+ *   - move kind, source height and target height (capped at 4)
+ *   - move kind and the number of pieces left of the target's type
+ *   - move kind and the number of pieces left of the source's type
+ * The piece counts are capped at 6, so a capture that leaves the opponent
+ * with a single piece of a type gets its own weight.
+ * 
+ * The policy is a softmax over the sum of the weights of the move's
+ * features. The weights are kept as factors (exp(weight)), so scoring a move
+ * is four table lookups and three multiplications.
+ * 
+ * File layout (big-endian):
+ *   int   magic ("TZPP")
+ *   int   version
+ *   int   feature count
+ *   float weights
+ */
+public class PlayoutPolicy {
+	// Name of the policy in the assets folder
+	public static final String ASSET_NAME = "playout_policy.bin";
+
+	// File header constants
+	public static final int MAGIC = 0x545A5050;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 12;
+
+	// Caps of the height and piece count features
+	public static final int MAX_HEIGHT = 4;
+	public static final int MAX_COUNT = 6;
+
+	// Offsets of the feature groups in the weight table
+	public static final int TYPE_FEATURES = 0;
+	public static final int HEIGHT_FEATURES = TYPE_FEATURES + 2 * 3 * 3;
+	public static final int TARGET_COUNT_FEATURES = HEIGHT_FEATURES + 2 * MAX_HEIGHT * MAX_HEIGHT;
+	public static final int SOURCE_COUNT_FEATURES = TARGET_COUNT_FEATURES + 2 * MAX_COUNT;
+	public static final int FEATURES = SOURCE_COUNT_FEATURES + 2 * MAX_COUNT;
+
+	// Number of features of each move
+	public static final int FEATURES_PER_MOVE = 4;
+
+	// Size of the buffer of chooseMove() apart from the moves: the factors
+	// of the piece count features by move kind, group and piece
+	public static final int COUNT_FACTORS = 2 * 2 * 8;
+
+	// Policy shared by all games (loaded on first use)
+	private static PlayoutPolicy sInstance = null;
+	private static boolean sLoaded = false;
+
+	// Feature weights and their exponentials
+	private final float[] mWeights;
+	private final float[] mFactors = new float[FEATURES];
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param weights feature weights (copied)
+	 */
+	public PlayoutPolicy(float[] weights) {
+		if (weights.length != FEATURES) {
+			throw new IllegalArgumentException("Expected " + FEATURES + " weights, got " + weights.length);
+		}
+
+		mWeights = weights.clone();
+		for (int i = 0; i < FEATURES; ++i) {
+			mFactors[i] = (float) Math.exp(mWeights[i]);
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param buffer policy file contents, including the header
+	 * @throws IOException if the header is invalid
+	 */
+	public PlayoutPolicy(ByteBuffer buffer) throws IOException {
+		this(readWeights(buffer));
+	}
+
+	private static float[] readWeights(ByteBuffer buffer) throws IOException {
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+				|| buffer.getInt(8) != FEATURES) {
+			throw new IOException("Invalid playout policy header");
+		}
+		if (buffer.capacity() < HEADER_SIZE + FEATURES * 4) {
+			throw new IOException("Truncated playout policy");
+		}
+
+		float[] weights = new float[FEATURES];
+		for (int i = 0; i < FEATURES; ++i) {
+			weights[i] = buffer.getFloat(HEADER_SIZE + i * 4);
+			if (Float.isNaN(weights[i]) || Float.isInfinite(weights[i])) {
+				throw new IOException("Invalid playout policy weight");
+			}
+		}
+		return weights;
+	}
+
+	/**
+	 * Maps a policy file into memory.
+	 * 
+	 * @param file
+	 * @return policy
+	 * @throws IOException
+	 */
+	public static PlayoutPolicy open(File file) throws IOException {
+		return new PlayoutPolicy(MappedAsset.map(file));
+	}
+
+	/**
+	 * Gets the policy shipped in the assets folder, loading it on first use.
+	 * 
+	 * @param context
+	 * @return policy, or null if there is no valid policy
+	 */
+	public static synchronized PlayoutPolicy getInstance(Context context) {
+		if (sLoaded || context == null) {
+			return sInstance;
+		}
+		sLoaded = true;
+
+		try {
+			sInstance = new PlayoutPolicy(MappedAsset.map(context, ASSET_NAME));
+		}
+		catch (IOException ioe) {
+			Log.w("PlayoutPolicy", "No playout policy available", ioe);
+			sInstance = null;
+		}
+
+		return sInstance;
+	}
+
+	/**
+	 * Writes the policy to a file.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(FEATURES);
+			for (int i = 0; i < FEATURES; ++i) {
+				out.writeFloat(mWeights[i]);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Picks a move at random in proportion to the policy's weights. Does not
+	 * allocate, since it is called for every move of every playout.
+	 * 
+	 * The piece counts are the same for every move, so the factors of the
+	 * count features are looked up once per call.
+	 * 
+	 * @param game position of the moves
+	 * @param moves valid moves (at least one)
+	 * @param rand
+	 * @param buffer at least COUNT_FACTORS + moves.size() floats
+	 * @return move
+	 */
+	public Move chooseMove(TzaarGame game, ArrayList<Move> moves, Random rand, float[] buffer) {
+		getFactors(game, moves, buffer);
+
+		float total = 0;
+		for (int i = 0; i < moves.size(); ++i) {
+			total += buffer[COUNT_FACTORS + i];
+			buffer[COUNT_FACTORS + i] = total;
+		}
+		return sample(moves, rand, buffer, total);
+	}
+
+	/**
+	 * Gets the factors of a list of moves (see getFactor()).
+	 * 
+	 * @param game position of the moves
+	 * @param moves
+	 * @param buffer receives the factor of the i-th move at COUNT_FACTORS + i
+	 */
+	public void getFactors(TzaarGame game, ArrayList<Move> moves, float[] buffer) {
+		GameBoard board = game.board;
+		for (int kind = 0; kind < 2; ++kind) {
+			for (int piece = 0; piece < 6; ++piece) {
+				buffer[kind * 16 + piece] = mFactors[countFeature(TARGET_COUNT_FEATURES, kind, board, (byte) piece)];
+				buffer[kind * 16 + 8 + piece] = mFactors[countFeature(SOURCE_COUNT_FEATURES, kind, board, (byte) piece)];
+			}
+		}
+
+		for (int i = 0; i < moves.size(); ++i) {
+			Move move = moves.get(i);
+			byte source = board.getPiece(move.from.x, move.from.y);
+			byte target = board.getPiece(move.to.x, move.to.y);
+			int kind = move.type;
+
+			buffer[COUNT_FACTORS + i] = mFactors[typeFeature(kind, source, target)] * mFactors[heightFeature(kind, source, target)]
+					* buffer[kind * 16 + (target & 7)] * buffer[kind * 16 + 8 + (source & 7)];
+		}
+	}
+
+	/**
+	 * Picks a move at random from cumulative factors.
+	 * 
+	 * @param moves
+	 * @param rand
+	 * @param buffer sum of the factors of moves 0 to i at COUNT_FACTORS + i
+	 * @param total sum of all factors
+	 * @return move
+	 */
+	static Move sample(ArrayList<Move> moves, Random rand, float[] buffer, float total) {
+		float pick = rand.nextFloat() * total;
+		for (int i = 0; i < moves.size() - 1; ++i) {
+			if (pick < buffer[COUNT_FACTORS + i]) {
+				return moves.get(i);
+			}
+		}
+		return moves.get(moves.size() - 1);
+	}
+
+	/**
+	 * Gets the unnormalized probability of a move, exp() of the sum of the
+	 * weights of its features.
+	 * 
+	 * @param board position before the move
+	 * @param move
+	 * @return factor
+	 */
+	public float getFactor(GameBoard board, Move move) {
+		byte source = board.getPiece(move.from.x, move.from.y);
+		byte target = board.getPiece(move.to.x, move.to.y);
+		int kind = move.type;
+
+		return mFactors[typeFeature(kind, source, target)] * mFactors[heightFeature(kind, source, target)]
+				* mFactors[countFeature(TARGET_COUNT_FEATURES, kind, board, target)]
+				* mFactors[countFeature(SOURCE_COUNT_FEATURES, kind, board, source)];
+	}
+
+	/**
+	 * Gets the features of a move.
+	 * 
+	 * @param board position before the move
+	 * @param move
+	 * @param outFeatures receives FEATURES_PER_MOVE feature indexes
+	 * @param offset index of the first feature in outFeatures
+	 */
+	public static void getFeatures(GameBoard board, Move move, byte[] outFeatures, int offset) {
+		byte source = board.getPiece(move.from.x, move.from.y);
+		byte target = board.getPiece(move.to.x, move.to.y);
+		int kind = move.type;
+
+		outFeatures[offset] = (byte) typeFeature(kind, source, target);
+		outFeatures[offset + 1] = (byte) heightFeature(kind, source, target);
+		outFeatures[offset + 2] = (byte) countFeature(TARGET_COUNT_FEATURES, kind, board, target);
+		outFeatures[offset + 3] = (byte) countFeature(SOURCE_COUNT_FEATURES, kind, board, source);
+	}
+
+	private static int typeFeature(int kind, byte source, byte target) {
+		return TYPE_FEATURES + kind * 9 + (source & 6) / 2 * 3 + (target & 6) / 2;
+	}
+
+	private static int heightFeature(int kind, byte source, byte target) {
+		int sourceHeight = Math.min(source >> 3, MAX_HEIGHT) - 1;
+		int targetHeight = Math.min(target >> 3, MAX_HEIGHT) - 1;
+		return HEIGHT_FEATURES + (kind * MAX_HEIGHT + sourceHeight) * MAX_HEIGHT + targetHeight;
+	}
+
+	private static int countFeature(int group, int kind, GameBoard board, byte piece) {
+		// Types without pieces only come up when chooseMove() fills its buffer
+		int count = Math.min(Math.max(board.getPieceCount((byte) (piece & 7)), 1), MAX_COUNT) - 1;
+		return group + kind * MAX_COUNT + count;
+	}
+
+	/**
+	 * Gets the feature weights.
+	 * 
+	 * @return copy of the weights
+	 */
+	public float[] getWeights() {
+		return mWeights.clone();
+	}
+}
@@ -0,0 +1,282 @@
+package com.github.littletzaar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Fits the weights of a PlayoutPolicy to the self-play data written by
+ * SelfPlayGenerator.
+ * 
+ * For every recorded position the target is the distribution of the search's
+ * visits over the valid moves, and the policy's softmax is fitted to it by
+ * stochastic gradient descent on the cross-entropy, with a little L2
+ * regularization. Positions with a game-ending capture are skipped, since
+ * the playouts always take those without asking the policy, and so are
+ * positions with a single valid move.
+ * 
+ * Every tenth game is held out to measure the fit: the cross-entropy and how
+ * often the policy's favorite move is the most visited one, next to the same
+ * numbers for uniformly random moves. Run it with:
+ * 
+ *   PlayoutPolicyTrainer <shard dir> <output file> [epochs] [learning rate]
+ */
+public class PlayoutPolicyTrainer {
+	// Defaults for the command line arguments
+	public static final int DEFAULT_EPOCHS = 20;
+	public static final float DEFAULT_LEARNING_RATE = 0.05f;
+
+	// Weight of the L2 regularization
+	public static final float L2 = 1e-4f;
+
+	// Games whose index is a multiple of this are held out for validation
+	public static final int HOLDOUT_INTERVAL = 10;
+
+	/**
+	 * Positions kept for training: the features of every valid move and the
+	 * share of the visits each move got, in flat arrays.
+	 */
+	private static class Samples {
+		// Index of the first move of each position, plus the end of the last
+		int[] starts = new int[1024];
+		int count = 0;
+
+		// Features (PlayoutPolicy.FEATURES_PER_MOVE per move) and targets
+		byte[] features = new byte[1 << 16];
+		float[] targets = new float[1 << 14];
+		int moveCount = 0;
+
+		void add(TzaarGame game, ArrayList<Move> moves, SelfPlayPosition position, int maxVisits, int ties) {
+			if (count + 2 > starts.length) {
+				int[] grown = new int[starts.length * 2];
+				System.arraycopy(starts, 0, grown, 0, count + 1);
+				starts = grown;
+			}
+			if (moveCount + moves.size() > targets.length) {
+				int size = Math.max(targets.length * 2, moveCount + moves.size());
+				float[] grownTargets = new float[size];
+				byte[] grownFeatures = new byte[size * PlayoutPolicy.FEATURES_PER_MOVE];
+				System.arraycopy(targets, 0, grownTargets, 0, moveCount);
+				System.arraycopy(features, 0, grownFeatures, 0, moveCount * PlayoutPolicy.FEATURES_PER_MOVE);
+				targets = grownTargets;
+				features = grownFeatures;
+			}
+
+			starts[count] = moveCount;
+			for (int i = 0; i < moves.size(); ++i) {
+				Move move = moves.get(i);
+				PlayoutPolicy.getFeatures(game.board, move, features, moveCount * PlayoutPolicy.FEATURES_PER_MOVE);
+
+				int visits = 0;
+				int packed = move.pack();
+				for (int j = 0; j < position.getMoveCount(); ++j) {
+					if (position.getMove(j) == packed) {
+						visits = position.getVisits(j);
+						break;
+					}
+				}
+				targets[moveCount++] = (visits == maxVisits) ? 1.0f / ties : 0;
+			}
+			starts[++count] = moveCount;
+		}
+	}
+
+	private final Samples mTraining = new Samples();
+	private final Samples mValidation = new Samples();
+	private final float[] mWeights = new float[PlayoutPolicy.FEATURES];
+
+	/**
+	 * Reads the positions of every complete shard of a directory.
+	 * 
+	 * @param dir
+	 * @throws IOException if a shard cannot be read
+	 */
+	public void load(File dir) throws IOException {
+		TzaarGame game = new TzaarGame(null, GameBoard.COLOR_WHITE, TzaarGame.DIFFICULTY_NONE, GameBoard.POSITIONS_FIXED);
+		SelfPlayPosition position = new SelfPlayPosition();
+		ArrayList<Move> moves = new ArrayList<Move>();
+
+		for (File shard : SelfPlayReader.listShards(dir)) {
+			SelfPlayReader reader = new SelfPlayReader(shard);
+			try {
+				while (reader.read(position)) {
+					position.decode(game);
+					game.getValidMoves(game.whoseTurn(), game.getMoveNumber(), moves);
+					if (moves.size() < 2 || game.findDecisiveMove(moves) != null) {
+						continue;
+					}
+
+					int maxVisits = 0;
+					int ties = 0;
+					for (int i = 0; i < position.getMoveCount(); ++i) {
+						if (position.getVisits(i) > maxVisits) {
+							maxVisits = position.getVisits(i);
+							ties = 0;
+						}
+						if (position.getVisits(i) == maxVisits) {
+							++ties;
+						}
+					}
+					if (maxVisits == 0) {
+						continue;
+					}
+
+					Samples samples = (position.getGameIndex() % HOLDOUT_INTERVAL == 0) ? mValidation : mTraining;
+					samples.add(game, moves, position, maxVisits, ties);
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Runs stochastic gradient descent over the training positions.
+	 * 
+	 * @param epochs passes over the training positions
+	 * @param learningRate
+	 * @param rand shuffles the positions
+	 */
+	public void train(int epochs, float learningRate, Random rand) {
+		int[] order = new int[mTraining.count];
+		for (int i = 0; i < order.length; ++i) {
+			order[i] = i;
+		}
+		float[] probabilities = new float[64];
+
+		for (int epoch = 1; epoch <= epochs; ++epoch) {
+			for (int i = order.length - 1; i > 0; --i) {
+				int j = rand.nextInt(i + 1);
+				int swap = order[i];
+				order[i] = order[j];
+				order[j] = swap;
+			}
+
+			// Decay the learning rate over the epochs
+			float rate = learningRate / (1 + 0.5f * (epoch - 1));
+			for (int i = 0; i < order.length; ++i) {
+				int start = mTraining.starts[order[i]];
+				int end = mTraining.starts[order[i] + 1];
+				if (end - start > probabilities.length) {
+					probabilities = new float[end - start];
+				}
+				softmax(mTraining, start, end, probabilities);
+
+				// The gradient of the cross-entropy for a feature is the
+				// predicted minus the target probability of its moves
+				for (int m = start; m < end; ++m) {
+					float gradient = probabilities[m - start] - mTraining.targets[m];
+					for (int f = 0; f < PlayoutPolicy.FEATURES_PER_MOVE; ++f) {
+						mWeights[mTraining.features[m * PlayoutPolicy.FEATURES_PER_MOVE + f]] -= rate * gradient;
+					}
+				}
+				for (int f = 0; f < mWeights.length; ++f) {
+					mWeights[f] -= rate * L2 * mWeights[f];
+				}
+			}
+
+			System.out.println(String.format("epoch %d: training %s, validation %s", epoch,
+					evaluate(mTraining, false), evaluate(mValidation, false)));
+		}
+		System.out.println(String.format("uniform: training %s, validation %s",
+				evaluate(mTraining, true), evaluate(mValidation, true)));
+	}
+
+	/**
+	 * Calculates the policy's probabilities of the moves of a position.
+	 */
+	private void softmax(Samples samples, int start, int end, float[] outProbabilities) {
+		float max = Float.NEGATIVE_INFINITY;
+		for (int m = start; m < end; ++m) {
+			float score = 0;
+			for (int f = 0; f < PlayoutPolicy.FEATURES_PER_MOVE; ++f) {
+				score += mWeights[samples.features[m * PlayoutPolicy.FEATURES_PER_MOVE + f]];
+			}
+			outProbabilities[m - start] = score;
+			max = Math.max(max, score);
+		}
+
+		float total = 0;
+		for (int m = start; m < end; ++m) {
+			outProbabilities[m - start] = (float) Math.exp(outProbabilities[m - start] - max);
+			total += outProbabilities[m - start];
+		}
+		for (int m = start; m < end; ++m) {
+			outProbabilities[m - start] /= total;
+		}
+	}
+
+	/**
+	 * Measures the fit of the policy, or of uniformly random moves.
+	 * 
+	 * @return mean cross-entropy and share of positions where the most
+	 *         likely move is the most visited one
+	 */
+	private String evaluate(Samples samples, boolean uniform) {
+		double crossEntropy = 0;
+		double matches = 0;
+		float[] probabilities = new float[64];
+
+		for (int i = 0; i < samples.count; ++i) {
+			int start = samples.starts[i];
+			int end = samples.starts[i + 1];
+			if (end - start > probabilities.length) {
+				probabilities = new float[end - start];
+			}
+			if (uniform) {
+				for (int m = start; m < end; ++m) {
+					probabilities[m - start] = 1.0f / (end - start);
+				}
+			}
+			else {
+				softmax(samples, start, end, probabilities);
+			}
+
+			int best = start;
+			int likeliest = start;
+			for (int m = start; m < end; ++m) {
+				crossEntropy -= samples.targets[m] * Math.log(Math.max(probabilities[m - start], 1e-9f));
+				if (samples.targets[m] > samples.targets[best]) {
+					best = m;
+				}
+				if (probabilities[m - start] > probabilities[likeliest - start]) {
+					likeliest = m;
+				}
+			}
+			if (uniform) {
+				// A random pick is the most visited move once in (moves) times
+				matches += 1.0 / (end - start);
+			}
+			else if (likeliest == best) {
+				++matches;
+			}
+		}
+
+		int count = Math.max(samples.count, 1);
+		return String.format("loss %.4f top-1 %.1f%%", crossEntropy / count, 100.0 * matches / count);
+	}
+
+	public float[] getWeights() {
+		return mWeights;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: PlayoutPolicyTrainer <shard dir> <output file> [epochs] [learning rate]");
+			return;
+		}
+
+		int epochs = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_EPOCHS;
+		float learningRate = args.length > 3 ? Float.parseFloat(args[3]) : DEFAULT_LEARNING_RATE;
+
+		PlayoutPolicyTrainer trainer = new PlayoutPolicyTrainer();
+		trainer.load(new File(args[0]));
+		System.out.println(String.format("%d training and %d validation positions",
+				trainer.mTraining.count, trainer.mValidation.count));
+
+		trainer.train(epochs, learningRate, new Random(0));
+		new PlayoutPolicy(trainer.getWeights()).write(new File(args[1]));
+	}
+}
@@ -0,0 +1,134 @@
+package com.github.littletzaar;
+
+/**
+ * Collects the distribution of playout lengths so the playout cap can be 
+ * tuned for throughput vs. accuracy.
+ * 
+ * Lengths are counted in moves (not turns) and kept in fixed-width buckets.
+ * Playouts longer than the last bucket are counted in the last bucket.
+ */
+public class PlayoutStats {
+	// Width of each histogram bucket (moves)
+	public static final int BUCKET_WIDTH = 10;
+	
+	// Number of histogram buckets
+	public static final int NUM_BUCKETS = 30;
+	
+	// Histogram of playout lengths
+	private long[] mBuckets = new long[NUM_BUCKETS];
+	
+	// Total number of playouts and moves recorded
+	private long mPlayouts = 0;
+	private long mMoves = 0;
+	
+	// Longest playout recorded
+	private int mMaxLength = 0;
+	
+	// Number of playouts decided by evaluation instead of a winning state
+	private long mAdjudicated = 0;
+	
+	/**
+	 * Records a single playout.
+	 * 
+	 * @param length number of moves played
+	 * @param adjudicated true if the playout hit the cap and was evaluated
+	 */
+	public void record(int length, boolean adjudicated) {
+		int bucket = Math.min(length / BUCKET_WIDTH, NUM_BUCKETS - 1);
+		++mBuckets[bucket];
+		++mPlayouts;
+		mMoves += length;
+		mMaxLength = Math.max(mMaxLength, length);
+		
+		if (adjudicated) {
+			++mAdjudicated;
+		}
+	}
+	
+	/**
+	 * Adds the counts of another stats object to this one.
+	 * 
+	 * @param that
+	 */
+	public void merge(PlayoutStats that) {
+		for (int i = 0; i < NUM_BUCKETS; ++i) {
+			mBuckets[i] += that.mBuckets[i];
+		}
+		mPlayouts += that.mPlayouts;
+		mMoves += that.mMoves;
+		mMaxLength = Math.max(mMaxLength, that.mMaxLength);
+		mAdjudicated += that.mAdjudicated;
+	}
+	
+	/**
+	 * Clears all recorded playouts.
+	 */
+	public void reset() {
+		for (int i = 0; i < NUM_BUCKETS; ++i) {
+			mBuckets[i] = 0;
+		}
+		mPlayouts = 0;
+		mMoves = 0;
+		mMaxLength = 0;
+		mAdjudicated = 0;
+	}
+	
+	/**
+	 * Finds the playout length below which the given fraction of playouts 
+	 * ended, to bucket resolution.
+	 * 
+	 * @param fraction value between 0 and 1
+	 * @return upper bound of the bucket containing the percentile
+	 */
+	public int getPercentile(double fraction) {
+		long target = (long) Math.ceil(mPlayouts * fraction);
+		long seen = 0;
+		
+		for (int i = 0; i < NUM_BUCKETS; ++i) {
+			seen += mBuckets[i];
+			if (seen >= target && seen > 0) {
+				return (i + 1) * BUCKET_WIDTH;
+			}
+		}
+		
+		return mMaxLength;
+	}
+	
+	public long getPlayouts() {
+		return mPlayouts;
+	}
+	
+	public long getAdjudicated() {
+		return mAdjudicated;
+	}
+	
+	public int getMaxLength() {
+		return mMaxLength;
+	}
+	
+	public double getMeanLength() {
+		return mPlayouts == 0 ? 0 : (double) mMoves / mPlayouts;
+	}
+	
+	public long getBucket(int index) {
+		return mBuckets[index];
+	}
+	
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("playouts=%d mean=%.1f p50<=%d p90<=%d max=%d adjudicated=%d", 
+				mPlayouts, getMeanLength(), getPercentile(0.5), getPercentile(0.9), mMaxLength, mAdjudicated));
+		
+		// Append the non-empty buckets as "low-high:count"
+		for (int i = 0; i < NUM_BUCKETS; ++i) {
+			if (mBuckets[i] > 0) {
+				int low = i * BUCKET_WIDTH;
+				out.append(i < NUM_BUCKETS - 1 
+						? String.format(" %d-%d:%d", low, low + BUCKET_WIDTH - 1, mBuckets[i])
+						: String.format(" %d+:%d", low, mBuckets[i]));
+			}
+		}
+		
+		return out.toString();
+	}
+}
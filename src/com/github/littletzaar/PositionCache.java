@@ -0,0 +1,266 @@
+package com.github.littletzaar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * A persistent cache of move statistics, shared by all games.
+ * 
+ * The cache is a fixed-size open-addressing hash table in a memory-mapped
+ * file in the app's files directory. Each slot holds the visits and wins of
+ * one move in one position, keyed by key() from the canonical form of the
+ * position (see Symmetry), so symmetric positions share slots. A key is looked for within a
+ * small window of slots; when the window is full, the slot that was updated
+ * the longest ago (the lowest generation) is evicted.
+ * 
+ * The searches read the cache to warm-start and queue their own results with
+ * update(). Queued results are written by flushAsync() on a background
+ * thread, which also starts a new generation.
+ * 
+ * File layout (big-endian):
+ *   int  magic ("TZPC")
+ *   int  version
+ *   int  number of slots
+ *   int  current generation
+ *   slots:
+ *     long  key (0 if empty)
+ *     int   visits
+ *     int   wins (in half wins, so draws can be counted)
+ *     int   generation of the last update
+ */
+public class PositionCache {
+	// Name of the cache in the app's files directory
+	public static final String FILE_NAME = "position_cache.bin";
+
+	// File header constants
+	public static final int MAGIC = 0x545A5043;
+	public static final int VERSION = 2;
+	public static final int HEADER_SIZE = 16;
+	public static final int SLOT_SIZE = 20;
+
+	// Default number of slots (640 KB)
+	public static final int DEFAULT_SLOTS = 1 << 15;
+
+	// Number of slots searched for a key
+	public static final int PROBE_WINDOW = 8;
+
+	// Visits and wins are halved once the visits reach this value, so old
+	// results fade out
+	public static final int MAX_VISITS = 1 << 20;
+
+	// Maximum number of queued updates (later ones are dropped)
+	public static final int MAX_PENDING = 4096;
+
+	// Cache shared by all games (opened on first use)
+	private static PositionCache sInstance = null;
+	private static boolean sLoaded = false;
+
+	// Mapped cache file
+	private MappedByteBuffer mBuffer;
+
+	// Number of slots
+	private int mSlots;
+
+	// Updates waiting to be written, as { key, visits, half wins }
+	private ArrayList<long[]> mPending = new ArrayList<long[]>();
+
+	/**
+	 * Constructor. The file is created, or reset if it is not a valid cache of
+	 * the given size.
+	 * 
+	 * @param file
+	 * @param slots number of slots
+	 * @throws IOException
+	 */
+	public PositionCache(File file, int slots) throws IOException {
+		mSlots = slots;
+		long size = HEADER_SIZE + (long) slots * SLOT_SIZE;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			boolean valid = raf.length() == size;
+			raf.setLength(size);
+			mBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+			if (!valid || mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION || mBuffer.getInt(8) != slots) {
+				for (int i = 0; i < size; ++i) {
+					mBuffer.put(i, (byte) 0);
+				}
+				mBuffer.putInt(0, MAGIC);
+				mBuffer.putInt(4, VERSION);
+				mBuffer.putInt(8, slots);
+				mBuffer.putInt(12, 1);
+			}
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Gets the cache in the app's files directory, opening it on first use.
+	 * 
+	 * @param context
+	 * @return cache, or null if it cannot be opened
+	 */
+	public static synchronized PositionCache getInstance(Context context) {
+		if (sLoaded || context == null) {
+			return sInstance;
+		}
+		sLoaded = true;
+
+		try {
+			sInstance = new PositionCache(new File(context.getFilesDir(), FILE_NAME), DEFAULT_SLOTS);
+		}
+		catch (IOException ioe) {
+			Log.w("PositionCache", "Position cache unavailable", ioe);
+			sInstance = null;
+		}
+
+		return sInstance;
+	}
+
+	/**
+	 * Gets the key of a move in a position.
+	 * 
+	 * @param hash position hash (TzaarGame.getHash())
+	 * @param packedMove move packed by Move.pack()
+	 * @return key, never 0
+	 */
+	public static long key(long hash, int packedMove) {
+		long key = hash ^ Zobrist.move(packedMove);
+		return (key != 0) ? key : 1;
+	}
+
+	/**
+	 * Finds the slot holding a key.
+	 * 
+	 * @param key
+	 * @return slot index, or -1 if the key is not cached
+	 */
+	public synchronized int find(long key) {
+		int start = slotIndex(key);
+		for (int i = 0; i < PROBE_WINDOW; ++i) {
+			int index = (start + i) % mSlots;
+			if (getKey(index) == key) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Queues a search result to be added to the cache by the next flush.
+	 * 
+	 * @param key
+	 * @param visits
+	 * @param wins
+	 */
+	public synchronized void update(long key, int visits, double wins) {
+		if (visits > 0 && mPending.size() < MAX_PENDING) {
+			mPending.add(new long[] { key, visits, Math.round(wins * 2) });
+		}
+	}
+
+	/**
+	 * Writes the queued results on a background thread.
+	 */
+	public void flushAsync() {
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, "PositionCache");
+		writer.setPriority(Thread.MIN_PRIORITY);
+		writer.start();
+	}
+
+	/**
+	 * Writes the queued results and starts a new generation.
+	 */
+	public synchronized void flush() {
+		if (mPending.isEmpty()) {
+			return;
+		}
+
+		int generation = mBuffer.getInt(12);
+		for (long[] update : mPending) {
+			add(update[0], (int) update[1], (int) update[2], generation);
+		}
+		mPending.clear();
+
+		mBuffer.putInt(12, generation + 1);
+		mBuffer.force();
+	}
+
+	/**
+	 * Adds a result to a slot, evicting the oldest slot in the window if the
+	 * key is not cached yet.
+	 */
+	private void add(long key, int visits, int halfWins, int generation) {
+		int start = slotIndex(key);
+		int target = -1;
+
+		for (int i = 0; i < PROBE_WINDOW; ++i) {
+			int index = (start + i) % mSlots;
+			long slotKey = getKey(index);
+
+			if (slotKey == key) {
+				target = index;
+				visits += getVisits(index);
+				halfWins += getHalfWins(index);
+				break;
+			}
+			if (target < 0 || (getKey(target) != 0 && (slotKey == 0 || getGeneration(index) < getGeneration(target)))) {
+				target = index;
+			}
+		}
+
+		while (visits >= MAX_VISITS) {
+			visits /= 2;
+			halfWins /= 2;
+		}
+
+		int offset = HEADER_SIZE + target * SLOT_SIZE;
+		mBuffer.putLong(offset, key);
+		mBuffer.putInt(offset + 8, visits);
+		mBuffer.putInt(offset + 12, halfWins);
+		mBuffer.putInt(offset + 16, generation);
+	}
+
+	private int slotIndex(long key) {
+		return (int) ((key >>> 1) % mSlots);
+	}
+
+	private long getKey(int index) {
+		return mBuffer.getLong(HEADER_SIZE + index * SLOT_SIZE);
+	}
+
+	public synchronized int getVisits(int index) {
+		return mBuffer.getInt(HEADER_SIZE + index * SLOT_SIZE + 8);
+	}
+
+	private int getHalfWins(int index) {
+		return mBuffer.getInt(HEADER_SIZE + index * SLOT_SIZE + 12);
+	}
+
+	public synchronized double getWins(int index) {
+		return getHalfWins(index) / 2.0;
+	}
+
+	private int getGeneration(int index) {
+		return mBuffer.getInt(HEADER_SIZE + index * SLOT_SIZE + 16);
+	}
+
+	public int getSlots() {
+		return mSlots;
+	}
+}
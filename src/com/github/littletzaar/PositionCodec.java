@@ -0,0 +1,218 @@
+package com.github.littletzaar;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-length binary encoding of a game position, the common format for
+ * storing positions in files.
+ * 
+ * The board is bit-packed. Each of the 60 legal spaces takes a 3-bit code:
+ * 0 for empty, otherwise 1 + the piece's color and type (GameBoard.BTO to
+ * WTZ). The stack heights follow in unary, for each occupied space in the
+ * same order: height - 1 one bits and a zero bit. Every piece on the board
+ * adds one bit there, so at most 60 bits, and the board always fits in
+ * BOARD_BYTES bytes (zero-padded). A full board takes 30 bytes instead of
+ * one byte per space. Move history is not encoded.
+ * 
+ * Layout (SIZE bytes, big-endian):
+ *   30 bytes  board, legal spaces in column-major order, bits taken from
+ *             the high bit of each byte
+ *   byte      flags (FLAG_SECOND_MOVE)
+ *   byte      reserved (0)
+ *   short     turn count (the player to move follows from it)
+ */
+public final class PositionCodec {
+	// Size of the packed board (bytes): 3 bits per space and one per piece
+	public static final int BOARD_BYTES = (GameBoard.LEGAL_SPACES * 3 + GameBoard.LEGAL_SPACES + 7) / 8;
+
+	// Encoded size (bytes)
+	public static final int SIZE = BOARD_BYTES + 4;
+
+	// Flag for a position where the second move of the turn is next
+	public static final int FLAG_SECOND_MOVE = 1;
+
+	// Bits of the code of a space
+	private static final int CODE_BITS = 3;
+
+	// Tallest stack a piece byte can hold
+	private static final int MAX_HEIGHT = 15;
+
+	private PositionCodec() {
+	}
+
+	/**
+	 * Writes a position at the buffer's position, advancing it by SIZE.
+	 * 
+	 * @param game
+	 * @param out
+	 */
+	public static void encode(TzaarGame game, ByteBuffer out) {
+		byte[] board = new byte[BOARD_BYTES];
+		int bit = 0;
+
+		for (int col = 0; col < GameBoard.COLS; ++col) {
+			for (int row = 0; row < GameBoard.ROWS; ++row) {
+				if (GameBoard.isLegalSpace(col, row)) {
+					byte piece = game.board.getPiece(col, row);
+					int code = (piece == GameBoard.NONE) ? 0 : GameBoard.extractPieceColorAndType(piece) + 1;
+					for (int i = CODE_BITS - 1; i >= 0; --i) {
+						setBit(board, bit++, (code >> i) & 1);
+					}
+				}
+			}
+		}
+
+		for (int col = 0; col < GameBoard.COLS; ++col) {
+			for (int row = 0; row < GameBoard.ROWS; ++row) {
+				byte piece = game.board.getPiece(col, row);
+				if (GameBoard.isLegalSpace(col, row) && piece != GameBoard.NONE) {
+					for (int height = GameBoard.extractPieceHeight(piece); height > 1; --height) {
+						setBit(board, bit++, 1);
+					}
+					++bit;
+				}
+			}
+		}
+
+		out.put(board);
+		out.put((byte) (game.getMoveNumber() == TzaarGame.MOVE_SECOND ? FLAG_SECOND_MOVE : 0));
+		out.put((byte) 0);
+		out.putShort((short) game.getTurnCount());
+	}
+
+	/**
+	 * Reads a position at the buffer's position into an existing game,
+	 * advancing the buffer by SIZE. The game's move history is restarted from
+	 * the decoded position, while its player color, difficulty and settings
+	 * are kept.
+	 * 
+	 * @param in
+	 * @param game receives the position
+	 * @throws IllegalArgumentException if the data is not a valid position
+	 */
+	public static void decode(ByteBuffer in, TzaarGame game) {
+		decodePosition(in, game);
+		game.resetJournal();
+	}
+
+	/**
+	 * Reads a position like decode(), leaving the game's move history alone.
+	 * 
+	 * @param in
+	 * @param game receives the position
+	 * @throws IllegalArgumentException if the data is not a valid position
+	 */
+	static void decodePosition(ByteBuffer in, TzaarGame game) {
+		byte[] board = new byte[BOARD_BYTES];
+		in.get(board);
+		game.board.decode(ByteBuffer.wrap(unpackBoard(board)));
+		int flags = in.get();
+		in.get();
+		int turnCount = in.getShort() & 0xFFFF;
+
+		if ((flags & ~FLAG_SECOND_MOVE) != 0 || (turnCount == 0 && flags != 0)) {
+			throw new IllegalArgumentException("Invalid position flags " + flags);
+		}
+
+		game.setTurnCount(turnCount);
+		game.setMoveNumber((flags & FLAG_SECOND_MOVE) != 0 ? TzaarGame.MOVE_SECOND : TzaarGame.MOVE_FIRST);
+	}
+
+	/**
+	 * Unpacks an encoded board into one piece byte per legal space, the
+	 * format of GameBoard.decode().
+	 * 
+	 * @param board BOARD_BYTES bytes
+	 * @return LEGAL_SPACES piece bytes
+	 * @throws IllegalArgumentException if the board is not valid
+	 */
+	private static byte[] unpackBoard(byte[] board) {
+		byte[] pieces = new byte[GameBoard.LEGAL_SPACES];
+		int bit = 0;
+
+		for (int i = 0; i < pieces.length; ++i) {
+			int code = 0;
+			for (int j = 0; j < CODE_BITS; ++j) {
+				code = (code << 1) | getBit(board, bit++);
+			}
+			if (code > GameBoard.WTZ + 1) {
+				throw new IllegalArgumentException("Invalid piece code " + code);
+			}
+			pieces[i] = (code == 0) ? GameBoard.NONE : (byte) (code - 1);
+		}
+
+		for (int i = 0; i < pieces.length; ++i) {
+			if (pieces[i] == GameBoard.NONE) {
+				continue;
+			}
+
+			int height = 1;
+			boolean terminated = false;
+			while (bit < BOARD_BYTES * 8 && !terminated) {
+				if (getBit(board, bit++) == 1) {
+					++height;
+				}
+				else {
+					terminated = true;
+				}
+			}
+			if (!terminated || height > MAX_HEIGHT) {
+				throw new IllegalArgumentException("Invalid stack height");
+			}
+			pieces[i] |= height << 3;
+		}
+
+		// The padding must be zero, so that each position has one encoding
+		while (bit < BOARD_BYTES * 8) {
+			if (getBit(board, bit++) != 0) {
+				throw new IllegalArgumentException("Invalid board padding");
+			}
+		}
+
+		return pieces;
+	}
+
+	private static void setBit(byte[] data, int bit, int value) {
+		data[bit >> 3] |= value << (7 - (bit & 7));
+	}
+
+	private static int getBit(byte[] data, int bit) {
+		return (data[bit >> 3] >> (7 - (bit & 7))) & 1;
+	}
+
+	/**
+	 * Gets the player to move in an encoded position without decoding it.
+	 * 
+	 * @param data
+	 * @param offset start of the position in the array
+	 * @return player color
+	 */
+	public static int whoseTurn(byte[] data, int offset) {
+		// The low byte of the turn count is the last byte
+		return ((data[offset + SIZE - 1] & 1) == 0) ? GameBoard.COLOR_WHITE : GameBoard.COLOR_BLACK;
+	}
+
+	/**
+	 * Encodes a position into a new array.
+	 * 
+	 * @param game
+	 * @return SIZE bytes
+	 */
+	public static byte[] encode(TzaarGame game) {
+		byte[] data = new byte[SIZE];
+		encode(game, ByteBuffer.wrap(data));
+		return data;
+	}
+
+	/**
+	 * Decodes a position from an array into an existing game.
+	 * 
+	 * @param data
+	 * @param offset start of the position in the array
+	 * @param game receives the position
+	 * @throws IllegalArgumentException if the data is not a valid position
+	 */
+	public static void decode(byte[] data, int offset, TzaarGame game) {
+		decode(ByteBuffer.wrap(data, offset, SIZE), game);
+	}
+}
@@ -0,0 +1,323 @@
+package com.github.littletzaar;
+
+import java.util.ArrayList;
+
+import android.util.Log;
+
+/**
+ * This class implements a proof-number search endgame solver.
+ * 
+ * The solver tries to prove that the player to move at the root can force a
+ * win under the isWinningState() rules. Nodes where the root player is to
+ * move are OR nodes (one winning move is enough) and all others are AND
+ * nodes (every reply must lose). Because a turn has two moves, consecutive
+ * nodes often have the same type.
+ * 
+ * A player who has no valid moves at the start of a turn loses. With no
+ * valid moves for the second move, the turn ends instead (see
+ * TzaarGame.getNoMovesWinner()), which the tree represents as a pass node
+ * without a move. The search stops when the root is proven or disproven, or when the
+ * node or time budget runs out.
+ */
+public class ProofNumberSearch {
+	// Total number of pieces on the board at or below which the solver is used
+	public static final int ENDGAME_PIECES = 16;
+
+	// Default limits
+	public static final int DEFAULT_MAX_NODES = 100000;
+	public static final long DEFAULT_MAX_MILLIS = 2000;
+
+	// Search result constants
+	public static final int RESULT_UNKNOWN = 0;
+	public static final int RESULT_WIN     = 1;
+	public static final int RESULT_LOSS    = 2;
+
+	// Proof and disproof numbers are capped at this value
+	private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+	// Number of iterations between checks of the clock
+	private static final int CHECK_INTERVAL = 256;
+
+	/**
+	 * A node of the proof tree.
+	 */
+	private static class Node {
+		// Move leading to this node (null for a pass) and the pieces it
+		// replaced (for undo)
+		Move move;
+		byte fromPiece;
+		byte toPiece;
+
+		Node parent;
+		Node[] children = null;
+
+		// True if the root player is to move in this node
+		boolean or;
+
+		int proof = 1;
+		int disproof = 1;
+
+		Node(Node parent, Move move, boolean or) {
+			this.parent = parent;
+			this.move = move;
+			this.or = or;
+		}
+	}
+
+	// Game being searched (a private copy that is modified during the search)
+	private TzaarGame mGame;
+
+	// Color of the player to move at the root
+	private int mRootColor;
+
+	// Valid moves buffer for expanding nodes
+	private ArrayList<Move> mMoves = new ArrayList<Move>();
+
+	// Number of nodes created by the last search
+	private int mNodes = 0;
+
+	// Best move found by the last search (only set if the root was proven)
+	private Move mBestMove = null;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param game position to solve (copied, the original is never modified)
+	 */
+	public ProofNumberSearch(TzaarGame game) {
+		mGame = new TzaarGame(game);
+		mRootColor = mGame.whoseTurn();
+	}
+
+	/**
+	 * Determines if the given position is small enough for the solver.
+	 * 
+	 * @param game
+	 * @return true if the solver should be tried before sampling
+	 */
+	public static boolean isEndgame(TzaarGame game) {
+		return game.board.getTotalPieceCount() <= ENDGAME_PIECES;
+	}
+
+	/**
+	 * Tries to solve the position.
+	 * 
+	 * @param maxNodes maximum number of nodes to create
+	 * @param maxMillis time limit (ms)
+	 * @return RESULT_WIN, RESULT_LOSS or RESULT_UNKNOWN for the player to move
+	 */
+	public int solve(int maxNodes, long maxMillis) {
+		long startTime = System.currentTimeMillis();
+		long deadline = startTime + maxMillis;
+		mBestMove = null;
+		mNodes = 1;
+
+		Node root = new Node(null, null, true);
+		evaluate(root);
+
+		int iterations = 0;
+		while (root.proof != 0 && root.disproof != 0 && mNodes < maxNodes) {
+			if ((++iterations % CHECK_INTERVAL) == 0 && System.currentTimeMillis() > deadline) {
+				break;
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				break;
+			}
+
+			// Walk down to the most-proving node, making the moves on the way
+			Node node = root;
+			while (node.children != null) {
+				node = selectChild(node);
+				play(node);
+			}
+
+			expand(node);
+
+			// Walk back up to the root, updating the numbers and undoing moves
+			while (node != root) {
+				update(node);
+
+				// The numbers of a solved node's subtree are no longer needed
+				if ((node.proof == 0 || node.disproof == 0) && node.children != null) {
+					node.children = new Node[0];
+				}
+
+				takeBack(node);
+				node = node.parent;
+			}
+			update(root);
+		}
+
+		int result = RESULT_UNKNOWN;
+		if (root.proof == 0) {
+			result = RESULT_WIN;
+			for (Node child : root.children) {
+				if (child.proof == 0) {
+					mBestMove = child.move;
+					break;
+				}
+			}
+		}
+		else if (root.disproof == 0) {
+			result = RESULT_LOSS;
+		}
+
+		Log.v("Instrumentation", String.format("Proof-number search: result %d, %d nodes (%d ms)",
+				result, mNodes, System.currentTimeMillis() - startTime));
+
+		return result;
+	}
+
+	/**
+	 * Sets the numbers of a new node from the current position.
+	 */
+	private void evaluate(Node node) {
+		int winner = mGame.getWinner();
+
+		if (winner == mRootColor) {
+			node.proof = 0;
+			node.disproof = INFINITY;
+		}
+		else if (winner != GameBoard.COLOR_UNSET) {
+			node.proof = INFINITY;
+			node.disproof = 0;
+		}
+	}
+
+	/**
+	 * Creates the children of a leaf node. A node whose player to move has no
+	 * valid moves is a loss for that player at the start of a turn, and gets
+	 * a single pass child for the second move.
+	 */
+	private void expand(Node node) {
+		if (node.proof == 0 || node.disproof == 0) {
+			return;
+		}
+
+		mGame.getValidMoves(mGame.whoseTurn(), mGame.getMoveNumber(), mMoves);
+		if (mMoves.isEmpty() && mGame.getNoMovesWinner() == GameBoard.COLOR_UNSET) {
+			Node pass = new Node(node, null, false);
+			play(pass);
+			pass.or = mGame.whoseTurn() == mRootColor;
+			evaluate(pass);
+			takeBack(pass);
+
+			node.children = new Node[] { pass };
+			++mNodes;
+			update(node);
+			return;
+		}
+
+		node.children = new Node[mMoves.size()];
+
+		for (int i = 0; i < node.children.length; ++i) {
+			Move move = mMoves.get(i);
+			byte fromPiece = mGame.board.getPiece(move.from.x, move.from.y);
+			byte toPiece = mGame.board.getPiece(move.to.x, move.to.y);
+
+			mGame.move(move);
+			Node child = new Node(node, move, mGame.whoseTurn() == mRootColor);
+			child.fromPiece = fromPiece;
+			child.toPiece = toPiece;
+			evaluate(child);
+			mGame.undo(move, fromPiece, toPiece);
+
+			node.children[i] = child;
+		}
+		mNodes += node.children.length;
+
+		update(node);
+	}
+
+	/**
+	 * Makes the move leading to a node, or ends the turn for a pass.
+	 */
+	private void play(Node node) {
+		if (node.move != null) {
+			mGame.move(node.move);
+		}
+		else {
+			mGame.pass();
+		}
+	}
+
+	/**
+	 * Takes back the move leading to a node, or a pass.
+	 */
+	private void takeBack(Node node) {
+		if (node.move != null) {
+			mGame.undo(node.move, node.fromPiece, node.toPiece);
+		}
+		else {
+			mGame.undoPass();
+		}
+	}
+
+	/**
+	 * Recalculates the proof and disproof numbers of an expanded node from
+	 * its children.
+	 */
+	private void update(Node node) {
+		if (node.children == null) {
+			return;
+		}
+
+		if (node.children.length == 0) {
+			// Solved node (children released) or no valid moves
+			if (node.proof != 0 && node.disproof != 0) {
+				node.proof = node.or ? INFINITY : 0;
+				node.disproof = node.or ? 0 : INFINITY;
+			}
+			return;
+		}
+
+		int min = INFINITY;
+		int sum = 0;
+		for (Node child : node.children) {
+			int minValue = node.or ? child.proof : child.disproof;
+			int sumValue = node.or ? child.disproof : child.proof;
+			min = Math.min(min, minValue);
+			sum = Math.min(INFINITY, sum + sumValue);
+		}
+
+		if (node.or) {
+			node.proof = min;
+			node.disproof = sum;
+		}
+		else {
+			node.proof = sum;
+			node.disproof = min;
+		}
+	}
+
+	/**
+	 * Selects the child on the path to the most-proving node: the child with
+	 * the smallest proof number of an OR node, or the smallest disproof
+	 * number of an AND node.
+	 */
+	private Node selectChild(Node node) {
+		Node best = node.children[0];
+
+		for (Node child : node.children) {
+			if (node.or ? child.proof < best.proof : child.disproof < best.disproof) {
+				best = child;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Gets the winning move found by the last call to solve().
+	 * 
+	 * @return winning move, or null if the position was not proven a win or
+	 *         is won by passing
+	 */
+	public Move getBestMove() {
+		return mBestMove;
+	}
+
+	public int getNodes() {
+		return mNodes;
+	}
+}
@@ -0,0 +1,293 @@
+package com.github.littletzaar;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * A snapshot of an in-progress game, so it can be resumed after the app is
+ * left or its process is killed.
+ *
+ * The snapshot holds the game settings, the position, the move history and
+ * the index of each piece image (see GameViewGroup), and is a few hundred
+ * bytes for a typical game. It is built on the UI thread, which only copies
+ * the game state, and written to the app's files directory on a background
+ * thread. Reading and checking a saved game is also meant for a background
+ * thread, leaving only apply() for the UI thread.
+ *
+ * Layout (big-endian):
+ *   int    magic ("TZSG")
+ *   int    version
+ *   byte   player color
+ *   byte   difficulty
+ *   byte   start positions (GameBoard.POSITIONS_*)
+ *   long   seed of random start positions
+ *   bytes  position (PositionCodec)
+ *   bytes  move history (GameJournal.write())
+ *   bytes  piece image index of each legal space, column-major, -1 if empty
+ */
+public class SavedGame {
+	// File header constants
+	public static final int MAGIC = 0x545A5347;
+	public static final int VERSION = 2;
+
+	// Name of the saved game file in the app's files directory
+	public static final String FILE_NAME = "saved_game.bin";
+
+	// Writes and deletes saved game files in the order they were requested
+	private static final ExecutorService sWriter = Executors.newSingleThreadExecutor();
+
+	// Game state
+	private int mPlayerColor;
+	private int mDifficulty;
+	private int mStartPositions;
+	private long mStartSeed;
+	private byte[] mPosition;
+	private GameJournal mJournal;
+
+	// Piece image index of each space, -1 for empty and illegal spaces
+	private byte[][] mPieceIndex = new byte[GameBoard.COLS][GameBoard.ROWS];
+
+	private SavedGame() {
+	}
+
+	/**
+	 * Takes a snapshot of a game.
+	 *
+	 * @param game
+	 * @param pieceIndex piece image index of each space, -1 for empty spaces
+	 */
+	public SavedGame(TzaarGame game, byte[][] pieceIndex) {
+		mPlayerColor = game.getPlayerColor();
+		mDifficulty = game.getDifficulty();
+		mStartPositions = game.getStartPositions();
+		mStartSeed = game.getStartSeed();
+		mPosition = PositionCodec.encode(game);
+		mJournal = game.getCompleteJournal();
+
+		for (int col = 0; col < GameBoard.COLS; ++col) {
+			for (int row = 0; row < GameBoard.ROWS; ++row) {
+				byte piece = game.board.getPiece(col, row);
+				mPieceIndex[col][row] = (piece == GameBoard.NULL || piece == GameBoard.NONE) ? -1 : pieceIndex[col][row];
+			}
+		}
+	}
+
+	/**
+	 * Gets the saved game file.
+	 *
+	 * @param context
+	 * @return file, which may not exist
+	 */
+	public static File getFile(Context context) {
+		return new File(context.getFilesDir(), FILE_NAME);
+	}
+
+	/**
+	 * Determines if there is a saved game to resume.
+	 *
+	 * @param context
+	 * @return true if the saved game file exists
+	 */
+	public static boolean exists(Context context) {
+		return getFile(context).exists();
+	}
+
+	/**
+	 * Serializes the snapshot.
+	 *
+	 * @return bytes
+	 */
+	public byte[] toBytes() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeByte(mPlayerColor);
+			out.writeByte(mDifficulty);
+			out.writeByte(mStartPositions);
+			out.writeLong(mStartSeed);
+			out.write(mPosition);
+			mJournal.write(out);
+
+			for (int col = 0; col < GameBoard.COLS; ++col) {
+				for (int row = 0; row < GameBoard.ROWS; ++row) {
+					if (GameBoard.isLegalSpace(col, row)) {
+						out.writeByte(mPieceIndex[col][row]);
+					}
+				}
+			}
+		}
+		catch (IOException ioe) {
+			// Not thrown by in-memory streams
+			throw new RuntimeException(ioe);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deserializes and checks a snapshot.
+	 *
+	 * @param data
+	 * @return saved game
+	 * @throws IOException if the data is not a valid saved game
+	 */
+	public static SavedGame fromBytes(byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			throw new IOException("Invalid saved game header");
+		}
+
+		SavedGame saved = new SavedGame();
+		saved.mPlayerColor = in.readByte();
+		saved.mDifficulty = in.readByte();
+		saved.mStartPositions = in.readByte();
+		saved.mStartSeed = in.readLong();
+		saved.mPosition = new byte[PositionCodec.SIZE];
+		in.readFully(saved.mPosition);
+		saved.mJournal = GameJournal.read(in);
+
+		for (int col = 0; col < GameBoard.COLS; ++col) {
+			for (int row = 0; row < GameBoard.ROWS; ++row) {
+				saved.mPieceIndex[col][row] = GameBoard.isLegalSpace(col, row) ? in.readByte() : -1;
+			}
+		}
+
+		// Check that the state makes up a consistent game
+		saved.apply(new TzaarGame(null, GameBoard.COLOR_WHITE, TzaarGame.DIFFICULTY_NONE, GameBoard.POSITIONS_FIXED));
+
+		return saved;
+	}
+
+	/**
+	 * Restores the snapshot into a game. The game keeps its context and board
+	 * geometry, so it can be the game already shown by the view.
+	 *
+	 * @param game
+	 * @throws IOException if the snapshot is not a consistent game
+	 */
+	public void apply(TzaarGame game) throws IOException {
+		if ((mPlayerColor != GameBoard.COLOR_WHITE && mPlayerColor != GameBoard.COLOR_BLACK)
+				|| mDifficulty < TzaarGame.DIFFICULTY_NONE || mDifficulty > TzaarGame.DIFFICULTY_HARD
+				|| (mStartPositions != GameBoard.POSITIONS_FIXED && mStartPositions != GameBoard.POSITIONS_RANDOM)) {
+			throw new IOException("Invalid saved game settings");
+		}
+
+		try {
+			PositionCodec.decode(mPosition, 0, game);
+			game.setJournal(new GameJournal(mJournal));
+		}
+		catch (RuntimeException re) {
+			throw new IOException("Corrupt saved game: " + re.getMessage());
+		}
+
+		for (int col = 0; col < GameBoard.COLS; ++col) {
+			for (int row = 0; row < GameBoard.ROWS; ++row) {
+				byte piece = game.board.getPiece(col, row);
+				boolean occupied = (piece != GameBoard.NULL && piece != GameBoard.NONE);
+				if (occupied != (mPieceIndex[col][row] >= 0)) {
+					throw new IOException("Saved piece images do not match the board");
+				}
+			}
+		}
+
+		game.setPlayerColor(mPlayerColor);
+		game.setDifficulty(mDifficulty);
+		game.setStartPositions(mStartPositions);
+		game.setStartSeed(mStartSeed);
+	}
+
+	/**
+	 * Writes the snapshot to a file, replacing it atomically.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(toBytes());
+			out.getFD().sync();
+		}
+		finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			throw new IOException("Failed to replace " + file);
+		}
+	}
+
+	/**
+	 * Writes the snapshot to the saved game file on a background thread.
+	 *
+	 * @param context
+	 */
+	public void writeAsync(Context context) {
+		final File file = getFile(context);
+		sWriter.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					write(file);
+				}
+				catch (IOException ioe) {
+					Log.w("SavedGame.writeAsync", "Failed to save game: " + ioe.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Deletes the saved game file on a background thread, after any pending
+	 * writes.
+	 *
+	 * @param context
+	 */
+	public static void deleteAsync(Context context) {
+		final File file = getFile(context);
+		sWriter.execute(new Runnable() {
+			@Override
+			public void run() {
+				file.delete();
+			}
+		});
+	}
+
+	/**
+	 * Reads the saved game file. Call from a background thread.
+	 *
+	 * @param file
+	 * @return saved game
+	 * @throws IOException if the file is missing or not a valid saved game
+	 */
+	public static SavedGame read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			byte[] data = new byte[(int) file.length()];
+			in.readFully(data);
+			return fromBytes(data);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	public byte getPieceIndex(int col, int row) {
+		return mPieceIndex[col][row];
+	}
+}
@@ -0,0 +1,177 @@
+package com.github.littletzaar;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.content.Context;
+
+/**
+ * The state of an AI search that was interrupted before it chose a move, so
+ * the search can carry on from where it stopped instead of starting over.
+ *
+ * The state is the engine's own data: the transposition table entries of
+ * the alpha-beta search (see TranspositionTable.toBytes()) or the most
+ * visited part of the Monte Carlo search tree (see
+ * MonteCarloTreeSearch.checkpoint()), at most MAX_BYTES either way. It is
+ * only used again for the same position and engine, and the time and
+ * playouts already spent are taken off the budget of the resumed search.
+ *
+ * File layout (big-endian):
+ *   int   magic ("TZSC")
+ *   int   version
+ *   byte  engine (ENGINE_*)
+ *   long  position hash (TzaarGame.getHash())
+ *   long  search time spent (ms)
+ *   int   playouts spent (Monte Carlo only)
+ *   int   engine data size
+ *   bytes engine data
+ */
+public class SearchCheckpoint {
+	// File header constants
+	public static final int MAGIC = 0x545A5343;
+	public static final int VERSION = 1;
+
+	// Name of the checkpoint file in the app's files directory
+	public static final String FILE_NAME = "search_checkpoint.bin";
+
+	// Engine constants
+	public static final int ENGINE_ALPHA_BETA = 1;
+	public static final int ENGINE_MCTS = 2;
+
+	// Maximum size of the engine data (bytes)
+	public static final int MAX_BYTES = 1 << 20;
+
+	private int mEngine;
+	private long mHash;
+	private long mElapsedMillis;
+	private int mPlayouts;
+	private byte[] mData;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param engine ENGINE_*
+	 * @param hash hash of the searched position
+	 * @param elapsedMillis search time spent (ms)
+	 * @param playouts playouts spent
+	 * @param data engine data
+	 */
+	public SearchCheckpoint(int engine, long hash, long elapsedMillis, int playouts, byte[] data) {
+		if (data.length > MAX_BYTES) {
+			throw new IllegalArgumentException("Checkpoint too large (" + data.length + " bytes)");
+		}
+
+		mEngine = engine;
+		mHash = hash;
+		mElapsedMillis = elapsedMillis;
+		mPlayouts = playouts;
+		mData = data;
+	}
+
+	/**
+	 * Gets the checkpoint file.
+	 *
+	 * @param context
+	 * @return file, which may not exist
+	 */
+	public static File getFile(Context context) {
+		return new File(context.getFilesDir(), FILE_NAME);
+	}
+
+	/**
+	 * Determines if this checkpoint belongs to a search.
+	 *
+	 * @param engine ENGINE_*
+	 * @param hash hash of the position to search
+	 * @return true if the search can resume from this checkpoint
+	 */
+	public boolean matches(int engine, long hash) {
+		return mEngine == engine && mHash == hash;
+	}
+
+	/**
+	 * Writes the checkpoint to a file, replacing it atomically.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeByte(mEngine);
+			out.writeLong(mHash);
+			out.writeLong(mElapsedMillis);
+			out.writeInt(mPlayouts);
+			out.writeInt(mData.length);
+			out.write(mData);
+		}
+		finally {
+			out.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			throw new IOException("Failed to replace " + file);
+		}
+	}
+
+	/**
+	 * Reads a checkpoint file.
+	 *
+	 * @param file
+	 * @return checkpoint
+	 * @throws IOException if the file is missing or not a valid checkpoint
+	 */
+	public static SearchCheckpoint read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Invalid search checkpoint header");
+			}
+
+			int engine = in.readByte();
+			long hash = in.readLong();
+			long elapsedMillis = in.readLong();
+			int playouts = in.readInt();
+			int size = in.readInt();
+			if (size < 0 || size > MAX_BYTES) {
+				throw new IOException("Invalid search checkpoint size " + size);
+			}
+
+			byte[] data = new byte[size];
+			in.readFully(data);
+			return new SearchCheckpoint(engine, hash, elapsedMillis, playouts, data);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Opens the engine data for reading.
+	 *
+	 * @return stream
+	 */
+	public DataInputStream getData() {
+		return new DataInputStream(new ByteArrayInputStream(mData));
+	}
+
+	public int getSize() {
+		return mData.length;
+	}
+
+	public long getElapsedMillis() {
+		return mElapsedMillis;
+	}
+
+	public int getPlayouts() {
+		return mPlayouts;
+	}
+}
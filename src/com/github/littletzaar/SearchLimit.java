@@ -0,0 +1,39 @@
+package com.github.littletzaar;
+
+/**
+ * The limits that can end a search, as reported by the getStopReason()
+ * methods of the searches and of TzaarGame.
+ */
+public class SearchLimit {
+	// The move was found without a search (book, tablebase, solver, a
+	// game-ending capture or an unsearched move)
+	public static final int NONE        = 0;
+
+	// A budget of the difficulty profile ran out (the memory budget caps the
+	// search structures instead of stopping the search)
+	public static final int PLAYOUTS    = 1;
+	public static final int NODES       = 2;
+	public static final int TIME        = 3;
+
+	// The search finished: the depth limit was reached or the result is
+	// proven
+	public static final int DEPTH       = 4;
+	public static final int SOLVED      = 5;
+
+	// The search thread was interrupted or the search was stopped
+	public static final int INTERRUPTED = 6;
+
+	private static final String[] NAMES = {
+		"none", "playouts", "nodes", "time", "depth", "solved", "interrupted"
+	};
+
+	/**
+	 * Gets the name of a limit for reports.
+	 * 
+	 * @param limit
+	 * @return name
+	 */
+	public static String getName(int limit) {
+		return (limit >= 0 && limit < NAMES.length) ? NAMES[limit] : "unknown";
+	}
+}
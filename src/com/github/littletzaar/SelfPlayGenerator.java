@@ -0,0 +1,260 @@
+package com.github.littletzaar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates self-play training data: positions with the visit counts the
+ * Monte Carlo search gave their moves and the final result of the game.
+ *
+ * Worker threads play games and serialize each finished game. The games go
+ * through a bounded queue to a single writer thread, which appends them to
+ * compressed shards (see SelfPlayWriter). Serializing on the workers and
+ * compressing at the fastest level keeps the writer far from being the
+ * bottleneck. The bounded queue blocks the workers if the writer falls
+ * behind, so memory stays flat.
+ *
+ * Game i starts from the random start positions seeded by i. Its first
+ * SAMPLED_PLIES moves are sampled in proportion to their visits, so the
+ * games differ, and the most visited move is played after that. A rerun in
+ * the same directory skips the games of complete shards. Run it with:
+ *
+ *   SelfPlayGenerator <output dir> <games> [playouts] [threads] [shard MB]
+ */
+public class SelfPlayGenerator {
+	// Defaults for the command line arguments
+	public static final int DEFAULT_PLAYOUTS = 1000;
+	public static final int DEFAULT_SHARD_MB = 8;
+
+	// Number of opening moves sampled by visits instead of played greedily
+	public static final int SAMPLED_PLIES = 8;
+
+	// Number of games between progress reports
+	private static final int REPORT_INTERVAL = 100;
+
+	// Marks the end of the queue for the writer
+	private static final byte[] END = new byte[0];
+
+	private final SelfPlayWriter mWriter;
+	private final int mPlayouts;
+
+	// Serialized games waiting for the writer
+	private final BlockingQueue<byte[]> mQueue;
+
+	// Progress counters
+	private final AtomicInteger mGamesDone = new AtomicInteger();
+	private long mPositions = 0;
+	private long mWriterNanos = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param writer shard writer
+	 * @param playouts search playouts per move
+	 * @param queueSize maximum number of games waiting for the writer
+	 */
+	public SelfPlayGenerator(SelfPlayWriter writer, int playouts, int queueSize) {
+		mWriter = writer;
+		mPlayouts = playouts;
+		mQueue = new ArrayBlockingQueue<byte[]>(queueSize);
+	}
+
+	/**
+	 * Plays and serializes one game.
+	 *
+	 * @param index game index, also the seed of the game
+	 * @return serialized game
+	 */
+	public byte[] playGame(int index) {
+		Random rand = new Random(index);
+		TzaarGame game = new TzaarGame(null, GameBoard.COLOR_WHITE, TzaarGame.DIFFICULTY_NONE, GameBoard.POSITIONS_RANDOM);
+		game.randomizeStartPositions(index);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+		DataOutputStream out = new DataOutputStream(bytes);
+		int positions = 0;
+
+		try {
+			ArrayList<Move> moves = new ArrayList<Move>();
+			while (game.getWinner() == GameBoard.COLOR_UNSET) {
+				game.getValidMoves(game.whoseTurn(), game.getMoveNumber(), moves);
+				if (moves.isEmpty()) {
+					break;
+				}
+
+				MonteCarloTreeSearch search = new MonteCarloTreeSearch(game);
+				Move move = search.findMove(mPlayouts, Long.MAX_VALUE / 2);
+
+				int totalVisits = 0;
+				for (int i = 0; i < search.getRootMoveCount(); ++i) {
+					totalVisits += search.getRootVisits(i);
+				}
+
+				out.write(PositionCodec.encode(game));
+				if (totalVisits == 0) {
+					// The search played a decisive move without sampling
+					out.writeShort(1);
+					out.writeShort(move.pack());
+					out.writeInt(1);
+				}
+				else {
+					out.writeShort(search.getRootMoveCount());
+					for (int i = 0; i < search.getRootMoveCount(); ++i) {
+						out.writeShort(search.getRootMove(i).pack());
+						out.writeInt(search.getRootVisits(i));
+					}
+
+					if (game.getJournal().size() < SAMPLED_PLIES) {
+						move = sampleMove(search, totalVisits, rand);
+					}
+				}
+				++positions;
+
+				game.move(move);
+			}
+		}
+		catch (IOException ioe) {
+			// Not thrown by in-memory streams
+			throw new RuntimeException(ioe);
+		}
+
+		int winner = game.getWinner();
+		if (winner == GameBoard.COLOR_UNSET) {
+			// The player to move has no valid moves
+			winner = game.oppositeColor(game.whoseTurn());
+		}
+
+		// Prepend the game header now that the result is known
+		byte[] body = bytes.toByteArray();
+		byte[] data = new byte[7 + body.length];
+		ByteBuffer.wrap(data).putInt(index).put((byte) winner).putShort((short) positions).put(body);
+		return data;
+	}
+
+	/**
+	 * Picks a root move of a search in proportion to its visits.
+	 */
+	private static Move sampleMove(MonteCarloTreeSearch search, int totalVisits, Random rand) {
+		int pick = rand.nextInt(totalVisits);
+		for (int i = 0; i < search.getRootMoveCount(); ++i) {
+			pick -= search.getRootVisits(i);
+			if (pick < 0) {
+				return search.getRootMove(i);
+			}
+		}
+		return search.getRootMove(search.getRootMoveCount() - 1);
+	}
+
+	/**
+	 * Plays the games that are not in complete shards yet.
+	 *
+	 * @param games number of games (indexes 0 to games - 1)
+	 * @param threads number of worker threads
+	 * @throws IOException if writing fails
+	 * @throws InterruptedException
+	 */
+	public void run(final int games, int threads) throws IOException, InterruptedException {
+		final BitSet completed = mWriter.getCompletedGames();
+		final AtomicInteger nextGame = new AtomicInteger();
+		int remaining = games - completed.get(0, games).cardinality();
+		System.out.println(String.format("%d of %d games to play", remaining, games));
+
+		final Thread[] workers = new Thread[threads];
+		for (int i = 0; i < workers.length; ++i) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						int index;
+						while ((index = nextGame.getAndIncrement()) < games) {
+							if (!completed.get(index)) {
+								mQueue.put(playGame(index));
+							}
+						}
+					}
+					catch (InterruptedException ie) {
+						// Stop playing
+					}
+				}
+			}, "SelfPlay-" + i);
+			workers[i].start();
+		}
+
+		// Stop the writer once every worker has finished
+		Thread closer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				boolean interrupted = false;
+				for (Thread worker : workers) {
+					try {
+						worker.join();
+					}
+					catch (InterruptedException ie) {
+						interrupted = true;
+					}
+				}
+				try {
+					mQueue.put(END);
+				}
+				catch (InterruptedException ie) {
+					interrupted = true;
+				}
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "SelfPlay-closer");
+		closer.start();
+
+		long startTime = System.currentTimeMillis();
+		while (true) {
+			byte[] game = mQueue.take();
+			if (game == END) {
+				break;
+			}
+
+			long writeStart = System.nanoTime();
+			mWriter.write(game);
+			mWriterNanos += System.nanoTime() - writeStart;
+			mPositions += ByteBuffer.wrap(game).getShort(5) & 0xFFFF;
+
+			if (mGamesDone.incrementAndGet() % REPORT_INTERVAL == 0) {
+				report(startTime);
+			}
+		}
+		mWriter.close();
+		report(startTime);
+	}
+
+	private void report(long startTime) {
+		long millis = Math.max(System.currentTimeMillis() - startTime, 1);
+		System.out.println(String.format("%d games, %d positions, %d shards, %.1f games/s, writer busy %.1f%%",
+				mGamesDone.get(), mPositions, mWriter.getShardCount(), mGamesDone.get() * 1000.0 / millis,
+				mWriterNanos / 10000.0 / millis));
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.err.println("Usage: SelfPlayGenerator <output dir> <games> [playouts] [threads] [shard MB]");
+			return;
+		}
+
+		int games = Integer.parseInt(args[1]);
+		int playouts = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PLAYOUTS;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		int shardMb = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_SHARD_MB;
+
+		SelfPlayWriter writer = new SelfPlayWriter(new File(args[0]), shardMb * (1L << 20));
+		SelfPlayGenerator generator = new SelfPlayGenerator(writer, playouts, threads * 2);
+		generator.run(games, threads);
+	}
+}
@@ -0,0 +1,101 @@
+package com.github.littletzaar;
+
+/**
+ * One position of a self-play game as stored in the shards written by
+ * SelfPlayGenerator: the position, the visit counts the search gave its
+ * moves, and the result of the game. Positions are reused by
+ * SelfPlayReader, so the move arrays grow as needed and are never shrunk.
+ */
+public class SelfPlayPosition {
+	// Game the position belongs to and the color that won it
+	private int mGameIndex;
+	private int mWinner;
+
+	// Position (PositionCodec)
+	private final byte[] mPosition = new byte[PositionCodec.SIZE];
+
+	// Moves (packed) and their visit counts
+	private int mMoveCount = 0;
+	private short[] mMoves = new short[64];
+	private int[] mVisits = new int[64];
+
+	/**
+	 * Sets the game of the position.
+	 * 
+	 * @param gameIndex
+	 * @param winner
+	 */
+	void setGame(int gameIndex, int winner) {
+		mGameIndex = gameIndex;
+		mWinner = winner;
+	}
+
+	/**
+	 * Clears the moves.
+	 */
+	void clearMoves() {
+		mMoveCount = 0;
+	}
+
+	/**
+	 * Appends a move.
+	 * 
+	 * @param packedMove move packed by Move.pack()
+	 * @param visits
+	 */
+	void addMove(int packedMove, int visits) {
+		if (mMoveCount == mMoves.length) {
+			short[] moves = new short[mMoves.length * 2];
+			int[] allVisits = new int[mVisits.length * 2];
+			System.arraycopy(mMoves, 0, moves, 0, mMoveCount);
+			System.arraycopy(mVisits, 0, allVisits, 0, mMoveCount);
+			mMoves = moves;
+			mVisits = allVisits;
+		}
+		mMoves[mMoveCount] = (short) packedMove;
+		mVisits[mMoveCount] = visits;
+		++mMoveCount;
+	}
+
+	/**
+	 * Recreates the position.
+	 * 
+	 * @param game receives the position
+	 */
+	public void decode(TzaarGame game) {
+		PositionCodec.decode(mPosition, 0, game);
+	}
+
+	/**
+	 * Gets the result for the player to move.
+	 * 
+	 * @return 1 if the player to move went on to win, otherwise 0
+	 */
+	public int getResult() {
+		return (PositionCodec.whoseTurn(mPosition, 0) == mWinner) ? 1 : 0;
+	}
+
+	public int getGameIndex() {
+		return mGameIndex;
+	}
+
+	public int getWinner() {
+		return mWinner;
+	}
+
+	public byte[] getPosition() {
+		return mPosition;
+	}
+
+	public int getMoveCount() {
+		return mMoveCount;
+	}
+
+	public int getMove(int index) {
+		return mMoves[index] & 0xFFFF;
+	}
+
+	public int getVisits(int index) {
+		return mVisits[index];
+	}
+}
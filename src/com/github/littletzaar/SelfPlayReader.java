@@ -0,0 +1,103 @@
+package com.github.littletzaar;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the positions of a self-play shard written by SelfPlayWriter one at a
+ * time, reusing a single position object.
+ */
+public class SelfPlayReader {
+	private DataInputStream mIn;
+
+	// Game being read and its remaining positions
+	private int mGameIndex;
+	private int mWinner;
+	private int mRemaining = 0;
+
+	/**
+	 * Constructor. Reads and checks the shard header.
+	 * 
+	 * @param file shard
+	 * @throws IOException if the file is not a self-play shard
+	 */
+	public SelfPlayReader(File file) throws IOException {
+		mIn = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 1 << 16)));
+
+		if (mIn.readInt() != SelfPlayWriter.MAGIC || mIn.readInt() != SelfPlayWriter.VERSION) {
+			mIn.close();
+			throw new IOException("Invalid self-play shard header");
+		}
+	}
+
+	/**
+	 * Lists the complete shards of a directory.
+	 * 
+	 * @param dir
+	 * @return shards in order
+	 */
+	public static File[] listShards(final File dir) {
+		File[] shards = dir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File parent, String name) {
+				return name.startsWith("shard-") && name.endsWith(SelfPlayWriter.SHARD_SUFFIX)
+						&& new File(parent, name.substring(0, 11) + SelfPlayWriter.INDEX_SUFFIX).exists();
+			}
+		});
+		if (shards == null) {
+			return new File[0];
+		}
+
+		Arrays.sort(shards);
+		return shards;
+	}
+
+	/**
+	 * Reads the next position.
+	 * 
+	 * @param position receives the position
+	 * @return false at the end of the shard
+	 * @throws IOException if the shard is truncated or corrupt
+	 */
+	public boolean read(SelfPlayPosition position) throws IOException {
+		try {
+			while (mRemaining == 0) {
+				try {
+					mGameIndex = mIn.readInt();
+				}
+				catch (EOFException eofe) {
+					return false;
+				}
+				mWinner = mIn.readByte();
+				mRemaining = mIn.readUnsignedShort();
+			}
+
+			position.setGame(mGameIndex, mWinner);
+			mIn.readFully(position.getPosition());
+
+			position.clearMoves();
+			int moves = mIn.readUnsignedShort();
+			for (int i = 0; i < moves; ++i) {
+				int move = mIn.readUnsignedShort();
+				position.addMove(move, mIn.readInt());
+			}
+		}
+		catch (EOFException eofe) {
+			throw new IOException("Truncated self-play shard");
+		}
+
+		--mRemaining;
+		return true;
+	}
+
+	public void close() throws IOException {
+		mIn.close();
+	}
+}
@@ -0,0 +1,200 @@
+package com.github.littletzaar;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes self-play games to a directory of size-rotated, gzip-compressed
+ * shards.
+ * 
+ * A shard is written as shard-NNNNN.gz.tmp and renamed when it is full.
+ * The indexes of its games are then written to shard-NNNNN.idx. A shard
+ * counts as complete only once its index exists. When writing resumes in a
+ * directory, incomplete shards are deleted and the games of the complete
+ * ones are reported by getCompletedGames(), so they are not played again.
+ * 
+ * Shard layout (inside the gzip stream, big-endian):
+ *   int  magic ("TZSP")
+ *   int  version
+ *   games, as serialized by SelfPlayGenerator:
+ *     int    game index
+ *     byte   winner color
+ *     short  number of positions
+ *     positions:
+ *       bytes  position (PositionCodec)
+ *       short  number of moves
+ *       moves, each a short packed move and an int visit count
+ * 
+ * Index layout: int number of games, then an int index per game.
+ */
+public class SelfPlayWriter {
+	// Shard header constants
+	public static final int MAGIC = 0x545A5350;
+	public static final int VERSION = 2;
+
+	// Shard file name suffixes
+	public static final String SHARD_SUFFIX = ".gz";
+	public static final String INDEX_SUFFIX = ".idx";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final File mDir;
+	private final long mShardBytes;
+
+	// Number of the next shard
+	private int mNextShard = 0;
+
+	// Current shard, or null if none is open
+	private FileOutputStream mFile = null;
+	private DataOutputStream mOut = null;
+	private int[] mGames = new int[256];
+	private int mGameCount = 0;
+
+	// Games in complete shards
+	private final BitSet mCompleted = new BitSet();
+
+	/**
+	 * Constructor. Removes incomplete shards of an interrupted run.
+	 * 
+	 * @param dir output directory (created if needed)
+	 * @param shardBytes compressed size at which a shard is closed
+	 * @throws IOException
+	 */
+	public SelfPlayWriter(File dir, long shardBytes) throws IOException {
+		mDir = dir;
+		mShardBytes = shardBytes;
+
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Failed to create " + dir);
+		}
+
+		File[] files = dir.listFiles();
+		for (int i = 0; i < files.length; ++i) {
+			String name = files[i].getName();
+			if (!name.startsWith("shard-")) {
+				continue;
+			}
+
+			int number = Integer.parseInt(name.substring(6, 11));
+			File index = new File(dir, name.substring(0, 11) + INDEX_SUFFIX);
+			if (name.endsWith(SHARD_SUFFIX) && index.exists()) {
+				readIndex(index);
+				mNextShard = Math.max(mNextShard, number + 1);
+			}
+			else if (!name.endsWith(INDEX_SUFFIX)) {
+				files[i].delete();
+			}
+		}
+	}
+
+	private void readIndex(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			int count = in.readInt();
+			for (int i = 0; i < count; ++i) {
+				mCompleted.set(in.readInt());
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes a serialized game, closing the shard once it is full.
+	 * 
+	 * @param game serialized game, starting with its index
+	 * @throws IOException
+	 */
+	public void write(byte[] game) throws IOException {
+		if (mOut == null) {
+			open();
+		}
+
+		mOut.write(game);
+		if (mGameCount == mGames.length) {
+			int[] games = new int[mGames.length * 2];
+			System.arraycopy(mGames, 0, games, 0, mGameCount);
+			mGames = games;
+		}
+		mGames[mGameCount++] = ByteBuffer.wrap(game).getInt(0);
+
+		if (mFile.getChannel().size() >= mShardBytes) {
+			close();
+		}
+	}
+
+	private void open() throws IOException {
+		mFile = new FileOutputStream(new File(mDir, getShardName(mNextShard) + SHARD_SUFFIX + TEMP_SUFFIX));
+		mOut = new DataOutputStream(new GZIPOutputStream(mFile, 1 << 16) {
+			{
+				// Favor speed, so the writer keeps up with all cores
+				def.setLevel(Deflater.BEST_SPEED);
+			}
+		});
+		mOut.writeInt(MAGIC);
+		mOut.writeInt(VERSION);
+		mGameCount = 0;
+	}
+
+	/**
+	 * Completes the current shard, if any.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (mOut == null) {
+			return;
+		}
+
+		mOut.close();
+		mOut = null;
+		mFile = null;
+
+		String name = getShardName(mNextShard++);
+		File temp = new File(mDir, name + SHARD_SUFFIX + TEMP_SUFFIX);
+		if (!temp.renameTo(new File(mDir, name + SHARD_SUFFIX))) {
+			throw new IOException("Failed to rename " + temp);
+		}
+
+		File index = new File(mDir, name + INDEX_SUFFIX + TEMP_SUFFIX);
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(index));
+		try {
+			out.writeInt(mGameCount);
+			for (int i = 0; i < mGameCount; ++i) {
+				out.writeInt(mGames[i]);
+				mCompleted.set(mGames[i]);
+			}
+		}
+		finally {
+			out.close();
+		}
+		if (!index.renameTo(new File(mDir, name + INDEX_SUFFIX))) {
+			throw new IOException("Failed to rename " + index);
+		}
+	}
+
+	private static String getShardName(int number) {
+		return String.format("shard-%05d", number);
+	}
+
+	/**
+	 * Gets the games in complete shards.
+	 * 
+	 * @return game indexes
+	 */
+	public BitSet getCompletedGames() {
+		return mCompleted;
+	}
+
+	public int getShardCount() {
+		return mNextShard;
+	}
+}
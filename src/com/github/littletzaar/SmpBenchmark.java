@@ -0,0 +1,130 @@
+package com.github.littletzaar;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures how the Lazy SMP search scales with the number of threads.
+ * 
+ * A fixed set of positions is searched to a fixed depth with 1, 2, 4 and 8
+ * threads. For each thread count the average time to reach the depth and the
+ * total nodes per second over all threads are reported. A first, untimed
+ * pass at every thread count lets the JIT compile the search, and the timed
+ * passes are repeated to average out noise. Run it with:
+ * 
+ *   SmpBenchmark [depth] [positions] [repetitions]
+ */
+public class SmpBenchmark {
+	// Thread counts to measure
+	public static final int[] THREADS = { 1, 2, 4, 8 };
+	
+	// Defaults for the command line arguments
+	public static final int DEFAULT_DEPTH = 6;
+	public static final int DEFAULT_POSITIONS = 8;
+	public static final int DEFAULT_REPETITIONS = 3;
+	
+	// Number of random moves played from the fixed start to create a position
+	private static final int OPENING_MOVES = 6;
+	
+	/**
+	 * Builds the benchmark positions by playing random moves from the fixed
+	 * start layout with a fixed seed, so every run searches the same set.
+	 * 
+	 * @param count number of positions
+	 * @return positions
+	 */
+	public static ArrayList<TzaarGame> createPositions(int count) {
+		ArrayList<TzaarGame> positions = new ArrayList<TzaarGame>();
+		ArrayList<Move> moves = new ArrayList<Move>();
+		Random rand = new Random(count);
+		
+		while (positions.size() < count) {
+			TzaarGame game = new TzaarGame(null, GameBoard.COLOR_WHITE, TzaarGame.DIFFICULTY_HARD, GameBoard.POSITIONS_FIXED);
+			for (int i = 0; i < OPENING_MOVES + positions.size() % 4 && !game.isWinningState(GameBoard.COLOR_UNSET); ++i) {
+				game.getValidMoves(game.whoseTurn(), game.getMoveNumber(), moves);
+				if (moves.isEmpty()) {
+					break;
+				}
+				game.move(moves.get(rand.nextInt(moves.size())));
+			}
+			
+			if (!game.isWinningState(GameBoard.COLOR_UNSET)) {
+				positions.add(game);
+			}
+		}
+		
+		return positions;
+	}
+	
+	/**
+	 * Searches every position once with fresh transposition tables.
+	 * 
+	 * @param positions
+	 * @param threads number of search threads
+	 * @param depth search depth (moves)
+	 * @param totals receives the time (ns) and the number of nodes, added to
+	 *        elements 0 and 1
+	 */
+	private static void searchAll(ArrayList<TzaarGame> positions, int threads, int depth, long[] totals) {
+		for (TzaarGame position : positions) {
+			TranspositionTable table = new TranspositionTable(TranspositionTable.DEFAULT_ENTRIES);
+			LazySmpSearch search = new LazySmpSearch(position, threads, table);
+			
+			long startTime = System.nanoTime();
+			search.findMove(Long.MAX_VALUE / 2, depth);
+			totals[0] += System.nanoTime() - startTime;
+			totals[1] += search.getNodes();
+		}
+	}
+	
+	/**
+	 * Runs the benchmark and returns the report.
+	 * 
+	 * @param depth search depth (moves)
+	 * @param positionCount number of positions to search
+	 * @param repetitions number of timed passes at each thread count
+	 * @return one line per thread count
+	 */
+	public static String run(int depth, int positionCount, int repetitions) {
+		ArrayList<TzaarGame> positions = createPositions(positionCount);
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-8s %16s %14s %10s%n", "threads", "time-to-depth", "nodes/s", "speedup"));
+		
+		// Warm up, so the baseline is not timed while the search is still
+		// being compiled
+		for (int threads : THREADS) {
+			searchAll(positions, threads, depth, new long[2]);
+		}
+		
+		double baseMillis = 0;
+		for (int threads : THREADS) {
+			long[] totals = new long[2];
+			for (int i = 0; i < repetitions; ++i) {
+				searchAll(positions, threads, depth, totals);
+			}
+			long totalMillis = totals[0] / 1000000;
+			long totalNodes = totals[1];
+			
+			double avgMillis = (double) totalMillis / (positions.size() * repetitions);
+			if (threads == THREADS[0]) {
+				baseMillis = avgMillis;
+			}
+			long nps = totalMillis > 0 ? totalNodes * 1000 / totalMillis : 0;
+			
+			report.append(String.format("%-8d %13.1f ms %14d %9.2fx%n", 
+					threads, avgMillis, nps, avgMillis > 0 ? baseMillis / avgMillis : 0));
+		}
+		
+		return report.toString();
+	}
+	
+	public static void main(String[] args) {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DEPTH;
+		int positions = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_POSITIONS;
+		int repetitions = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_REPETITIONS;
+		
+		System.out.println(String.format("Lazy SMP benchmark: depth %d, %d positions, %d repetitions, %d cores", 
+				depth, positions, repetitions, Runtime.getRuntime().availableProcessors()));
+		System.out.print(run(depth, positions, repetitions));
+	}
+}
@@ -0,0 +1,198 @@
+package com.github.littletzaar;
+
+/**
+ * Symmetries of the hexagonal board.
+ * 
+ * The board (a hexagon of side 5 without its center) is unchanged by the six
+ * rotations by 60 degrees about the center, each optionally followed by a
+ * mirror, so every position has up to 12 equivalent forms. The canonical
+ * form of a position is the one with the lowest board hash. Storing results
+ * under the canonical hash lets symmetric positions share one entry.
+ * 
+ * The permutation of the board spaces for each symmetry is computed once in
+ * cube coordinates. Spaces are indexed as col * ROWS + row, the same as the
+ * Zobrist keys and Move.pack().
+ */
+public final class Symmetry {
+	// Number of symmetries (symmetry 0 is the identity)
+	public static final int COUNT = 12;
+	public static final int IDENTITY = 0;
+
+	// Number of board spaces
+	private static final int SPACES = GameBoard.COLS * GameBoard.ROWS;
+
+	// Board coordinates of the center space
+	private static final int CENTER_COL = GameBoard.COLS / 2;
+	private static final int CENTER_ROW = GameBoard.ROWS / 2;
+
+	// Board radius (spaces from the center to the edge)
+	private static final int RADIUS = 4;
+
+	// Space permutations, sSpaces[symmetry][space], -1 for spaces off the board
+	private static final int[][] sSpaces = new int[COUNT][SPACES];
+
+	// Inverse of each symmetry
+	private static final int[] sInverse = new int[COUNT];
+
+	static {
+		for (int s = 0; s < COUNT; ++s) {
+			for (int space = 0; space < SPACES; ++space) {
+				sSpaces[s][space] = transformSpace(space / GameBoard.ROWS, space % GameBoard.ROWS, s);
+			}
+		}
+
+		// The inverse maps every space back to itself
+		for (int s = 0; s < COUNT; ++s) {
+			for (int t = 0; t < COUNT; ++t) {
+				boolean inverse = true;
+				for (int space = 0; space < SPACES && inverse; ++space) {
+					int image = sSpaces[s][space];
+					inverse = (image < 0) || sSpaces[t][image] == space;
+				}
+				if (inverse) {
+					sInverse[s] = t;
+					break;
+				}
+			}
+		}
+	}
+
+	private Symmetry() {
+	}
+
+	/**
+	 * Applies a symmetry to a space. Columns are offset so that odd columns
+	 * are shifted half a space down (see the directions in TzaarGame).
+	 * 
+	 * @param col
+	 * @param row
+	 * @param symmetry
+	 * @return transformed space index, or -1 if the space is off the board
+	 */
+	private static int transformSpace(int col, int row, int symmetry) {
+		// Cube coordinates relative to the center
+		int x = col - CENTER_COL;
+		int z = (row - (col - (col & 1)) / 2) - (CENTER_ROW - (CENTER_COL - (CENTER_COL & 1)) / 2);
+		int y = -x - z;
+
+		if (Math.max(Math.abs(x), Math.max(Math.abs(y), Math.abs(z))) > RADIUS || (x == 0 && z == 0)) {
+			return -1;
+		}
+
+		// Mirror, then rotate by 60 degrees (x, y, z) -> (-z, -x, -y)
+		if (symmetry >= COUNT / 2) {
+			int t = y;
+			y = z;
+			z = t;
+		}
+		for (int i = 0; i < symmetry % (COUNT / 2); ++i) {
+			int t = x;
+			x = -z;
+			z = -y;
+			y = -t;
+		}
+
+		int newCol = x + CENTER_COL;
+		int newRow = z + (CENTER_ROW - (CENTER_COL - (CENTER_COL & 1)) / 2) + (newCol - (newCol & 1)) / 2;
+		return newCol * GameBoard.ROWS + newRow;
+	}
+
+	/**
+	 * Applies a symmetry to a space.
+	 * 
+	 * @param space space index (col * ROWS + row)
+	 * @param symmetry
+	 * @return transformed space index
+	 */
+	public static int transform(int space, int symmetry) {
+		return sSpaces[symmetry][space];
+	}
+
+	/**
+	 * Applies a symmetry to a move packed by Move.pack().
+	 * 
+	 * @param packedMove
+	 * @param symmetry
+	 * @return transformed packed move
+	 */
+	public static int transformMove(int packedMove, int symmetry) {
+		return (sSpaces[symmetry][packedMove >> 8] << 8) | sSpaces[symmetry][packedMove & 0xFF];
+	}
+
+	/**
+	 * Gets the symmetry that undoes the given symmetry.
+	 * 
+	 * @param symmetry
+	 * @return inverse symmetry
+	 */
+	public static int inverse(int symmetry) {
+		return sInverse[symmetry];
+	}
+
+	/**
+	 * Calculates the hash of the board after applying a symmetry.
+	 * 
+	 * @param board
+	 * @param symmetry
+	 * @return board hash
+	 */
+	public static long hash(GameBoard board, int symmetry) {
+		int[] spaces = sSpaces[symmetry];
+		long hash = 0;
+
+		for (int space = 0; space < SPACES; ++space) {
+			if (spaces[space] >= 0) {
+				byte piece = board.getPiece(space / GameBoard.ROWS, space % GameBoard.ROWS);
+				if (piece != GameBoard.NONE) {
+					hash ^= Zobrist.key(spaces[space], piece);
+				}
+			}
+		}
+
+		return hash;
+	}
+
+	/**
+	 * Finds the symmetry that gives the canonical form of a position.
+	 * 
+	 * @param game
+	 * @return symmetry with the lowest board hash (the lowest index on ties)
+	 */
+	public static int canonical(TzaarGame game) {
+		int best = IDENTITY;
+		long bestHash = game.board.getHash();
+
+		for (int s = 1; s < COUNT; ++s) {
+			long hash = hash(game.board, s);
+			if (hash < bestHash) {
+				bestHash = hash;
+				best = s;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Calculates the position hash (see TzaarGame.getHash()) of a position
+	 * after applying a symmetry. Symmetries do not change the player to move
+	 * or the move number.
+	 * 
+	 * @param game
+	 * @param symmetry
+	 * @return position hash
+	 */
+	public static long hash(TzaarGame game, int symmetry) {
+		return game.getHash() ^ game.board.getHash() ^ hash(game.board, symmetry);
+	}
+
+	/**
+	 * Calculates the position hash of the canonical form of a position.
+	 * 
+	 * @param game
+	 * @return canonical position hash
+	 */
+	public static long canonicalHash(TzaarGame game) {
+		return hash(game, canonical(game));
+	}
+}
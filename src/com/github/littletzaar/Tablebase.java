@@ -0,0 +1,192 @@
+package com.github.littletzaar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.github.littletzaar.util.MappedAsset;
+
+/**
+ * A memory-mapped endgame tablebase of solved low-material positions.
+ * 
+ * The tablebase is built offline by TablebaseGenerator and stores the exact
+ * result of each position for the player to move, keyed by position hash
+ * (TzaarGame.getHash()). It is an open-addressing hash table, so a probe is
+ * one or two reads from the mapped file.
+ * 
+ * Every Tzaar move removes a piece or stack from the board, so a winning
+ * position can always be converted by playing any move that keeps the win.
+ * No distance to win is stored.
+ * 
+ * The app ships without a tablebase. Each side needs all three piece types
+ * to stay in the game, so even the smallest material class has billions of
+ * placements and cannot be enumerated, and a table grown from random seeds
+ * (see TablebaseGenerator) almost never holds a position of a real game.
+ * A tablebase is therefore only probed at the root, before the solver (see
+ * TzaarGame.findMove()), and never inside a search or a playout.
+ * 
+ * File layout (big-endian):
+ *   int  magic ("TZTB")
+ *   int  version
+ *   int  maximum number of pieces of the stored positions
+ *   int  number of slots (a power of two)
+ *   slots, each a long: (hash & ~3) | result, or 0 if empty
+ */
+public class Tablebase {
+	// Name of the tablebase in the assets folder
+	public static final String ASSET_NAME = "endgame_tablebase.bin";
+
+	// File header constants
+	public static final int MAGIC = 0x545A5442;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+	public static final int SLOT_SIZE = 8;
+
+	// Tablebase shared by all games (loaded on first use)
+	private static Tablebase sInstance = null;
+	private static boolean sLoaded = false;
+
+	// Mapped tablebase file
+	private ByteBuffer mBuffer;
+
+	// Positions with more pieces are never stored
+	private int mMaxPieces;
+
+	// Slot index mask (slots - 1)
+	private int mMask;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param buffer tablebase contents, including the header
+	 * @throws IOException if the header is invalid
+	 */
+	public Tablebase(ByteBuffer buffer) throws IOException {
+		mBuffer = buffer;
+
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Invalid tablebase header");
+		}
+
+		mMaxPieces = buffer.getInt(8);
+		int slots = buffer.getInt(12);
+		if (Integer.bitCount(slots) != 1 || buffer.capacity() < HEADER_SIZE + (long) slots * SLOT_SIZE) {
+			throw new IOException("Truncated tablebase");
+		}
+		mMask = slots - 1;
+	}
+
+	/**
+	 * Maps a tablebase file into memory.
+	 * 
+	 * @param file
+	 * @return tablebase
+	 * @throws IOException
+	 */
+	public static Tablebase open(File file) throws IOException {
+		return new Tablebase(MappedAsset.map(file));
+	}
+
+	/**
+	 * Gets the tablebase shipped in the assets folder, loading it on first use.
+	 * 
+	 * @param context
+	 * @return tablebase, or null if there is no valid tablebase
+	 */
+	public static synchronized Tablebase getInstance(Context context) {
+		if (sLoaded || context == null) {
+			return sInstance;
+		}
+		sLoaded = true;
+
+		try {
+			sInstance = new Tablebase(MappedAsset.map(context, ASSET_NAME));
+		}
+		catch (IOException ioe) {
+			Log.w("Tablebase", "No tablebase available", ioe);
+			sInstance = null;
+		}
+
+		return sInstance;
+	}
+
+	/**
+	 * Gets the slot index of a hash. The low bits hold the result, so the
+	 * index is taken from the high bits.
+	 */
+	public static int slotIndex(long hash, int mask) {
+		return (int) (hash >>> 32) & mask;
+	}
+
+	/**
+	 * Looks up the current position.
+	 * 
+	 * @param game
+	 * @return ProofNumberSearch.RESULT_WIN or RESULT_LOSS for the player to
+	 *         move, or RESULT_UNKNOWN if the position is not stored
+	 */
+	public int probe(TzaarGame game) {
+		if (game.board.getTotalPieceCount() > mMaxPieces) {
+			return ProofNumberSearch.RESULT_UNKNOWN;
+		}
+
+		long key = game.getHash() & ~3L;
+		for (int index = slotIndex(key, mMask); ; index = (index + 1) & mMask) {
+			long slot = mBuffer.getLong(HEADER_SIZE + index * SLOT_SIZE);
+			if (slot == 0) {
+				return ProofNumberSearch.RESULT_UNKNOWN;
+			}
+			if ((slot & ~3L) == key) {
+				return (int) (slot & 3);
+			}
+		}
+	}
+
+	/**
+	 * Finds a move that keeps a won position won.
+	 * 
+	 * @param game
+	 * @return winning move, or null if the position is not a stored win
+	 */
+	public Move findWinningMove(TzaarGame game) {
+		if (probe(game) != ProofNumberSearch.RESULT_WIN) {
+			return null;
+		}
+
+		int playerColor = game.whoseTurn();
+		ArrayList<Move> moves = new ArrayList<Move>();
+		game.getValidMoves(playerColor, game.getMoveNumber(), moves);
+
+		for (Move move : moves) {
+			TzaarGame next = new TzaarGame(game);
+			next.move(move);
+
+			int winner = next.getWinner();
+			if (winner == playerColor) {
+				return move;
+			}
+			if (winner != GameBoard.COLOR_UNSET) {
+				continue;
+			}
+
+			int result = probe(next);
+			if (next.whoseTurn() == playerColor ? result == ProofNumberSearch.RESULT_WIN : result == ProofNumberSearch.RESULT_LOSS) {
+				return move;
+			}
+		}
+
+		return null;
+	}
+
+	public int getMaxPieces() {
+		return mMaxPieces;
+	}
+
+	public int getSlots() {
+		return mMask + 1;
+	}
+}
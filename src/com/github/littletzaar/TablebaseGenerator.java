@@ -0,0 +1,288 @@
+package com.github.littletzaar;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Builds the endgame tablebase read by Tablebase.
+ * 
+ * Every move removes a piece or stack, so the positions reachable from a
+ * low-material position form a small closed set that never leaves the
+ * material limit. The generator collects endgame positions from random games
+ * (seeds), adds everything reachable from them, and solves the whole set by
+ * retrograde analysis: starting from the terminal positions, results are
+ * propagated back to their predecessors until every position is solved.
+ * 
+ * Enumerating every placement of the pieces on the board is far too large
+ * even for a handful of pieces, which is why the set is grown from seeds
+ * instead. Such a set rarely contains the positions of real games, so no
+ * tablebase is shipped (see Tablebase). Run it with:
+ * 
+ *   TablebaseGenerator <output file> [max pieces] [max positions] [seed]
+ * 
+ * and copy the output to assets/endgame_tablebase.bin to use it.
+ */
+public class TablebaseGenerator {
+	// Defaults for the command line arguments
+	public static final int DEFAULT_MAX_PIECES = 8;
+	public static final int DEFAULT_MAX_POSITIONS = 1 << 16;
+
+	// Maximum fraction of used slots in the output table
+	private static final double MAX_LOAD = 0.75;
+
+	private int mMaxPieces;
+	private int mMaxPositions;
+
+	// Index of each position by hash
+	private HashMap<Long, Integer> mIndex = new HashMap<Long, Integer>();
+
+	// Position data by index
+	private ArrayList<Long> mHashes = new ArrayList<Long>();
+	private ArrayList<int[]> mChildren = new ArrayList<int[]>();
+	private ArrayList<Integer> mPlayers = new ArrayList<Integer>();
+	private ArrayList<Integer> mWinners = new ArrayList<Integer>();
+
+	// Solved results by index (ProofNumberSearch.RESULT_*)
+	private byte[] mResults;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxPieces maximum number of pieces on the board
+	 * @param maxPositions approximate maximum number of positions
+	 */
+	public TablebaseGenerator(int maxPieces, int maxPositions) {
+		mMaxPieces = maxPieces;
+		mMaxPositions = maxPositions;
+	}
+
+	/**
+	 * Plays random games and adds every position reachable from their first
+	 * position within the material limit, until the position limit is
+	 * reached.
+	 * 
+	 * @param rand
+	 */
+	public void addSeeds(Random rand) {
+		ArrayList<Move> moves = new ArrayList<Move>();
+
+		for (int games = 0; mHashes.size() < mMaxPositions; ++games) {
+			int startPositions = (games % 2 == 0) ? GameBoard.POSITIONS_FIXED : GameBoard.POSITIONS_RANDOM;
+			TzaarGame game = new TzaarGame(null, GameBoard.COLOR_WHITE, TzaarGame.DIFFICULTY_NONE, startPositions);
+
+			while (game.board.getTotalPieceCount() > mMaxPieces && game.getWinner() == GameBoard.COLOR_UNSET) {
+				game.getValidMoves(game.whoseTurn(), game.getMoveNumber(), moves);
+				if (moves.isEmpty()) {
+					break;
+				}
+				game.move(moves.get(rand.nextInt(moves.size())));
+			}
+
+			if (game.board.getTotalPieceCount() <= mMaxPieces) {
+				add(game);
+			}
+
+			if (games % 1000 == 999) {
+				System.out.println(String.format("%d games, %d positions", games + 1, mHashes.size()));
+			}
+		}
+	}
+
+	/**
+	 * Adds a position and all positions reachable from it.
+	 * 
+	 * @param game
+	 * @return index of the position
+	 */
+	private int add(TzaarGame game) {
+		Long hash = game.getHash();
+		Integer index = mIndex.get(hash);
+		if (index != null) {
+			return index;
+		}
+
+		index = mHashes.size();
+		mIndex.put(hash, index);
+		mHashes.add(hash);
+		mPlayers.add(game.whoseTurn());
+		mChildren.add(null);
+
+		// Terminal positions have no children, and a player without valid
+		// moves either loses or passes (see TzaarGame.getNoMovesWinner())
+		int winner = game.getWinner();
+		ArrayList<Move> moves = new ArrayList<Move>();
+		if (winner == GameBoard.COLOR_UNSET) {
+			game.getValidMoves(game.whoseTurn(), game.getMoveNumber(), moves);
+			if (moves.isEmpty()) {
+				winner = game.getNoMovesWinner();
+			}
+		}
+		mWinners.add(winner);
+
+		int[] children = new int[0];
+		if (winner == GameBoard.COLOR_UNSET && moves.isEmpty()) {
+			TzaarGame next = new TzaarGame(game);
+			next.pass();
+			children = new int[] { add(next) };
+		}
+		else if (winner == GameBoard.COLOR_UNSET) {
+			children = new int[moves.size()];
+			for (int i = 0; i < children.length; ++i) {
+				TzaarGame next = new TzaarGame(game);
+				next.move(moves.get(i));
+				children[i] = add(next);
+			}
+		}
+		mChildren.set(index, children);
+
+		return index;
+	}
+
+	/**
+	 * Solves every position by retrograde analysis.
+	 */
+	public void solve() {
+		int count = mHashes.size();
+		mResults = new byte[count];
+
+		// Build the predecessor lists, noting whether the player to move changes
+		int[] predecessorCounts = new int[count + 1];
+		for (int i = 0; i < count; ++i) {
+			for (int child : mChildren.get(i)) {
+				++predecessorCounts[child + 1];
+			}
+		}
+		for (int i = 0; i < count; ++i) {
+			predecessorCounts[i + 1] += predecessorCounts[i];
+		}
+		int[] predecessors = new int[predecessorCounts[count]];
+		int[] fill = new int[count];
+		for (int i = 0; i < count; ++i) {
+			for (int child : mChildren.get(i)) {
+				predecessors[predecessorCounts[child] + fill[child]++] = i;
+			}
+		}
+
+		// Number of unsolved children of each position
+		int[] remaining = new int[count];
+		int[] queue = new int[count];
+		int head = 0;
+		int tail = 0;
+
+		for (int i = 0; i < count; ++i) {
+			remaining[i] = mChildren.get(i).length;
+			if (remaining[i] == 0) {
+				mResults[i] = (byte) terminalResult(i);
+				queue[tail++] = i;
+			}
+		}
+
+		while (head < tail) {
+			int node = queue[head++];
+
+			for (int p = predecessorCounts[node]; p < predecessorCounts[node + 1]; ++p) {
+				int parent = predecessors[p];
+				if (mResults[parent] != ProofNumberSearch.RESULT_UNKNOWN) {
+					continue;
+				}
+
+				// Result of the move to this node for the player to move in the parent
+				boolean samePlayer = mPlayers.get(parent).equals(mPlayers.get(node));
+				boolean wins = samePlayer ? mResults[node] == ProofNumberSearch.RESULT_WIN
+						: mResults[node] == ProofNumberSearch.RESULT_LOSS;
+
+				if (wins) {
+					mResults[parent] = ProofNumberSearch.RESULT_WIN;
+					queue[tail++] = parent;
+				}
+				else if (--remaining[parent] == 0) {
+					mResults[parent] = ProofNumberSearch.RESULT_LOSS;
+					queue[tail++] = parent;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the result of a terminal position for the player to move.
+	 */
+	private int terminalResult(int index) {
+		return (mWinners.get(index) == mPlayers.get(index).intValue()) ? ProofNumberSearch.RESULT_WIN
+				: ProofNumberSearch.RESULT_LOSS;
+	}
+
+	/**
+	 * Writes the solved positions. Terminal positions are left out, since 
+	 * the engine recognizes them without probing.
+	 * 
+	 * @param path output file
+	 * @throws IOException
+	 */
+	public void write(String path) throws IOException {
+		int stored = 0;
+		for (int i = 0; i < mHashes.size(); ++i) {
+			if (mWinners.get(i) == GameBoard.COLOR_UNSET) {
+				++stored;
+			}
+		}
+
+		int slots = Integer.highestOneBit(Math.max((int) (stored / MAX_LOAD), 1)) * 2;
+		int mask = slots - 1;
+		long[] table = new long[slots];
+
+		for (int i = 0; i < mHashes.size(); ++i) {
+			if (mWinners.get(i) != GameBoard.COLOR_UNSET) {
+				continue;
+			}
+
+			long key = mHashes.get(i) & ~3L;
+			int index = Tablebase.slotIndex(key, mask);
+			while (table[index] != 0) {
+				index = (index + 1) & mask;
+			}
+			table[index] = key | mResults[i];
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+		try {
+			out.writeInt(Tablebase.MAGIC);
+			out.writeInt(Tablebase.VERSION);
+			out.writeInt(mMaxPieces);
+			out.writeInt(slots);
+
+			for (long slot : table) {
+				out.writeLong(slot);
+			}
+		}
+		finally {
+			out.close();
+		}
+
+		System.out.println(String.format("%d positions stored in %d slots", stored, slots));
+	}
+
+	public int size() {
+		return mHashes.size();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: TablebaseGenerator <output file> [max pieces] [max positions] [seed]");
+			return;
+		}
+
+		int maxPieces = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_PIECES;
+		int maxPositions = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_POSITIONS;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+		TablebaseGenerator generator = new TablebaseGenerator(maxPieces, maxPositions);
+		generator.addSeeds(new Random(seed));
+		generator.solve();
+		generator.write(args[0]);
+	}
+}
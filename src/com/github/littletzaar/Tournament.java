@@ -0,0 +1,300 @@
+package com.github.littletzaar;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays engine-vs-engine games on several threads to measure the strength
+ * difference of two engines (see Engines for the engine specifications).
+ *
+ * Games are played in pairs from the same start position with the colors
+ * swapped, so neither engine benefits from the start. Random start positions
+ * are seeded by the pair number, so a rerun plays the same starts. Every
+ * move removes a piece from the board, so every game ends with a winner and
+ * there are no draws.
+ *
+ * The report gives the score of engine A, the Elo difference with its 95%
+ * confidence interval, and the log-likelihood ratio of a sequential
+ * probability ratio test (SPRT) of H0: Elo <= elo0 against H1: Elo >= elo1.
+ * Until engine A has both won and lost a game, the Elo difference is
+ * reported as if it had won or lost half a game more.
+ * The tournament stops as soon as the test accepts either hypothesis, or when
+ * the game limit is reached. Run it with:
+ *
+ *   Tournament <engine A> <engine B> [games] [threads] [fixed|random] [elo0] [elo1]
+ */
+public class Tournament {
+	// Defaults for the command line arguments
+	public static final int DEFAULT_GAMES = 2000;
+	public static final double DEFAULT_ELO0 = 0;
+	public static final double DEFAULT_ELO1 = 20;
+
+	// SPRT error probabilities (false positive, false negative)
+	public static final double ALPHA = 0.05;
+	public static final double BETA = 0.05;
+
+	// SPRT decisions
+	public static final int SPRT_NONE = 0;
+	public static final int SPRT_H0 = 1;
+	public static final int SPRT_H1 = 2;
+
+	// Number of games between progress reports
+	private static final int REPORT_INTERVAL = 100;
+
+	private final Engine mEngineA;
+	private final Engine mEngineB;
+	private final int mStartPositions;
+	private final double mElo0;
+	private final double mElo1;
+
+	// Results of engine A (guarded by this)
+	private int mWins = 0;
+	private int mLosses = 0;
+	private int mDecision = SPRT_NONE;
+
+	// Set to stop the workers once the SPRT has decided
+	private volatile boolean mStopped = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param engineA engine under test
+	 * @param engineB reference engine
+	 * @param startPositions GameBoard.POSITIONS_*
+	 * @param elo0 Elo difference of the null hypothesis
+	 * @param elo1 Elo difference of the alternative hypothesis
+	 */
+	public Tournament(Engine engineA, Engine engineB, int startPositions, double elo0, double elo1) {
+		mEngineA = engineA;
+		mEngineB = engineB;
+		mStartPositions = startPositions;
+		mElo0 = elo0;
+		mElo1 = elo1;
+	}
+
+	/**
+	 * Plays one game.
+	 *
+	 * @param white
+	 * @param black
+	 * @param startPositions GameBoard.POSITIONS_*
+	 * @param seed seed of random start positions
+	 * @return color of the winner
+	 */
+	public static int playGame(Engine white, Engine black, int startPositions, long seed) {
+		TzaarGame game = new TzaarGame(null, GameBoard.COLOR_WHITE, TzaarGame.DIFFICULTY_NONE, startPositions);
+		if (startPositions == GameBoard.POSITIONS_RANDOM) {
+			game.randomizeStartPositions(seed);
+		}
+
+		while (true) {
+			int winner = game.getWinner();
+			if (winner != GameBoard.COLOR_UNSET) {
+				return winner;
+			}
+
+			int player = game.whoseTurn();
+			Move move = (player == GameBoard.COLOR_WHITE ? white : black).findMove(game);
+			if (move == null) {
+				// No valid moves (see TzaarGame.getNoMovesWinner())
+				winner = game.getNoMovesWinner();
+				if (winner != GameBoard.COLOR_UNSET) {
+					return winner;
+				}
+				game.pass();
+				continue;
+			}
+			game.move(move);
+		}
+	}
+
+	/**
+	 * Plays game pairs on a number of threads until the SPRT decides or the
+	 * game limit is reached.
+	 *
+	 * @param maxGames game limit (rounded down to whole pairs)
+	 * @param threads number of threads
+	 * @param out receives the progress and final reports
+	 * @return SPRT_* decision
+	 */
+	public int run(int maxGames, int threads, final PrintStream out) {
+		final int pairs = maxGames / 2;
+		final AtomicInteger nextPair = new AtomicInteger();
+
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < workers.length; ++i) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					int pair;
+					while (!mStopped && (pair = nextPair.getAndIncrement()) < pairs) {
+						int first = playGame(mEngineA, mEngineB, mStartPositions, pair);
+						int second = playGame(mEngineB, mEngineA, mStartPositions, pair);
+						addResults(first == GameBoard.COLOR_WHITE, second == GameBoard.COLOR_BLACK, out);
+					}
+				}
+			}, "Tournament-" + i);
+			workers[i].start();
+		}
+
+		for (int i = 0; i < workers.length; ++i) {
+			try {
+				workers[i].join();
+			}
+			catch (InterruptedException ie) {
+				mStopped = true;
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		synchronized (this) {
+			out.println(report());
+			if (mDecision == SPRT_H1) {
+				out.println(String.format("H1 accepted: %s is stronger than %s by at least %.0f Elo",
+						mEngineA.getName(), mEngineB.getName(), mElo1));
+			}
+			else if (mDecision == SPRT_H0) {
+				out.println(String.format("H0 accepted: %s is not stronger than %s by more than %.0f Elo",
+						mEngineA.getName(), mEngineB.getName(), mElo0));
+			}
+			else {
+				out.println("Inconclusive: game limit reached");
+			}
+			return mDecision;
+		}
+	}
+
+	/**
+	 * Records the results of a game pair and checks the SPRT.
+	 */
+	private synchronized void addResults(boolean firstWon, boolean secondWon, PrintStream out) {
+		if (mDecision != SPRT_NONE) {
+			return;
+		}
+
+		mWins += (firstWon ? 1 : 0) + (secondWon ? 1 : 0);
+		mLosses += (firstWon ? 0 : 1) + (secondWon ? 0 : 1);
+
+		double llr = llr(mWins, mLosses, mElo0, mElo1);
+		if (llr >= Math.log((1 - BETA) / ALPHA)) {
+			mDecision = SPRT_H1;
+		}
+		else if (llr <= Math.log(BETA / (1 - ALPHA))) {
+			mDecision = SPRT_H0;
+		}
+
+		if (mDecision != SPRT_NONE) {
+			mStopped = true;
+		}
+		else if (getGames() % REPORT_INTERVAL == 0) {
+			out.println(report());
+		}
+	}
+
+	/**
+	 * Formats the current results.
+	 *
+	 * @return one line
+	 */
+	public synchronized String report() {
+		int games = getGames();
+		double score = clampScore(games > 0 ? (double) mWins / games : 0.5, games);
+
+		return String.format("%s vs %s: %d games +%d -%d, score %.1f%%, Elo %.1f +/- %.1f, LLR %.2f [%.2f, %.2f]",
+				mEngineA.getName(), mEngineB.getName(), games, mWins, mLosses, 100 * score,
+				elo(score), eloError(mWins, mLosses), llr(mWins, mLosses, mElo0, mElo1),
+				Math.log(BETA / (1 - ALPHA)), Math.log((1 - BETA) / ALPHA));
+	}
+
+	/**
+	 * Converts an expected score to an Elo difference.
+	 *
+	 * @param score expected score (0 to 1)
+	 * @return Elo difference (infinite for a score of 0 or 1)
+	 */
+	public static double elo(double score) {
+		return -400 * Math.log10(1 / score - 1);
+	}
+
+	/**
+	 * Converts an Elo difference to an expected score.
+	 *
+	 * @param elo Elo difference
+	 * @return expected score (0 to 1)
+	 */
+	public static double score(double elo) {
+		return 1 / (1 + Math.pow(10, -elo / 400));
+	}
+
+	/**
+	 * Calculates half the width of the 95% confidence interval of the Elo
+	 * difference.
+	 *
+	 * @param wins
+	 * @param losses
+	 * @return error (Elo)
+	 */
+	public static double eloError(int wins, int losses) {
+		int games = wins + losses;
+		if (games == 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		double score = clampScore((double) wins / games, games);
+		double margin = 1.96 * Math.sqrt(score * (1 - score) / games);
+		return (elo(clampScore(score + margin, games)) - elo(clampScore(score - margin, games))) / 2;
+	}
+
+	/**
+	 * Keeps a score half a game away from 0 and 1, so a one-sided result
+	 * still converts to a finite Elo difference.
+	 *
+	 * @param score score (0 to 1)
+	 * @param games number of games the score is over
+	 * @return clamped score
+	 */
+	public static double clampScore(double score, int games) {
+		double limit = 0.5 / Math.max(games, 1);
+		return Math.min(Math.max(score, limit), 1 - limit);
+	}
+
+	/**
+	 * Calculates the log-likelihood ratio of H1: Elo = elo1 against
+	 * H0: Elo = elo0. There are no draws, so the games follow a binomial
+	 * distribution and the ratio is exact, also for one-sided results.
+	 *
+	 * @param wins
+	 * @param losses
+	 * @param elo0
+	 * @param elo1
+	 * @return log-likelihood ratio
+	 */
+	public static double llr(int wins, int losses, double elo0, double elo1) {
+		double score0 = score(elo0);
+		double score1 = score(elo1);
+		return wins * Math.log(score1 / score0) + losses * Math.log((1 - score1) / (1 - score0));
+	}
+
+	public synchronized int getGames() {
+		return mWins + mLosses;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: Tournament <engine A> <engine B> [games] [threads] [fixed|random] [elo0] [elo1]");
+			return;
+		}
+
+		Engine engineA = Engines.create(args[0]);
+		Engine engineB = Engines.create(args[1]);
+		int games = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_GAMES;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		int startPositions = (args.length > 4 && args[4].equals("fixed")) ? GameBoard.POSITIONS_FIXED : GameBoard.POSITIONS_RANDOM;
+		double elo0 = args.length > 5 ? Double.parseDouble(args[5]) : DEFAULT_ELO0;
+		double elo1 = args.length > 6 ? Double.parseDouble(args[6]) : DEFAULT_ELO1;
+
+		Tournament tournament = new Tournament(engineA, engineB, startPositions, elo0, elo1);
+		tournament.run(games, threads, System.out);
+	}
+}
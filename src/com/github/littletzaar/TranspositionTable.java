@@ -0,0 +1,190 @@
+package com.github.littletzaar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A lock-free transposition table for the alpha-beta search, keyed by the
+ * position hash from TzaarGame.getHash().
+ * 
+ * Each entry is two longs: the entry data, and the position hash XORed with
+ * the data. Searches on several threads read and write the table without any
+ * locking. A torn write (key and data from different stores) then fails the
+ * XOR check and is treated as a miss, so a racing thread can never use data
+ * that belongs to a different position.
+ * 
+ * Entry data is packed as:
+ *   bits  0-15  best move, (from space << 8) | to space
+ *   bits 16-23  search depth
+ *   bits 24-25  bound type
+ *   bits 32-63  score
+ */
+public class TranspositionTable {
+	// Bound type constants
+	public static final int BOUND_NONE  = 0;
+	public static final int BOUND_EXACT = 1;
+	public static final int BOUND_LOWER = 2;
+	public static final int BOUND_UPPER = 3;
+
+	// Value returned by probe() when the position is not in the table
+	public static final long MISS = 0;
+
+	// Default table size (entries), 16 bytes each
+	public static final int DEFAULT_ENTRIES = 1 << 18;
+
+	// Key/data pairs, (hash ^ data) at even indexes and data at odd indexes
+	private final long[] mEntries;
+
+	// Index mask (entries - 1)
+	private final int mMask;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param entries number of entries, rounded down to a power of two
+	 */
+	public TranspositionTable(int entries) {
+		int size = Integer.highestOneBit(Math.max(entries, 1));
+		mEntries = new long[size * 2];
+		mMask = size - 1;
+	}
+
+	/**
+	 * Looks up a position.
+	 * 
+	 * @param hash position hash
+	 * @return packed entry data, or MISS if the position is not stored
+	 */
+	public long probe(long hash) {
+		int index = ((int) hash & mMask) << 1;
+		long check = mEntries[index];
+		long data = mEntries[index + 1];
+
+		if ((check ^ data) != hash || data == MISS) {
+			return MISS;
+		}
+
+		return data;
+	}
+
+	/**
+	 * Stores a position, replacing the current entry unless it holds the same
+	 * position searched to a greater depth.
+	 * 
+	 * @param hash position hash
+	 * @param move best move (packed), or 0 if unknown
+	 * @param depth search depth (moves)
+	 * @param bound bound type of the score
+	 * @param score
+	 */
+	public void store(long hash, int move, int depth, int bound, int score) {
+		int index = ((int) hash & mMask) << 1;
+		long check = mEntries[index];
+		long old = mEntries[index + 1];
+
+		if ((check ^ old) == hash && old != MISS && getDepth(old) > depth) {
+			return;
+		}
+
+		long data = (move & 0xFFFFL)
+				| ((long) (depth & 0xFF) << 16)
+				| ((long) (bound & 0x3) << 24)
+				| ((long) score << 32);
+
+		mEntries[index] = hash ^ data;
+		mEntries[index + 1] = data;
+	}
+
+	/**
+	 * Clears all entries.
+	 */
+	public void clear() {
+		for (int i = 0; i < mEntries.length; ++i) {
+			mEntries[i] = 0;
+		}
+	}
+
+	/**
+	 * Serializes the stored entries, the deepest first if they do not all fit.
+	 * Not safe while a search is writing to the table.
+	 * 
+	 * @param maxBytes size limit
+	 * @return entry count followed by (hash, data) pairs
+	 */
+	public byte[] toBytes(int maxBytes) {
+		// Count the entries of each depth to find the shallowest depth that fits
+		int[] depthCounts = new int[256];
+		for (int i = 0; i < mEntries.length; i += 2) {
+			long data = mEntries[i + 1];
+			if (data != MISS) {
+				++depthCounts[getDepth(data)];
+			}
+		}
+
+		int maxEntries = Math.max(maxBytes - 4, 0) / 16;
+		int minDepth = depthCounts.length;
+		int count = 0;
+		while (minDepth > 0 && count + depthCounts[minDepth - 1] <= maxEntries) {
+			count += depthCounts[--minDepth];
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + count * 16);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(count);
+			for (int i = 0; i < mEntries.length; i += 2) {
+				long data = mEntries[i + 1];
+				if (data != MISS && getDepth(data) >= minDepth) {
+					out.writeLong(mEntries[i] ^ data);
+					out.writeLong(data);
+				}
+			}
+		}
+		catch (IOException ioe) {
+			// Not thrown by in-memory streams
+			throw new RuntimeException(ioe);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Stores entries serialized by toBytes(), which may come from a table of
+	 * a different size.
+	 * 
+	 * @param in
+	 * @throws IOException if the data is truncated
+	 */
+	public void load(DataInput in) throws IOException {
+		int count = in.readInt();
+		for (int i = 0; i < count; ++i) {
+			long hash = in.readLong();
+			long data = in.readLong();
+			if (data != MISS) {
+				store(hash, getMove(data), getDepth(data), getBound(data), getScore(data));
+			}
+		}
+	}
+
+	public int size() {
+		return mMask + 1;
+	}
+
+	public static int getMove(long data) {
+		return (int) (data & 0xFFFF);
+	}
+
+	public static int getDepth(long data) {
+		return (int) ((data >>> 16) & 0xFF);
+	}
+
+	public static int getBound(long data) {
+		return (int) ((data >>> 24) & 0x3);
+	}
+
+	public static int getScore(long data) {
+		return (int) (data >> 32);
+	}
+}
@@ -54,7 +54,7 @@ public class Turn {
 	
 	public void setSecond(Move second) {
 		this.second = second;
-		prev = this.second;
+		prev = (this.second != null) ? this.second : this.first;
 	}
 	
 	public Move getPrev() {
@@ -1,9 +1,10 @@
 package com.github.littletzaar;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Random;
-import java.util.Stack;
 
 import android.content.Context;
 import android.graphics.Point;
@@ -30,38 +31,95 @@ public class TzaarGame {
 	public static final int MOVE_CAPTURE = 0;
 	public static final int MOVE_STACK   = 1;
 	
-	// Number of simulations for the AI to play at each difficulty level
-	public static final int NUM_SIMS_EASY   = 5;
-	public static final int NUM_SIMS_MEDIUM = 20;
-	public static final int NUM_SIMS_HARD   = 50;
+	// The playouts, nodes, threads, memory and time of the AI at each
+	// difficulty level are set by its DifficultyProfile.
 	
-	// Maximum time allowed for AI to play at each difficulty level (seconds)
-	public static final int MAX_TIME_EASY   = 5;
-	public static final int MAX_TIME_MEDIUM = 10;
-	public static final int MAX_TIME_HARD   = 15;	
+	// Below HARD the AI is weakened rather than given less time: the search
+	// tree stops at a depth limit (plies, 0 for no limit), the move is drawn
+	// from the root moves by visits at a temperature (0 for the most visited
+	// move), and some moves are drawn from the playout policy unsearched
+	public static final int MAX_DEPTH_EASY   = 2;
+	public static final int MAX_DEPTH_MEDIUM = 0;
+	public static final double TEMPERATURE_EASY   = 1.0;
+	public static final double TEMPERATURE_MEDIUM = 0.25;
+	public static final double MISTAKE_RATE_EASY   = 0.15;
+	public static final double MISTAKE_RATE_MEDIUM = 0;
+	
+	// Time limit of the endgame solver at MEDIUM (ms); EASY plays endgames
+	// without the solver and the tablebase
+	public static final int MAX_SOLVER_TIME_MEDIUM = 40;
+	
+	// Default maximum number of moves in a playout before it is adjudicated
+	public static final int DEFAULT_MAX_PLAYOUT_MOVES = 80;
+	
+	// Weights of the static evaluation (see evaluate()), measured against
+	// the Monte Carlo search
+	private static final int EVAL_MIN     = 16;
+	private static final int EVAL_BURIED  = 3;
+	private static final int EVAL_TALLEST = 4;
+	private static final int EVAL_CAPTURE = 1;
+	private static final int EVAL_SAFE    = 8;
 	
 	// Current game board
 	// TODO: MAKE THIS PRIVATE
 	protected GameBoard board = new GameBoard();
 	
 	// Tracks move history
-	// TODO: MAKE THIS PRIVATE
-	protected Stack<Turn> turns = new Stack<Turn>();
+	private GameJournal mJournal = new GameJournal();
 
+	// Application context, for loading assets (initialized by constructor)
+	private Context mContext;
+	
 	// Current player color (initialized by constructor)
 	private int mPlayerColor;
 
 	// Current start positions (initialized by constructor)
 	private int mStartPositions;
 	
+	// Seed of the random start positions (see randomizeStartPositions())
+	private long mStartSeed = 0;
+	
 	// Current difficulty (initialized by constructor)
 	private int mDifficulty;
+	
+	// Compute budget of the AI, or null for the default of the difficulty
+	private DifficultyProfile mProfile = null;
+	
+	// Limit that stopped the last search (SearchLimit.*)
+	private int mStopReason = SearchLimit.NONE;
 
 	// Current move number
 	private int mMoveNumber = MOVE_FIRST;
 
 	// Total turn count
 	private int mTurnCount = 0;
+	
+	// Maximum number of moves in a playout (0 for no limit)
+	private int mMaxPlayoutMoves = DEFAULT_MAX_PLAYOUT_MOVES;
+	
+	// Distribution of playout lengths over all searches of this game
+	private PlayoutStats mPlayoutStats = new PlayoutStats();
+	
+	// Endgame tablebase probed before a search, or null if there is none
+	private Tablebase mTablebase = null;
+	
+	// Move distribution of the playouts, or null for uniformly random moves
+	private PlayoutPolicy mPlayoutPolicy = null;
+	
+	// Buffer of the playout policy
+	private float[] mPlayoutPolicyBuffer = null;
+	
+	// Move statistics of the searches of this game, or null if there are none
+	private MoveStatistics mMoveStatistics = null;
+	
+	// Tree of the last Monte Carlo search of this game, or null if there is none
+	private NodeArena mSearchTree = null;
+	
+	// Cache of search results shared across games, or null if there is none
+	private PositionCache mCache = null;
+	
+	// State of the last interrupted search, or null if there is none
+	private SearchCheckpoint mCheckpoint = null;
 		
 	/* 
 	 * Direction offsets for traversing the board.
@@ -92,8 +150,13 @@ public class TzaarGame {
 	 */
 	private Point[][] mDirections = new Point[2][6];
 	
-	// Holds temporary valid moves list for canStack()
-	private ArrayList<Move> tempMoves = new ArrayList<Move>();
+	// Scratch space of evaluate(): pieces under attack by color and type,
+	// and buried pieces, tallest stack and captures by color
+	private int[] mEvalAttacked = new int[8];
+	private int[] mEvalBuried = new int[2];
+	private int[] mEvalTallest = new int[2];
+	private int[] mEvalCaptures = new int[2];
+	
 		
 	/**
 	 * Constructor initializes the game.
@@ -104,10 +167,12 @@ public class TzaarGame {
 	 * @param startPositions
 	 */
 	public TzaarGame(Context context, int playerColor, int difficulty, int startPositions) {
+		mContext = (context != null) ? context.getApplicationContext() : null;
 		mPlayerColor = playerColor;
 		mDifficulty = difficulty;
 		mStartPositions = startPositions;
 		init();
+		mJournal.reset(this);
 	}
 	
 	/**
@@ -117,12 +182,22 @@ public class TzaarGame {
 	 */
 	public TzaarGame(TzaarGame that) {
 		this.board = new GameBoard(that.board);
-		this.turns.addAll(that.turns);
+		this.mJournal = new GameJournal(that.mJournal);
+		
+		this.mContext = that.mContext;
+		this.mTablebase = that.mTablebase;
+		this.mPlayoutPolicy = that.mPlayoutPolicy;
+		this.mMoveStatistics = that.mMoveStatistics;
+		this.mSearchTree = that.mSearchTree;
+		this.mCheckpoint = that.mCheckpoint;
 		this.mPlayerColor = that.mPlayerColor;
 		this.mStartPositions = that.mStartPositions;
+		this.mStartSeed = that.mStartSeed;
 		this.mDifficulty = that.mDifficulty;
+		this.mProfile = that.mProfile;
 		this.mMoveNumber = that.mMoveNumber;
 		this.mTurnCount = that.mTurnCount;
+		this.mMaxPlayoutMoves = that.mMaxPlayoutMoves;
 		init();
 	}
 	
@@ -157,6 +232,45 @@ public class TzaarGame {
 	public Move findMove(int playerColor, int moveNumber) {
 		Random rand = new Random();
 		Move move = null;
+		MemoryBudget budget = MemoryBudget.getInstance();
+		DifficultyProfile profile = getProfile();
+		long callTime = System.currentTimeMillis();
+		mStopReason = SearchLimit.NONE;
+		
+		// Play a known win immediately when few pieces are left
+		boolean perfectPlay = mDifficulty == DIFFICULTY_MEDIUM || mDifficulty == DIFFICULTY_HARD;
+		if (perfectPlay && mTablebase == null) {
+			mTablebase = Tablebase.getInstance(mContext);
+		}
+		if (mDifficulty != DIFFICULTY_NONE && mPlayoutPolicy == null) {
+			mPlayoutPolicy = PlayoutPolicy.getInstance(mContext);
+		}
+		if (perfectPlay && mTablebase != null) {
+			Move tablebaseMove = mTablebase.findWinningMove(this);
+			if (tablebaseMove != null) {
+				return tablebaseMove;
+			}
+		}
+		if (perfectPlay && ProofNumberSearch.isEndgame(this)) {
+			long solverMillis = (mDifficulty == DIFFICULTY_HARD) ? ProofNumberSearch.DEFAULT_MAX_MILLIS : MAX_SOLVER_TIME_MEDIUM;
+			solverMillis = Math.min(solverMillis, profile.getMoveMillis(mTurnCount));
+			ProofNumberSearch solver = new ProofNumberSearch(this);
+			if (solver.solve(budget.getProofNodes(profile.getMaxMemory()), solverMillis) == ProofNumberSearch.RESULT_WIN
+					&& solver.getBestMove() != null) {
+				return solver.getBestMove();
+			}
+		}
+		
+		// Play the book move for known opening positions
+		if (perfectPlay) {
+			OpeningBook book = OpeningBook.getInstance(mContext);
+			if (book != null) {
+				Move bookMove = book.lookup(this);
+				if (bookMove != null) {
+					return bookMove;
+				}
+			}
+		}
 		
 		if (mDifficulty == DIFFICULTY_NONE) {
 			// Randomly select the next move
@@ -164,102 +278,364 @@ public class TzaarGame {
 			getValidMoves(playerColor, moveNumber, moves);
 			move = moves.get(rand.nextInt(moves.size()));
 		}
+		else if (mDifficulty == DIFFICULTY_HARD) {
+			// Search the game tree on the profile's threads to the greatest
+			// depth its node and time limits allow (the time limit includes the
+			// endgame solver)
+			TranspositionTable table = new TranspositionTable(budget.getTableEntries(profile.getMaxMemory()));
+			long maxMillis = Math.max(profile.getMoveMillis(mTurnCount) - (System.currentTimeMillis() - callTime), 1);
+			long elapsedMillis = 0;
+			
+			// Continue an interrupted search of this position
+			SearchCheckpoint checkpoint = takeCheckpoint(SearchCheckpoint.ENGINE_ALPHA_BETA);
+			if (checkpoint != null) {
+				try {
+					table.load(checkpoint.getData());
+					elapsedMillis = checkpoint.getElapsedMillis();
+					maxMillis = Math.max(maxMillis - elapsedMillis, maxMillis / 4);
+				}
+				catch (IOException ioe) {
+					Log.w("TzaarGame.findMove", "Ignoring search checkpoint: " + ioe.getMessage());
+					table.clear();
+				}
+			}
+			
+			long startTime = System.currentTimeMillis();
+			LazySmpSearch search = new LazySmpSearch(this, profile.getThreads(), table);
+			search.setMaxNodes(profile.getMaxNodes());
+			move = search.findMove(maxMillis, AlphaBetaSearch.MAX_DEPTH);
+			mStopReason = search.getStopReason();
+			
+			if (Thread.currentThread().isInterrupted()) {
+				elapsedMillis += System.currentTimeMillis() - startTime;
+				saveCheckpoint(new SearchCheckpoint(SearchCheckpoint.ENGINE_ALPHA_BETA, getHash(), elapsedMillis, 0,
+						table.toBytes(SearchCheckpoint.MAX_BYTES)));
+			}
+		}
 		else {
-			// Play random simulations using each of the possible starting moves
-			int numSimulations = 0;
-			int maxSeconds = 0;
+			// Search the game tree within the profile's playout budget,
+			// weakened by the difficulty's throttles
+			int maxPlayouts = (int) Math.min(profile.getMaxPlayouts(), Integer.MAX_VALUE);
+			int maxDepth = 0;
+			double temperature = 0;
+			double mistakeRate = 0;
 			
 			switch (mDifficulty) {
 				case DIFFICULTY_EASY:
-					numSimulations = NUM_SIMS_EASY;
-					maxSeconds = MAX_TIME_EASY;
+					maxDepth = MAX_DEPTH_EASY;
+					temperature = TEMPERATURE_EASY;
+					mistakeRate = MISTAKE_RATE_EASY;
 					break;
 				case DIFFICULTY_MEDIUM:
-					numSimulations = NUM_SIMS_MEDIUM;
-					maxSeconds = MAX_TIME_MEDIUM;
-					break;
-				case DIFFICULTY_HARD:
-					numSimulations = NUM_SIMS_HARD;
-					maxSeconds = MAX_TIME_HARD;
+					maxDepth = MAX_DEPTH_MEDIUM;
+					temperature = TEMPERATURE_MEDIUM;
+					mistakeRate = MISTAKE_RATE_MEDIUM;
 					break;
 			}
-
-			// Set up the turn timer
-			long nowTime = System.currentTimeMillis() / 1000;
-			long endTime = nowTime + maxSeconds;
 			
-			// 
-			int bestWinCount = 0;
-			Move bestMove = null;
+			// Now and then play a plausible move without searching, but never
+			// miss a game-ending capture
+			if (rand.nextDouble() < mistakeRate) {
+				ArrayList<Move> moves = new ArrayList<Move>();
+				getValidMoves(playerColor, moveNumber, moves);
+				if (findDecisiveMove(moves) == null) {
+					return chooseUnsearchedMove(moves, rand);
+				}
+			}
+			
+			if (mCache == null) {
+				mCache = PositionCache.getInstance(mContext);
+			}
 			
-			// 
-			ArrayList<Move> validMoves = new ArrayList<Move>();
-			ArrayList<Move> startMoves = new ArrayList<Move>();
-			getValidMoves(playerColor, moveNumber, startMoves);
-			Collections.shuffle(startMoves);
+			// Keep the move statistics from one search to the next
+			if (mMoveStatistics == null) {
+				mMoveStatistics = new MoveStatistics();
+			}
 			
-			for (Move startMove : startMoves) {
-				long moveStartTime = System.currentTimeMillis();
-				
-				// Track number of times player won using this start move
-				int winCount = 0;
-				
-				// Initialize the best move to the start move
-				if (bestMove == null) {
-					bestMove = startMove;
+			// Keep the subtree of the position from the last search, unless the
+			// tree's budget has changed since
+			long treeBytes = budget.getTreeBytes(profile.getMaxMemory());
+			if (mSearchTree == null || mSearchTree.getMaxNodes() != treeBytes / NodeArena.NODE_SIZE) {
+				mSearchTree = new NodeArena(treeBytes);
+			}
+			
+			// The time limit includes the endgame solver
+			long maxMillis = Math.max(profile.getMoveMillis(mTurnCount) - (System.currentTimeMillis() - callTime), 1);
+			
+			MonteCarloTreeSearch search = new MonteCarloTreeSearch(this);
+			search.setCache(mCache);
+			search.setMaxDepth(maxDepth);
+			search.setTemperature(temperature);
+			int playouts = 0;
+			long elapsedMillis = 0;
+			
+			// Continue an interrupted search of this position
+			SearchCheckpoint checkpoint = takeCheckpoint(SearchCheckpoint.ENGINE_MCTS);
+			if (checkpoint != null) {
+				search.resume(checkpoint);
+				playouts = checkpoint.getPlayouts();
+				elapsedMillis = checkpoint.getElapsedMillis();
+				maxPlayouts = Math.max(maxPlayouts - playouts, maxPlayouts / 4);
+				maxMillis = Math.max(maxMillis - elapsedMillis, maxMillis / 4);
+			}
+			
+			long startTime = System.currentTimeMillis();
+			move = search.findMove(maxPlayouts, maxMillis);
+			mStopReason = search.getStopReason();
+			mPlayoutStats.merge(search.getPlayoutStats());
+			
+			if (Thread.currentThread().isInterrupted()) {
+				playouts += search.getIterations();
+				elapsedMillis += System.currentTimeMillis() - startTime;
+				saveCheckpoint(new SearchCheckpoint(SearchCheckpoint.ENGINE_MCTS, getHash(), elapsedMillis, playouts,
+						search.checkpoint(SearchCheckpoint.MAX_BYTES)));
+			}
+		}
+		
+		if (profile != null) {
+			Log.v("Instrumentation", String.format("Search: stopped by %s after %d ms (%s)",
+					SearchLimit.getName(mStopReason), System.currentTimeMillis() - callTime, profile));
+		}
+		Log.v("Instrumentation", "Memory: " + budget.report(getSearchMemory()));
+		return move;
+	}
+	
+	/**
+	 * Releases search structures under memory pressure. The structures are
+	 * only dropped from this game, so a search running on a copy of it (see
+	 * keepSearchState()) finishes with them and they are freed after it.
+	 * 
+	 * @param level ComponentCallbacks2.TRIM_MEMORY_* level
+	 */
+	public void trimMemory(int level) {
+		MemoryBudget budget = MemoryBudget.getInstance();
+		budget.onTrimMemory(level);
+		releaseOverBudget();
+		
+		Log.i("TzaarGame.trimMemory", "Level " + level + ": " + budget.report(getSearchMemory()));
+	}
+	
+	/**
+	 * Takes over what a search on a copy of this game kept for the next
+	 * searches: the search tree, move statistics and checkpoint, as long as
+	 * the memory budget still allows them. Searching on a copy keeps the
+	 * search thread away from this game, which the UI thread reads and
+	 * changes meanwhile. Call on the thread that owns this game once the
+	 * search has finished or was cancelled.
+	 * 
+	 * @param searched copy of this game that findMove() was called on
+	 */
+	public void keepSearchState(TzaarGame searched) {
+		mTablebase = searched.mTablebase;
+		mPlayoutPolicy = searched.mPlayoutPolicy;
+		mCache = searched.mCache;
+		mCheckpoint = searched.mCheckpoint;
+		mStopReason = searched.mStopReason;
+		mPlayoutStats.merge(searched.mPlayoutStats);
+		
+		mSearchTree = searched.mSearchTree;
+		mMoveStatistics = searched.mMoveStatistics;
+		releaseOverBudget();
+	}
+	
+	/**
+	 * Drops the search structures that no longer fit in the memory budget.
+	 */
+	private void releaseOverBudget() {
+		MemoryBudget budget = MemoryBudget.getInstance();
+		DifficultyProfile profile = getProfile();
+		
+		if (budget.getPressure() == MemoryBudget.PRESSURE_CRITICAL) {
+			mSearchTree = null;
+			mMoveStatistics = null;
+		}
+		else if (mSearchTree != null && (profile == null || mSearchTree.getBytes() > budget.getTreeBytes(profile.getMaxMemory()))) {
+			mSearchTree = null;
+		}
+	}
+	
+	/**
+	 * Gets the memory held by the search structures kept by this game.
+	 * 
+	 * @return size (bytes)
+	 */
+	public long getSearchMemory() {
+		long bytes = 0;
+		if (mSearchTree != null) {
+			bytes += mSearchTree.getBytes();
+		}
+		if (mMoveStatistics != null) {
+			bytes += MoveStatistics.BYTES;
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Picks a move without searching, from the playout policy's distribution
+	 * if there is a policy and uniformly otherwise.
+	 * 
+	 * @param moves valid moves (at least one)
+	 * @param rand
+	 * @return move
+	 */
+	private Move chooseUnsearchedMove(ArrayList<Move> moves, Random rand) {
+		if (mPlayoutPolicy == null) {
+			return moves.get(rand.nextInt(moves.size()));
+		}
+		return mPlayoutPolicy.chooseMove(this, moves, rand, new float[PlayoutPolicy.COUNT_FACTORS + moves.size()]);
+	}
+	
+	/**
+	 * Takes the checkpoint of an interrupted search, from memory or from the
+	 * checkpoint file left by an earlier process. The checkpoint is used at
+	 * most once, so the file is removed.
+	 * 
+	 * @param engine SearchCheckpoint.ENGINE_*
+	 * @return checkpoint of a search of this position by the engine, or null
+	 */
+	private SearchCheckpoint takeCheckpoint(int engine) {
+		SearchCheckpoint checkpoint = mCheckpoint;
+		mCheckpoint = null;
+		
+		if (mContext != null) {
+			File file = SearchCheckpoint.getFile(mContext);
+			if (checkpoint == null && file.exists()) {
+				try {
+					checkpoint = SearchCheckpoint.read(file);
 				}
-				
-				for (int i = 0; i < numSimulations; ++i) {
-					nowTime = System.currentTimeMillis() / 1000;
-					if (nowTime > endTime) {
-						break;
-					}
-					
-					// Copy the game and make the initial move
-					TzaarGame testGame = new TzaarGame(this);
-					testGame.move(startMove);
-					
-					// Play out the game on the test board 
-					while (true) {
-						testGame.getValidMoves(testGame.whoseTurn(), testGame.getMoveNumber(), validMoves);
-						if (validMoves.size() > 0) {
-							Move randMove = validMoves.get(rand.nextInt(validMoves.size()));
-							testGame.move(randMove);
-							
-							// Check if either player is in a winning state
-							if (testGame.isWinningState(GameBoard.COLOR_UNSET)) {
-								break;
-							}
-						}
-						else {
-							break;
-						}
-					}
-					
-					// Increment win counter if we won
-					if (testGame.isWinningState(playerColor)) {
-						++winCount;
-					}
+				catch (IOException ioe) {
+					Log.w("TzaarGame.takeCheckpoint", "Failed to read search checkpoint: " + ioe.getMessage());
 				}
+			}
+			file.delete();
+		}
+		
+		return (checkpoint != null && checkpoint.matches(engine, getHash())) ? checkpoint : null;
+	}
+	
+	/**
+	 * Keeps the state of an interrupted search, in memory and in the
+	 * checkpoint file so it also survives the process. Called on the search
+	 * thread.
+	 * 
+	 * @param checkpoint
+	 */
+	private void saveCheckpoint(SearchCheckpoint checkpoint) {
+		mCheckpoint = checkpoint;
+		
+		if (mContext != null) {
+			try {
+				checkpoint.write(SearchCheckpoint.getFile(mContext));
+			}
+			catch (IOException ioe) {
+				Log.w("TzaarGame.saveCheckpoint", "Failed to write search checkpoint: " + ioe.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Shuffles the pieces for a game with random start positions. The seed is
+	 * kept so the start position can be recreated (see GameRecord).
+	 * 
+	 * @param seed
+	 */
+	public void randomizeStartPositions(long seed) {
+		mStartSeed = seed;
+		board.randomize(seed);
+		mJournal.reset(this);
+	}
+	
+	/**
+	 * Writes the search results of this game to the position cache in the
+	 * background. Call when the game ends or is left.
+	 */
+	public void saveResults() {
+		if (mCache != null) {
+			mCache.flushAsync();
+		}
+	}
+	
+	/**
+	 * Plays out the game with random moves until it ends, always taking a 
+	 * game-ending capture when there is one. If the playout reaches the 
+	 * maximum number of moves, the winner is decided by evaluate() instead.
+	 * 
+	 * @param rand
+	 * @param stats receives the length of the playout
+	 * @param validMoves buffer for the valid moves
+	 * @return color of the winner, or COLOR_UNSET if there is none
+	 */
+	public int playout(Random rand, PlayoutStats stats, ArrayList<Move> validMoves) {
+		return playout(rand, stats, validMoves, null);
+	}
+	
+	/**
+	 * Plays out the game like playout(), choosing the moves by their average
+	 * results (see MoveStatistics).
+	 * 
+	 * @param rand
+	 * @param stats receives the length of the playout
+	 * @param validMoves buffer for the valid moves
+	 * @param moveStats move statistics of the search, or null for none
+	 * @return color of the winner, or COLOR_UNSET if there is none
+	 */
+	public int playout(Random rand, PlayoutStats stats, ArrayList<Move> validMoves, MoveStatistics.Local moveStats) {
+		int playoutMoves = 0;
+		
+		while (true) {
+			if (mMaxPlayoutMoves > 0 && playoutMoves >= mMaxPlayoutMoves) {
+				stats.record(playoutMoves, true);
 				
-				// Record the best move so far
-				if (winCount > bestWinCount) {
-					bestWinCount = winCount;
-					bestMove = startMove;
+				int score = evaluate(GameBoard.COLOR_WHITE);
+				if (score > 0) {
+					return GameBoard.COLOR_WHITE;
 				}
-				
-				if (nowTime > endTime) {
-					break;
+				else if (score < 0) {
+					return GameBoard.COLOR_BLACK;
+				}
+				else {
+					return GameBoard.COLOR_UNSET;
 				}
-								
-				long moveFinishTime = System.currentTimeMillis();
-				Log.v("Instrumentation", "Total simulation time for this move: " + (moveFinishTime - moveStartTime) + " ms");
 			}
-
-			move = bestMove;
+			
+			getValidMoves(whoseTurn(), mMoveNumber, validMoves);
+			if (validMoves.size() == 0) {
+				if (getNoMovesWinner() != GameBoard.COLOR_UNSET) {
+					stats.record(playoutMoves, false);
+					return getNoMovesWinner();
+				}
+				pass();
+				continue;
+			}
+			
+			// Always take a game-ending capture, otherwise move randomly
+			// (following the move statistics and playout policy if there are any)
+			Move nextMove = findDecisiveMove(validMoves);
+			if (nextMove == null && (mPlayoutPolicy != null || moveStats != null)) {
+				if (mPlayoutPolicyBuffer == null || mPlayoutPolicyBuffer.length < PlayoutPolicy.COUNT_FACTORS + validMoves.size()) {
+					mPlayoutPolicyBuffer = new float[PlayoutPolicy.COUNT_FACTORS + validMoves.size() * 2];
+				}
+				if (moveStats != null) {
+					nextMove = moveStats.chooseMove(this, validMoves, rand, mPlayoutPolicy, mPlayoutPolicyBuffer);
+				}
+				else {
+					nextMove = mPlayoutPolicy.chooseMove(this, validMoves, rand, mPlayoutPolicyBuffer);
+				}
+			}
+			else if (nextMove == null) {
+				nextMove = validMoves.get(rand.nextInt(validMoves.size()));
+			}
+			move(nextMove);
+			++playoutMoves;
+			
+			// Check if either player is in a winning state
+			if (isWinningState(GameBoard.COLOR_UNSET)) {
+				break;
+			}
 		}
 		
-		return move;
+		stats.record(playoutMoves, false);
+		return getWinner();
 	}
 	
 	/**
@@ -360,31 +736,72 @@ public class TzaarGame {
 		}
 	}
 	
+	/**
+	 * Finds a move in the given list that ends the game immediately, i.e. a
+	 * capture of the opponent's last remaining piece of some type.
+	 * 
+	 * This only inspects the target of each capture, so it is cheap enough to
+	 * call after every move generation in the playouts.
+	 * 
+	 * @param moves list of valid moves for the player to move
+	 * @return a game-ending capture, or null if there is none
+	 */
+	public Move findDecisiveMove(ArrayList<Move> moves) {
+		for (int i = 0; i < moves.size(); ++i) {
+			Move move = moves.get(i);
+			if (move.type == MOVE_CAPTURE) {
+				byte target = board.getPiece(move.to.x, move.to.y);
+				if (board.getPieceCount((byte) (target & 7)) == 1) {
+					return move;
+				}
+			}
+		}
+		
+		return null;
+	}
+	
 	/**
 	 * Determines if there is at least one stacking move available to the given
 	 * player. 
 	 * 
-	 * This method is basically the same as getValidMoves(), but returns as soon
-	 * as the first stacking move is located.
+	 * This method walks the board the same way as getValidMovesFromSpace(), 
+	 * but returns as soon as the first stacking move is located and does not
+	 * allocate any moves, since it is called after every move of a search.
 	 * 
 	 * @param playerColor
 	 * @return true if the player can make a stacking move, false otherwise
 	 */
 	public boolean canStack(int playerColor) {
-		boolean canStack = false;
-		tempMoves.clear();
-		
 		for (int col = 0; col < GameBoard.COLS; ++col) {
 			for (int row = 0; row < GameBoard.ROWS; ++row) {
-				getValidMovesFromSpace(playerColor, MOVE_FIRST, col, row, tempMoves);
-				if (tempMoves.size() > 0) {
-					canStack = true;
-					break;
+				// Decode the piece attributes (inlined for performance)
+				byte piece = board.getPiece(col, row);
+				int pieceHeight = piece >> 3;
+				
+				// Skip illegal, empty, and opponent spaces
+				if (piece == GameBoard.NULL || piece == GameBoard.NONE || (piece & 1) != playerColor)
+					continue;
+				
+				for (int i = 0; i < mDirections[0].length; ++i) {
+					// Search for a piece in the current direction
+					int nextCol = col;
+					int nextRow = row;
+					byte nextPiece;
+					do {
+						int dirIndex = nextCol % 2;
+						nextCol += mDirections[dirIndex][i].x;
+						nextRow += mDirections[dirIndex][i].y;
+						nextPiece = board.getPiece(nextCol, nextRow);
+					} while (nextPiece == GameBoard.NONE);
+					
+					if (nextPiece != GameBoard.NULL && (nextPiece & 1) != playerColor && (nextPiece >> 3) <= pieceHeight) {
+						return true;
+					}
 				}
 			}
 		}
 
-		return canStack;
+		return false;
 	}	
 	
 	/**
@@ -393,25 +810,203 @@ public class TzaarGame {
 	 * @param move
 	 */
 	public void move(Move move) {
+		makeMove(move);
+		mJournal.append(move);
+	}
+	
+	/**
+	 * Makes the move without recording it in the move history.
+	 * 
+	 * @param move
+	 */
+	private void makeMove(Move move) {
 		board.move(move.from.x, move.from.y, move.to.x, move.to.y);
 
 		// Increment move number and turn count
 		if (mTurnCount == 0) {
-			turns.push(new Turn(whoseTurn(), move));
 			mMoveNumber = TzaarGame.MOVE_FIRST;
 			++mTurnCount;
 		}
 		else if (mMoveNumber == TzaarGame.MOVE_SECOND) {
-			turns.peek().setSecond(move);
 			mMoveNumber = TzaarGame.MOVE_FIRST;
 			++mTurnCount;
 		}
 		else {
-			turns.push(new Turn(whoseTurn(), move));
 			mMoveNumber = TzaarGame.MOVE_SECOND;
 		}
 	}
 	
+	/**
+	 * Takes back a move made with move(). The caller must pass the pieces that
+	 * occupied the source and destination spaces before the move was made.
+	 * 
+	 * Moves must be taken back in the reverse order they were made.
+	 * 
+	 * @param move
+	 * @param fromPiece piece at the source space before the move
+	 * @param toPiece piece at the destination space before the move
+	 */
+	public void undo(Move move, byte fromPiece, byte toPiece) {
+		board.undo(move.from.x, move.from.y, fromPiece, move.to.x, move.to.y, toPiece);
+		
+		// Decrement move number and turn count
+		if (mMoveNumber == TzaarGame.MOVE_SECOND) {
+			mMoveNumber = TzaarGame.MOVE_FIRST;
+		}
+		else if (mTurnCount == 1) {
+			mTurnCount = 0;
+		}
+		else {
+			mMoveNumber = TzaarGame.MOVE_SECOND;
+			--mTurnCount;
+		}
+		mJournal.removeLast();
+	}
+	
+	/**
+	 * Determines the outcome when the player to move has no valid moves. A
+	 * player who cannot capture at the start of a turn loses, but the second
+	 * move of a turn may be a pass (see pass()).
+	 * 
+	 * This is the rule for every engine, so that the solver, the searches
+	 * and the playouts agree on positions without moves.
+	 * 
+	 * @return color of the winner, or COLOR_UNSET if the player passes
+	 */
+	public int getNoMovesWinner() {
+		if (mMoveNumber == TzaarGame.MOVE_SECOND) {
+			return GameBoard.COLOR_UNSET;
+		}
+		return oppositeColor(whoseTurn());
+	}
+	
+	/**
+	 * Ends the turn without a second move. Passes are not recorded in the
+	 * move history, so seek() and getLastTurn() do not see them.
+	 */
+	public void pass() {
+		mMoveNumber = TzaarGame.MOVE_FIRST;
+		++mTurnCount;
+	}
+	
+	/**
+	 * Takes back a pass made with pass().
+	 */
+	public void undoPass() {
+		mMoveNumber = TzaarGame.MOVE_SECOND;
+		--mTurnCount;
+	}
+	
+	/**
+	 * Returns the game to the position after the given number of moves of
+	 * its history, discarding the later moves. Replays the moves from the 
+	 * last snapshot taken, taking the snapshots it passes, so seeking again
+	 * costs at most GameJournal.SNAPSHOT_INTERVAL moves.
+	 * 
+	 * @param ply number of moves to keep
+	 */
+	public void seek(int ply) {
+		mJournal.truncate(ply);
+		
+		for (int i = mJournal.restoreSnapshot(ply, this); i < ply; ++i) {
+			makeMove(mJournal.getMove(i));
+			mJournal.snapshot(i + 1, this);
+		}
+	}
+	
+	/**
+	 * Recreates the position after the given number of moves of the history,
+	 * leaving this game unchanged.
+	 * 
+	 * @param ply number of moves
+	 * @return new game
+	 */
+	public TzaarGame getPosition(int ply) {
+		TzaarGame game = new TzaarGame(this);
+		game.seek(ply);
+		return game;
+	}
+	
+	/**
+	 * Rebuilds the most recent turn from the move history.
+	 * 
+	 * @return turn, or null if no moves have been made
+	 */
+	public Turn getLastTurn() {
+		int ply = mJournal.size();
+		if (ply == 0) {
+			return null;
+		}
+		
+		// A turn in progress has only its first move so far
+		if (mMoveNumber == TzaarGame.MOVE_SECOND) {
+			return new Turn(whoseTurn(), mJournal.getMove(ply - 1));
+		}
+		
+		int player = oppositeColor(whoseTurn());
+		if (mTurnCount == 1 || ply == 1) {
+			return new Turn(player, mJournal.getMove(ply - 1));
+		}
+		return new Turn(player, mJournal.getMove(ply - 2), mJournal.getMove(ply - 1));
+	}
+	
+	/**
+	 * Restarts the move history from the current position.
+	 */
+	void resetJournal() {
+		mJournal.reset(this);
+	}
+	
+	/**
+	 * Replaces the move history, which must lead to the current position.
+	 * The history is replayed from its first snapshot, checking each move
+	 * against the valid moves of its position and each snapshot against the
+	 * replayed position.
+	 * 
+	 * @param journal
+	 * @throws IllegalArgumentException if the history has an invalid move or
+	 *         does not lead to the current position
+	 */
+	void setJournal(GameJournal journal) {
+		TzaarGame end = new TzaarGame(this);
+		journal.restoreSnapshot(0, end);
+		
+		ArrayList<Move> moves = new ArrayList<Move>();
+		for (int ply = 0; ply < journal.size(); ++ply) {
+			end.getValidMoves(end.whoseTurn(), end.mMoveNumber, moves);
+			Move move = Move.find(moves, journal.getPacked(ply));
+			if (move == null || move.type != journal.getType(ply)) {
+				throw new IllegalArgumentException("Invalid move at ply " + ply);
+			}
+			end.makeMove(move);
+			
+			if (!journal.matchesSnapshot(ply + 1, end)) {
+				throw new IllegalArgumentException("Snapshot does not match the moves at ply " + (ply + 1));
+			}
+		}
+		
+		if (end.getHash() != getHash()) {
+			throw new IllegalArgumentException("Move history does not match the position");
+		}
+		mJournal = journal;
+	}
+	
+	public GameJournal getJournal() {
+		return mJournal;
+	}
+	
+	/**
+	 * Copies the move history with all its snapshots, for writing it (see
+	 * GameJournal.write()).
+	 * 
+	 * @return new journal
+	 */
+	public GameJournal getCompleteJournal() {
+		TzaarGame end = new TzaarGame(this);
+		end.seek(mJournal.size());
+		return end.mJournal;
+	}
+	
 	/**
 	 * Determines if the current state is a winning state for the given player.
 	 * 
@@ -423,7 +1018,23 @@ public class TzaarGame {
 	 * @return whether the current state is a winning state for the player
 	 */
 	public boolean isWinningState(int playerColor) {
-		boolean winningState = false;
+		int winner = getWinner();
+		
+		if (playerColor == GameBoard.COLOR_UNSET) {
+			return winner != GameBoard.COLOR_UNSET;
+		}
+		else {
+			return winner == playerColor;
+		}
+	}
+	
+	/**
+	 * Determines which player, if any, is in a winning state. See 
+	 * isWinningState() for the end of game conditions.
+	 * 
+	 * @return color of the winning player, or COLOR_UNSET if the game is not over
+	 */
+	public int getWinner() {
 		boolean blackHasPieces = board.getPieceCount(GameBoard.BTO) > 0
 				&& board.getPieceCount(GameBoard.BTA) > 0 
 				&& board.getPieceCount(GameBoard.BTZ) > 0;
@@ -434,20 +1045,130 @@ public class TzaarGame {
 		boolean blackCanStack = canStack(GameBoard.COLOR_BLACK);
 		boolean whiteCanStack = canStack(GameBoard.COLOR_WHITE);
 		
-		boolean blackWin = blackHasPieces && blackCanStack && (!whiteHasPieces || !whiteCanStack);
-		boolean whiteWin = whiteHasPieces && whiteCanStack && (!blackHasPieces || !blackCanStack);
-		
-		if (playerColor == GameBoard.COLOR_BLACK) {
-			winningState = blackWin;
+		if (blackHasPieces && blackCanStack && (!whiteHasPieces || !whiteCanStack)) {
+			return GameBoard.COLOR_BLACK;
 		}
-		else if (playerColor == GameBoard.COLOR_WHITE) {
-			winningState = whiteWin;
+		else if (whiteHasPieces && whiteCanStack && (!blackHasPieces || !blackCanStack)) {
+			return GameBoard.COLOR_WHITE;
 		}
 		else {
-			winningState = blackWin || whiteWin;
+			return GameBoard.COLOR_UNSET;
 		}
+	}
+	
+	/**
+	 * Statically evaluates the position from the given player's point of view,
+	 * used by the alpha-beta search and to adjudicate playouts that hit the
+	 * length cap.
+	 * 
+	 * A player loses when any piece type runs out, so the scarcest type of 
+	 * each side dominates the score. Total piece count breaks ties. Material
+	 * alone makes every stacking move look like the loss of a piece, so the
+	 * score also counts:
+	 *   - the pieces buried in stacks, which make their stacks immune to
+	 *     smaller ones, and who has the tallest stack
+	 *   - mobility, the number of captures each side could make
+	 *   - the scarcest type of each side counting only the pieces the
+	 *     opponent cannot capture right away
+	 * 
+	 * @param playerColor
+	 * @return positive if the player is ahead, negative if behind, 0 if even
+	 */
+	public int evaluate(int playerColor) {
+		int opponentColor = oppositeColor(playerColor);
 		
-		return winningState;
+		// Walk the board once, the same way as canStack(), collecting the
+		// stack heights and the captures of both sides
+		Arrays.fill(mEvalAttacked, 0);
+		Arrays.fill(mEvalBuried, 0);
+		Arrays.fill(mEvalTallest, 0);
+		Arrays.fill(mEvalCaptures, 0);
+		
+		for (int col = 0; col < GameBoard.COLS; ++col) {
+			for (int row = 0; row < GameBoard.ROWS; ++row) {
+				byte piece = board.getPiece(col, row);
+				if (piece == GameBoard.NULL || piece == GameBoard.NONE) {
+					continue;
+				}
+				
+				int color = piece & 1;
+				int height = piece >> 3;
+				mEvalBuried[color] += height - 1;
+				mEvalTallest[color] = Math.max(mEvalTallest[color], height);
+				
+				for (int i = 0; i < mDirections[0].length; ++i) {
+					int nextCol = col;
+					int nextRow = row;
+					byte nextPiece;
+					do {
+						int dirIndex = nextCol % 2;
+						nextCol += mDirections[dirIndex][i].x;
+						nextRow += mDirections[dirIndex][i].y;
+						nextPiece = board.getPiece(nextCol, nextRow);
+					} while (nextPiece == GameBoard.NONE);
+					
+					if (nextPiece != GameBoard.NULL && (nextPiece & 1) != color && (nextPiece >> 3) <= height) {
+						++mEvalCaptures[color];
+						++mEvalAttacked[nextPiece & 7];
+					}
+				}
+			}
+		}
+		
+		return EVAL_MIN * (getScarcest(playerColor, false) - getScarcest(opponentColor, false))
+				+ (getTotal(playerColor) - getTotal(opponentColor))
+				+ EVAL_BURIED * (mEvalBuried[playerColor] - mEvalBuried[opponentColor])
+				+ EVAL_TALLEST * Integer.signum(mEvalTallest[playerColor] - mEvalTallest[opponentColor])
+				+ EVAL_CAPTURE * (mEvalCaptures[playerColor] - mEvalCaptures[opponentColor])
+				+ EVAL_SAFE * (getScarcest(playerColor, true) - getScarcest(opponentColor, true));
+	}
+	
+	/**
+	 * Gets the number of pieces of a player's scarcest type.
+	 * 
+	 * @param playerColor
+	 * @param safeOnly true to count only the pieces the opponent cannot
+	 *        capture (as found by evaluate())
+	 * @return number of pieces
+	 */
+	private int getScarcest(int playerColor, boolean safeOnly) {
+		int scarcest = Integer.MAX_VALUE;
+		for (byte type = GameBoard.TOTT; type <= GameBoard.TZAAR; type += 2) {
+			int count = board.getPieceCount((byte) (playerColor | type));
+			if (safeOnly) {
+				count -= Math.min(mEvalAttacked[playerColor | type], count);
+			}
+			scarcest = Math.min(scarcest, count);
+		}
+		return scarcest;
+	}
+	
+	private int getTotal(int playerColor) {
+		return board.getPieceCount((byte) (playerColor | GameBoard.TOTT))
+				+ board.getPieceCount((byte) (playerColor | GameBoard.TZARRA))
+				+ board.getPieceCount((byte) (playerColor | GameBoard.TZAAR));
+	}
+	
+	/**
+	 * Calculates the hash of the current game position, which includes the
+	 * player to move and the move number as well as the board.
+	 * 
+	 * @return position hash
+	 */
+	public long getHash() {
+		long hash = board.getHash();
+		
+		if (whoseTurn() == GameBoard.COLOR_BLACK) {
+			hash ^= Zobrist.BLACK_TO_MOVE;
+		}
+		if (mMoveNumber == MOVE_SECOND) {
+			hash ^= Zobrist.SECOND_MOVE;
+		}
+		if (mTurnCount == 0) {
+			hash ^= Zobrist.FIRST_TURN;
+		}
+		
+		return hash;
 	}
 	
 	/**
@@ -482,6 +1203,35 @@ public class TzaarGame {
 		mDifficulty = difficulty;
 	}
 
+	/**
+	 * Gets the compute budget of the AI.
+	 * 
+	 * @return profile set by setProfile(), or the default of the difficulty
+	 *         (null for DIFFICULTY_NONE)
+	 */
+	public DifficultyProfile getProfile() {
+		return (mProfile != null) ? mProfile : DifficultyProfile.forDifficulty(mDifficulty);
+	}
+
+	/**
+	 * Replaces the compute budget of the AI, for example to suit the device.
+	 * The difficulty still decides the search and its throttles.
+	 * 
+	 * @param profile profile, or null for the default of the difficulty
+	 */
+	public void setProfile(DifficultyProfile profile) {
+		mProfile = profile;
+	}
+
+	/**
+	 * Gets the limit that stopped the last search of findMove().
+	 * 
+	 * @return SearchLimit.*, NONE if the move was found without searching
+	 */
+	public int getStopReason() {
+		return mStopReason;
+	}
+
 	public int getStartPositions() {
 		return mStartPositions;
 	}
@@ -505,4 +1255,56 @@ public class TzaarGame {
 	public void setTurnCount(int turnCount) {
 		mTurnCount = turnCount;
 	}
+
+	public long getStartSeed() {
+		return mStartSeed;
+	}
+
+	void setStartSeed(long startSeed) {
+		mStartSeed = startSeed;
+	}
+
+	public int getMaxPlayoutMoves() {
+		return mMaxPlayoutMoves;
+	}
+
+	public void setMaxPlayoutMoves(int maxPlayoutMoves) {
+		mMaxPlayoutMoves = maxPlayoutMoves;
+	}
+
+	public PlayoutStats getPlayoutStats() {
+		return mPlayoutStats;
+	}
+
+	public Tablebase getTablebase() {
+		return mTablebase;
+	}
+
+	public void setTablebase(Tablebase tablebase) {
+		mTablebase = tablebase;
+	}
+
+	public PlayoutPolicy getPlayoutPolicy() {
+		return mPlayoutPolicy;
+	}
+
+	public void setPlayoutPolicy(PlayoutPolicy playoutPolicy) {
+		mPlayoutPolicy = playoutPolicy;
+	}
+
+	public MoveStatistics getMoveStatistics() {
+		return mMoveStatistics;
+	}
+
+	public void setMoveStatistics(MoveStatistics moveStatistics) {
+		mMoveStatistics = moveStatistics;
+	}
+
+	public NodeArena getSearchTree() {
+		return mSearchTree;
+	}
+
+	public void setSearchTree(NodeArena searchTree) {
+		mSearchTree = searchTree;
+	}
 }
@@ -0,0 +1,54 @@
+package com.github.littletzaar;
+
+/**
+ * Zobrist hash keys for board positions.
+ * 
+ * The key of a piece on a space is derived from the space index and the raw
+ * piece byte (color, type and height) with a 64-bit mixing function, so no
+ * key table needs to be allocated and the keys are the same on every device 
+ * and every run. Hashes can therefore be stored in files.
+ */
+public final class Zobrist {
+	// Key for black to move
+	public static final long BLACK_TO_MOVE = key(-1, 0);
+	
+	// Key for the second move of a turn
+	public static final long SECOND_MOVE = key(-2, 0);
+	
+	// Key for the single-move opening turn
+	public static final long FIRST_TURN = key(-3, 0);
+	
+	private Zobrist() {
+	}
+	
+	/**
+	 * Returns the key of a move, for keying statistics by position and move.
+	 * 
+	 * @param packedMove move packed by Move.pack()
+	 * @return 64-bit key
+	 */
+	public static long move(int packedMove) {
+		return key(-4 - packedMove, 0);
+	}
+	
+	/**
+	 * Returns the key of the given piece on the given space.
+	 * 
+	 * @param space space index (col * ROWS + row)
+	 * @param piece raw piece byte
+	 * @return 64-bit key
+	 */
+	public static long key(int space, byte piece) {
+		return key(space, piece & 0xFF);
+	}
+	
+	/**
+	 * Finalizer of the SplitMix64 generator, applied to the space and piece.
+	 */
+	private static long key(int space, int piece) {
+		long z = ((long) space << 8 | piece) * 0x9E3779B97F4A7C15L + 0x2545F4914F6CDD1DL;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
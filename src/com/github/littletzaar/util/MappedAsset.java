@@ -0,0 +1,99 @@
+package com.github.littletzaar.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+/**
+ * Maps read-only data files (opening book, tablebase) into memory.
+ */
+public class MappedAsset {
+	/**
+	 * Maps a file into memory.
+	 * 
+	 * @param file
+	 * @return file contents
+	 * @throws IOException
+	 */
+	public static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Maps an asset into memory.
+	 * 
+	 * The asset is mapped directly from the APK when it is stored
+	 * uncompressed. Otherwise it is copied to the app's files directory once
+	 * and mapped from there.
+	 * 
+	 * @param context
+	 * @param name asset name
+	 * @return asset contents
+	 * @throws IOException if the asset does not exist or cannot be mapped
+	 */
+	public static ByteBuffer map(Context context, String name) throws IOException {
+		try {
+			AssetFileDescriptor fd = context.getAssets().openFd(name);
+			FileInputStream in = fd.createInputStream();
+			try {
+				return in.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (FileNotFoundException fnfe) {
+			// The asset is compressed, so map a copy instead
+			File file = new File(context.getFilesDir(), name);
+			if (!file.exists()) {
+				copy(context, name, file);
+			}
+			return map(file);
+		}
+	}
+
+	/**
+	 * Copies an asset to a file.
+	 */
+	private static void copy(Context context, String name, File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		InputStream in = context.getAssets().open(name);
+		try {
+			OutputStream out = new FileOutputStream(temp);
+			try {
+				byte[] buffer = new byte[8192];
+				int length;
+				while ((length = in.read(buffer)) > 0) {
+					out.write(buffer, 0, length);
+				}
+			}
+			finally {
+				out.close();
+			}
+		}
+		finally {
+			in.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			throw new IOException("Failed to copy asset " + name);
+		}
+	}
+}